@@ -40,6 +40,7 @@ import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
 import nxt.db.DerivedDbTable;
+import nxt.db.TableTrimmer;
 import nxt.db.VersionedEntityDbTable;
 import nxt.db.VersionedPersistentDbTable;
 import nxt.util.Convert;
@@ -638,9 +639,9 @@ public final class Account {
         public void trim(int height) {
             try (Connection con = Db.db.getConnection();
                  PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM account_guaranteed_balance "
-                         + "WHERE height < ? AND height >= 0")) {
+                         + "WHERE height < ? AND height >= 0 LIMIT ?")) {
                 pstmtDelete.setInt(1, height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS);
-                pstmtDelete.executeUpdate();
+                TableTrimmer.deleteRows(pstmtDelete, 2);
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
@@ -1229,6 +1230,18 @@ public final class Account {
             lessorIds[i] = lessors.get(i).getId();
             balances[i] = lessors.get(i).getBalanceNQT();
         }
+        long cachedTotal = 0;
+        int count = 0;
+        while (count < lessorIds.length) {
+            long additions = GuaranteedBalances.getAdditions(lessorIds[count], height);
+            if (additions < 0) {
+                break;
+            }
+            cachedTotal += Math.max(balances[count++] - additions, 0);
+        }
+        if (count == lessorIds.length) {
+            return cachedTotal;
+        }
         int blockchainHeight = Nxt.getBlockchain().getHeight();
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT account_id, SUM (additions) AS additions "
@@ -1282,6 +1295,12 @@ public final class Account {
                     || height > Nxt.getBlockchain().getHeight()) {
                 throw new IllegalArgumentException("Height " + height + " not available for guaranteed balance calculation");
             }
+            if (numberOfConfirmations == Constants.GUARANTEED_BALANCE_CONFIRMATIONS) {
+                long additions = GuaranteedBalances.getAdditions(this.id, currentHeight);
+                if (additions >= 0) {
+                    return Math.max(Math.subtractExact(balanceNQT, additions), 0);
+                }
+            }
             try (Connection con = Db.db.getConnection();
                  PreparedStatement pstmt = con.prepareStatement("SELECT SUM (additions) AS additions "
                          + "FROM account_guaranteed_balance WHERE account_id = ? AND height > ? AND height <= ?")) {
@@ -22,17 +22,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import nxt.db.DbUtils;
 import nxt.db.DerivedDbTable;
+import nxt.db.TableTrimmer;
 import nxt.util.Convert;
 import nxt.util.Listener;
 import nxt.util.Listeners;
@@ -67,6 +69,12 @@ public class AccountLedger {
     /** Pending ledger entries */
     private static final List<LedgerEntry> pendingEntries = new ArrayList<>();
 
+    /** Pending ledger entry keys */
+    private static final Set<LedgerEntry> pendingEntrySet = new HashSet<>();
+
+    /** Maximum number of ledger entries in a single insert batch */
+    private static final int INSERT_BATCH_SIZE = 500;
+
     /**
      * Process nxt.ledgerAccounts
      */
@@ -107,13 +115,47 @@ public class AccountLedger {
         }
 
         /**
-         * Insert an entry into the table
+         * Insert entries into the table
+         *
+         * The entries are inserted using batched statements.  Ledger entries are only inserted
+         * while the blockchain write lock is held, so the entries just inserted are the rows
+         * with the highest database identifiers at or above the entry height and the ledger
+         * identifiers are read back in a single query.
          *
-         * @param   ledgerEntry             Ledger entry
+         * @param   ledgerEntries           Ledger entries
          */
-        public void insert(LedgerEntry ledgerEntry) {
-            try (Connection con = db.getConnection()) {
-                ledgerEntry.save(con);
+        public void insert(List<LedgerEntry> ledgerEntries) {
+            if (ledgerEntries.isEmpty()) {
+                return;
+            }
+            try (Connection con = db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("INSERT INTO account_ledger "
+                        + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
+                        + "block_id, height, timestamp) "
+                        + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                 PreparedStatement pstmtId = con.prepareStatement("SELECT db_id FROM account_ledger "
+                        + "WHERE height >= ? ORDER BY db_id DESC LIMIT ?")) {
+                int count = 0;
+                int height = Integer.MAX_VALUE;
+                for (LedgerEntry ledgerEntry : ledgerEntries) {
+                    height = Math.min(height, ledgerEntry.getHeight());
+                    ledgerEntry.save(pstmt);
+                    pstmt.addBatch();
+                    if (++count % INSERT_BATCH_SIZE == 0) {
+                        pstmt.executeBatch();
+                    }
+                }
+                if (count % INSERT_BATCH_SIZE != 0) {
+                    pstmt.executeBatch();
+                }
+                pstmtId.setInt(1, height);
+                pstmtId.setInt(2, count);
+                try (ResultSet rs = pstmtId.executeQuery()) {
+                    int index = count;
+                    while (rs.next() && index > 0) {
+                        ledgerEntries.get(--index).ledgerId = rs.getLong(1);
+                    }
+                }
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
@@ -128,11 +170,32 @@ public class AccountLedger {
         public void trim(int height) {
             if (trimKeep <= 0)
                 return;
+            //
+            // Ledger entries are inserted in height order and entries above a rollback height
+            // are deleted, so the entries to be trimmed are a range of database identifiers
+            // starting with the oldest entry.  The range is deleted using the primary key
+            // instead of the height index.
+            //
             try (Connection con = db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("DELETE FROM account_ledger WHERE height <= ?")) {
+                 PreparedStatement pstmtHeight = con.prepareStatement("SELECT height FROM account_ledger "
+                        + "WHERE height <= ? ORDER BY height DESC LIMIT 1");
+                 PreparedStatement pstmtId = con.prepareStatement("SELECT MAX(db_id) FROM account_ledger WHERE height = ?");
+                 PreparedStatement pstmt = con.prepareStatement("DELETE FROM account_ledger WHERE db_id <= ? LIMIT ?")) {
                 int trimHeight = Math.max(blockchain.getHeight() - trimKeep, 0);
-                pstmt.setInt(1, trimHeight);
-                pstmt.executeUpdate();
+                pstmtHeight.setInt(1, trimHeight);
+                try (ResultSet rs = pstmtHeight.executeQuery()) {
+                    if (!rs.next()) {
+                        return;
+                    }
+                    pstmtId.setInt(1, rs.getInt(1));
+                }
+                long maxId;
+                try (ResultSet rs = pstmtId.executeQuery()) {
+                    rs.next();
+                    maxId = rs.getLong(1);
+                }
+                pstmt.setLong(1, maxId);
+                TableTrimmer.deleteRows(pstmt, 2);
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
@@ -232,9 +295,10 @@ public class AccountLedger {
             throw new IllegalStateException("Not in transaction");
         }
         //
-        // Combine multiple ledger entries
+        // Combine multiple ledger entries.  The pending entry set is checked first so
+        // the pending entries are only searched when there is an entry to combine.
         //
-        int index = pendingEntries.indexOf(ledgerEntry);
+        int index = (pendingEntrySet.add(ledgerEntry) ? -1 : pendingEntries.indexOf(ledgerEntry));
         if (index >= 0) {
             LedgerEntry existingEntry = pendingEntries.remove(index);
             ledgerEntry.updateChange(existingEntry.getChange());
@@ -257,11 +321,12 @@ public class AccountLedger {
      * Commit pending ledger entries
      */
     static void commitEntries() {
+        accountLedgerTable.insert(pendingEntries);
         for (LedgerEntry ledgerEntry : pendingEntries) {
-            accountLedgerTable.insert(ledgerEntry);
             listeners.notify(ledgerEntry, Event.ADD_ENTRY);
         }
         pendingEntries.clear();
+        pendingEntrySet.clear();
     }
 
     /**
@@ -269,6 +334,7 @@ public class AccountLedger {
      */
     static void clearEntries() {
         pendingEntries.clear();
+        pendingEntrySet.clear();
     }
 
     /**
@@ -840,38 +906,27 @@ public class AccountLedger {
         }
 
         /**
-         * Save the ledger entry
+         * Set the insert statement parameters for the ledger entry
          *
-         * @param   con                     Database connection
+         * @param   stmt                    Insert statement
          * @throws  SQLException            Database error occurred
          */
-        private void save(Connection con) throws SQLException {
-            try (PreparedStatement stmt = con.prepareStatement("INSERT INTO account_ledger "
-                    + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
-                    + "block_id, height, timestamp) "
-                    + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
-                int i=0;
-                stmt.setLong(++i, accountId);
-                stmt.setByte(++i, (byte) event.getCode());
-                stmt.setLong(++i, eventId);
-                if (holding != null) {
-                    stmt.setByte(++i, (byte)holding.getCode());
-                } else {
-                    stmt.setByte(++i, (byte)-1);
-                }
-                DbUtils.setLong(stmt, ++i, holdingId);
-                stmt.setLong(++i, change);
-                stmt.setLong(++i, balance);
-                stmt.setLong(++i, blockId);
-                stmt.setInt(++i, height);
-                stmt.setInt(++i, timestamp);
-                stmt.executeUpdate();
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        ledgerId = rs.getLong(1);
-                    }
-                }
+        private void save(PreparedStatement stmt) throws SQLException {
+            int i=0;
+            stmt.setLong(++i, accountId);
+            stmt.setByte(++i, (byte) event.getCode());
+            stmt.setLong(++i, eventId);
+            if (holding != null) {
+                stmt.setByte(++i, (byte)holding.getCode());
+            } else {
+                stmt.setByte(++i, (byte)-1);
             }
+            DbUtils.setLong(stmt, ++i, holdingId);
+            stmt.setLong(++i, change);
+            stmt.setLong(++i, balance);
+            stmt.setLong(++i, blockId);
+            stmt.setInt(++i, height);
+            stmt.setInt(++i, timestamp);
         }
     }
 }
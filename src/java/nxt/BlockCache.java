@@ -0,0 +1,261 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Cache for the most recent blocks
+ *
+ * The cache holds the blocks and transactions for the most recent blocks, limited by
+ * nxt.blockCacheSize blocks and approximately nxt.blockCacheMaxKB of memory.  The cached
+ * blocks are always a contiguous sequence ending at the last pushed block, so the blocks
+ * following a cached block are also cached.  The cache also keeps the block and transaction
+ * identifiers for the last nxt.maxRollback blocks so that duplicate checks within the
+ * rollback window do not need to access the database.
+ *
+ * Lookups do not obtain a lock.  Updates are made when a block is pushed or when blocks
+ * are deleted from the database.
+ */
+final class BlockCache {
+
+    /** Estimated memory used by a block in addition to its payload */
+    private static final int BLOCK_OVERHEAD = 1024;
+
+    /** Maximum number of cached blocks */
+    private final int maxBlocks;
+
+    /** Maximum memory used by the cached blocks */
+    private final long maxBytes;
+
+    /** Number of blocks in the identifier window */
+    private final int windowSize;
+
+    /** Cached blocks by height */
+    private final ConcurrentSkipListMap<Integer, BlockImpl> heightMap = new ConcurrentSkipListMap<>();
+
+    /** Cached blocks by block identifier */
+    private final Map<Long, BlockImpl> blockMap = new ConcurrentHashMap<>();
+
+    /** Cached transactions by transaction identifier */
+    private final Map<Long, TransactionImpl> transactionMap = new ConcurrentHashMap<>();
+
+    /** Block and transaction identifiers by height for the identifier window */
+    private final ConcurrentSkipListMap<Integer, long[]> windowMap = new ConcurrentSkipListMap<>();
+
+    /** Block heights for the identifier window */
+    private final Map<Long, Integer> blockHeights = new ConcurrentHashMap<>();
+
+    /** Transaction heights for the identifier window */
+    private final Map<Long, Integer> transactionHeights = new ConcurrentHashMap<>();
+
+    /** Estimated memory used by the cached blocks */
+    private long cacheBytes;
+
+    /**
+     * Create the block cache
+     *
+     * @param   maxBlocks           Maximum number of cached blocks
+     * @param   maxBytes            Maximum memory used by the cached blocks
+     * @param   windowSize          Number of blocks in the identifier window
+     */
+    BlockCache(int maxBlocks, long maxBytes, int windowSize) {
+        this.maxBlocks = Math.max(1, maxBlocks);
+        this.maxBytes = maxBytes;
+        this.windowSize = Math.max(this.maxBlocks, windowSize);
+    }
+
+    /**
+     * Return a cached block
+     *
+     * @param   blockId             Block identifier
+     * @return                      Block or null if the block is not cached
+     */
+    BlockImpl getBlock(long blockId) {
+        return blockMap.get(blockId);
+    }
+
+    /**
+     * Return the cached block at the specified height
+     *
+     * @param   height              Block height
+     * @return                      Block or null if the block is not cached
+     */
+    BlockImpl getBlockAtHeight(int height) {
+        return heightMap.get(height);
+    }
+
+    /**
+     * Return the cached blocks following a block.  The cached blocks are contiguous,
+     * so all of the blocks following a cached block are returned up to the limit.
+     *
+     * @param   blockId             Block identifier
+     * @param   limit               Maximum number of blocks to return
+     * @return                      Block list or null if the block is not cached
+     */
+    List<BlockImpl> getBlocksAfter(long blockId, int limit) {
+        BlockImpl block = blockMap.get(blockId);
+        if (block == null) {
+            return null;
+        }
+        List<BlockImpl> result = new ArrayList<>(Math.min(limit, heightMap.size()));
+        for (BlockImpl cacheBlock : heightMap.tailMap(block.getHeight() + 1).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(cacheBlock);
+        }
+        return result;
+    }
+
+    /**
+     * Return a cached transaction
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      Transaction or null if the transaction is not cached
+     */
+    TransactionImpl getTransaction(long transactionId) {
+        return transactionMap.get(transactionId);
+    }
+
+    /**
+     * Return the height of a block within the identifier window
+     *
+     * @param   blockId             Block identifier
+     * @return                      Block height or -1 if the block is not in the window
+     */
+    int getBlockHeight(long blockId) {
+        Integer height = blockHeights.get(blockId);
+        return height != null ? height : -1;
+    }
+
+    /**
+     * Return the height of a transaction within the identifier window
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      Transaction height or -1 if the transaction is not in the window
+     */
+    int getTransactionHeight(long transactionId) {
+        Integer height = transactionHeights.get(transactionId);
+        return height != null ? height : -1;
+    }
+
+    /**
+     * Add a block to the cache.  Cached blocks at the same or greater height are removed
+     * since they are no longer part of the blockchain.
+     *
+     * @param   block               Block
+     */
+    synchronized void addBlock(BlockImpl block) {
+        int height = block.getHeight();
+        removeBlocks(height - 1);
+        if (!heightMap.isEmpty() && heightMap.lastKey() != height - 1) {
+            clearBlocks();
+        }
+        List<TransactionImpl> transactions = block.getTransactions();
+        long[] ids = new long[transactions.size() + 1];
+        ids[0] = block.getId();
+        int index = 1;
+        for (TransactionImpl transaction : transactions) {
+            ids[index++] = transaction.getId();
+            transactionMap.put(transaction.getId(), transaction);
+            transactionHeights.put(transaction.getId(), height);
+        }
+        windowMap.put(height, ids);
+        blockHeights.put(block.getId(), height);
+        heightMap.put(height, block);
+        blockMap.put(block.getId(), block);
+        cacheBytes += blockSize(block);
+        //
+        // Remove the oldest blocks
+        //
+        while (heightMap.size() > maxBlocks || (cacheBytes > maxBytes && heightMap.size() > 1)) {
+            BlockImpl oldBlock = heightMap.pollFirstEntry().getValue();
+            blockMap.remove(oldBlock.getId());
+            oldBlock.getTransactions().forEach(transaction -> transactionMap.remove(transaction.getId()));
+            cacheBytes -= blockSize(oldBlock);
+        }
+        while (windowMap.size() > windowSize) {
+            removeIds(windowMap.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * Remove blocks above the specified height
+     *
+     * @param   height              Height of the last block to keep
+     */
+    synchronized void removeBlocks(int height) {
+        Map.Entry<Integer, BlockImpl> entry;
+        while ((entry = heightMap.lastEntry()) != null && entry.getKey() > height) {
+            BlockImpl block = entry.getValue();
+            heightMap.remove(entry.getKey());
+            blockMap.remove(block.getId());
+            block.getTransactions().forEach(transaction -> transactionMap.remove(transaction.getId()));
+            cacheBytes -= blockSize(block);
+        }
+        Map.Entry<Integer, long[]> idEntry;
+        while ((idEntry = windowMap.lastEntry()) != null && idEntry.getKey() > height) {
+            windowMap.remove(idEntry.getKey());
+            removeIds(idEntry.getValue());
+        }
+    }
+
+    /**
+     * Remove a transaction from the cache
+     *
+     * @param   transactionId       Transaction identifier
+     */
+    void removeTransaction(long transactionId) {
+        transactionMap.remove(transactionId);
+        transactionHeights.remove(transactionId);
+    }
+
+    /**
+     * Clear the cache
+     */
+    synchronized void clear() {
+        clearBlocks();
+        windowMap.clear();
+        blockHeights.clear();
+        transactionHeights.clear();
+    }
+
+    private void clearBlocks() {
+        heightMap.clear();
+        blockMap.clear();
+        transactionMap.clear();
+        cacheBytes = 0;
+    }
+
+    private void removeIds(long[] ids) {
+        blockHeights.remove(ids[0]);
+        for (int i = 1; i < ids.length; i++) {
+            transactionHeights.remove(ids[i]);
+        }
+    }
+
+    private static long blockSize(BlockImpl block) {
+        return BLOCK_OVERHEAD + 2L * block.getPayloadLength();
+    }
+}
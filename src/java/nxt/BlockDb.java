@@ -24,61 +24,116 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import nxt.db.DbUtils;
+import nxt.db.EntityCache;
+import nxt.util.BloomFilter;
 import nxt.util.Logger;
 
 final class BlockDb {
 
     /** Block cache */
-    static final int BLOCK_CACHE_SIZE = 10;
-    static final Map<Long, BlockImpl> blockCache = new HashMap<>();
-    static final SortedMap<Integer, BlockImpl> heightMap = new TreeMap<>();
-    static final Map<Long, TransactionImpl> transactionCache = new HashMap<>();
+    static final BlockCache blockCache = new BlockCache(Nxt.getIntProperty("nxt.blockCacheSize", 720),
+            Nxt.getIntProperty("nxt.blockCacheMaxKB", 32 * 1024) * 1024L, Constants.MAX_ROLLBACK);
     static final Blockchain blockchain = Nxt.getBlockchain();
     static {
-        Nxt.getBlockchainProcessor().addListener((block) -> {
-            synchronized (blockCache) {
-                int height = block.getHeight();
-                Iterator<BlockImpl> it = blockCache.values().iterator();
-                while (it.hasNext()) {
-                    Block cacheBlock = it.next();
-                    int cacheHeight = cacheBlock.getHeight();
-                    if (cacheHeight <= height - BLOCK_CACHE_SIZE || cacheHeight >= height) {
-                        cacheBlock.getTransactions().forEach((tx) -> transactionCache.remove(tx.getId()));
-                        heightMap.remove(cacheHeight);
-                        it.remove();
-                    }
-                }
-                block.getTransactions().forEach((tx) -> transactionCache.put(tx.getId(), (TransactionImpl)tx));
-                heightMap.put(height, (BlockImpl)block);
-                blockCache.put(block.getId(), (BlockImpl)block);
-            }
-        }, BlockchainProcessor.Event.BLOCK_PUSHED);
+        Nxt.getBlockchainProcessor().addListener((block) -> blockCache.addBlock((BlockImpl)block),
+                BlockchainProcessor.Event.BLOCK_PUSHED);
     }
 
+    /** Identifier filter false positive rate */
+    private static final double ID_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    /** Identifier filters are enabled */
+    private static final boolean enableIdFilter = Nxt.getBooleanProperty("nxt.enableIdFilter");
+
+    /** Block identifier filter */
+    private static volatile BloomFilter blockFilter = new BloomFilter(64 * 1024, ID_FILTER_FALSE_POSITIVE_RATE);
+
+    /** Transaction identifier filter */
+    private static volatile BloomFilter transactionFilter = new BloomFilter(256 * 1024, ID_FILTER_FALSE_POSITIVE_RATE);
+
+    /** Identifier filters contain all of the identifiers in the database */
+    private static volatile boolean idFilterLoaded;
+
     static private void clearBlockCache() {
-        synchronized (blockCache) {
-            blockCache.clear();
-            heightMap.clear();
-            transactionCache.clear();
+        blockCache.clear();
+    }
+
+    /**
+     * Load the block and transaction identifier filters from the database.  This must be
+     * called when no other thread is adding blocks to the database.
+     */
+    static void loadIdFilter() {
+        if (!enableIdFilter) {
+            return;
         }
+        idFilterLoaded = false;
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            blockFilter = loadIdFilter(stmt, "block", 64 * 1024);
+            transactionFilter = loadIdFilter(stmt, "transaction", 256 * 1024);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        idFilterLoaded = true;
+        Logger.logDebugMessage("Loaded %d block identifiers and %d transaction identifiers into the identifier filters",
+                blockFilter.size(), transactionFilter.size());
+    }
+
+    private static BloomFilter loadIdFilter(Statement stmt, String table, int minCapacity) throws SQLException {
+        int count;
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            count = rs.getInt(1);
+        }
+        //
+        // Size the filter for twice the current number of identifiers so the chain
+        // can grow for a while before a second filter segment is needed
+        //
+        BloomFilter filter = new BloomFilter((int)Math.min(Math.max(2L * count, minCapacity), Integer.MAX_VALUE / 64),
+                ID_FILTER_FALSE_POSITIVE_RATE);
+        try (ResultSet rs = stmt.executeQuery("SELECT id FROM " + table)) {
+            while (rs.next()) {
+                filter.add(rs.getLong(1));
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Check if a block might be in the database.  Identifiers are added to the filter before
+     * the block is stored, so a negative answer is always correct.  Identifiers of blocks
+     * that have been popped off remain in the filter and are reported as possible matches.
+     *
+     * @param   blockId             Block identifier
+     * @return                      FALSE if the block is definitely not in the database
+     */
+    static boolean mightHaveBlock(long blockId) {
+        return !idFilterLoaded || blockFilter.mightContain(blockId);
+    }
+
+    /**
+     * Check if a transaction might be in the database
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      FALSE if the transaction is definitely not in the database
+     */
+    static boolean mightHaveTransaction(long transactionId) {
+        return !idFilterLoaded || transactionFilter.mightContain(transactionId);
     }
 
     static BlockImpl findBlock(long blockId) {
         // Check the block cache
-        synchronized (blockCache) {
-            BlockImpl block = blockCache.get(blockId);
-            if (block != null) {
-                return block;
-            }
+        BlockImpl cachedBlock = blockCache.getBlock(blockId);
+        if (cachedBlock != null) {
+            return cachedBlock;
+        }
+        // Check the identifier filter
+        if (!mightHaveBlock(blockId)) {
+            return null;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -102,11 +157,13 @@ final class BlockDb {
 
     static boolean hasBlock(long blockId, int height) {
         // Check the block cache
-        synchronized(blockCache) {
-            BlockImpl block = blockCache.get(blockId);
-            if (block != null) {
-                return block.getHeight() <= height;
-            }
+        int cachedHeight = blockCache.getBlockHeight(blockId);
+        if (cachedHeight >= 0) {
+            return cachedHeight <= height;
+        }
+        // Check the identifier filter
+        if (!mightHaveBlock(blockId)) {
+            return false;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -122,11 +179,9 @@ final class BlockDb {
 
     static long findBlockIdAtHeight(int height) {
         // Check the cache
-        synchronized(blockCache) {
-            BlockImpl block = heightMap.get(height);
-            if (block != null) {
-                return block.getId();
-            }
+        BlockImpl cachedBlock = blockCache.getBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock.getId();
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -145,11 +200,9 @@ final class BlockDb {
 
     static BlockImpl findBlockAtHeight(int height) {
         // Check the cache
-        synchronized(blockCache) {
-            BlockImpl block = heightMap.get(height);
-            if (block != null) {
-                return block;
-            }
+        BlockImpl cachedBlock = blockCache.getBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -250,6 +303,15 @@ final class BlockDb {
     }
 
     static void saveBlock(Connection con, BlockImpl block) {
+        //
+        // Add the identifiers to the filters before the block is stored so a concurrent
+        // lookup never gets a false negative
+        //
+        if (enableIdFilter) {
+            blockFilter.add(block.getId());
+            BloomFilter filter = transactionFilter;
+            block.getTransactions().forEach(transaction -> filter.add(transaction.getId()));
+        }
         try {
             try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO block (id, version, timestamp, previous_block_id, "
                     + "total_amount, total_fee, payload_length, previous_block_hash, cumulative_difficulty, "
@@ -280,10 +342,7 @@ final class BlockDb {
                     pstmt.setLong(2, block.getPreviousBlockId());
                     pstmt.executeUpdate();
                 }
-                BlockImpl previousBlock;
-                synchronized (blockCache) {
-                    previousBlock = blockCache.get(block.getPreviousBlockId());
-                }
+                BlockImpl previousBlock = blockCache.getBlock(block.getPreviousBlockId());
                 if (previousBlock != null) {
                     previousBlock.setNextBlockId(block.getId());
                 }
@@ -332,6 +391,7 @@ final class BlockDb {
                      + "IFNULL ((SELECT timestamp FROM block WHERE id = ?), " + Integer.MAX_VALUE + ") ORDER BY timestamp DESC");
              PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM block WHERE db_id = ?")) {
             try {
+                int deleted = 0;
                 pstmtSelect.setLong(1, blockId);
                 try (ResultSet rs = pstmtSelect.executeQuery()) {
                     Db.db.commitTransaction();
@@ -339,6 +399,7 @@ final class BlockDb {
         	            pstmtDelete.setLong(1, rs.getLong("db_id"));
             	        pstmtDelete.executeUpdate();
                         Db.db.commitTransaction();
+                        deleted++;
                     }
 	            }
                 BlockImpl lastBlock = findLastBlock();
@@ -348,15 +409,31 @@ final class BlockDb {
                     pstmt.executeUpdate();
                 }
                 Db.db.commitTransaction();
+                blockCache.removeBlocks(lastBlock.getHeight());
+                BlockImpl cachedBlock = blockCache.getBlockAtHeight(lastBlock.getHeight());
+                if (cachedBlock != null) {
+                    cachedBlock.setNextBlockId(0);
+                }
+                //
+                // The identifiers of the deleted blocks remain in the identifier filters as
+                // false positives.  Rebuild the filters after a deep pop-off so they do not
+                // accumulate stale identifiers.  The caller holds the blockchain write lock,
+                // so no blocks are being added while the filters are loaded.
+                //
+                if (deleted > Constants.MAX_ROLLBACK) {
+                    loadIdFilter();
+                }
                 return lastBlock;
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
                 throw e;
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        } finally {
+        } catch (SQLException | RuntimeException e) {
             clearBlockCache();
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException)e;
+            }
+            throw new RuntimeException(e.toString(), e);
         }
     }
 
@@ -381,13 +458,28 @@ final class BlockDb {
                 stmt.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
                 stmt.executeUpdate("TRUNCATE TABLE transaction");
                 stmt.executeUpdate("TRUNCATE TABLE block");
+                //
+                // Persistent tables are not truncated by DerivedDbTable.truncate(), so they are truncated
+                // directly.  The other tables are truncated by the table so that the entity caches and the
+                // in-memory order and offer books are cleared as well.
+                //
                 BlockchainProcessorImpl.getInstance().getDerivedTables().forEach(table -> {
-                    try {
-                        stmt.executeUpdate("TRUNCATE TABLE " + table.toString());
-                    } catch (SQLException ignore) {}
+                    if (table.isPersistent()) {
+                        try {
+                            stmt.executeUpdate("TRUNCATE TABLE " + table.toString());
+                        } catch (SQLException ignore) {}
+                    } else {
+                        table.truncate();
+                    }
                 });
+                EntityCache.getCaches().forEach(EntityCache::clear);
                 stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
                 Db.db.commitTransaction();
+                TransactionProcessorImpl.getInstance().resetUnconfirmedTransactions();
+                if (enableIdFilter) {
+                    blockFilter.clear();
+                    transactionFilter.clear();
+                }
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
                 throw e;
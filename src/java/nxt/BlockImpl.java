@@ -291,6 +291,45 @@ final class BlockImpl implements Block {
         }
     }
 
+    static BlockImpl parseBlock(byte[] blockBytes, List<? extends Transaction> transactions) throws NxtException.NotValidException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(blockBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int version = buffer.getInt();
+            int timestamp = buffer.getInt();
+            long previousBlock = buffer.getLong();
+            int transactionCount = buffer.getInt();
+            long totalAmountNQT = buffer.getLong();
+            long totalFeeNQT = buffer.getLong();
+            int payloadLength = buffer.getInt();
+            byte[] payloadHash = new byte[32];
+            buffer.get(payloadHash);
+            byte[] generatorPublicKey = new byte[32];
+            buffer.get(generatorPublicKey);
+            byte[] generationSignature = new byte[32];
+            buffer.get(generationSignature);
+            byte[] previousBlockHash = new byte[32];
+            buffer.get(previousBlockHash);
+            byte[] blockSignature = new byte[64];
+            buffer.get(blockSignature);
+            if (buffer.hasRemaining() || transactionCount != transactions.size()) {
+                throw new NxtException.NotValidException("Invalid block bytes");
+            }
+            List<TransactionImpl> blockTransactions = new ArrayList<>(transactions.size());
+            transactions.forEach(transaction -> blockTransactions.add(transaction instanceof UnconfirmedTransaction ?
+                    ((UnconfirmedTransaction)transaction).getTransaction() : (TransactionImpl)transaction));
+            BlockImpl block = new BlockImpl(version, timestamp, previousBlock, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash, generatorPublicKey,
+                    generationSignature, blockSignature, version == 1 ? null : previousBlockHash, blockTransactions);
+            if (!block.checkSignature()) {
+                throw new NxtException.NotValidException("Invalid block signature");
+            }
+            return block;
+        } catch (NxtException.NotValidException|RuntimeException e) {
+            Logger.logDebugMessage("Failed to parse block bytes: " + Convert.toHexString(blockBytes));
+            throw e;
+        }
+    }
+
     @Override
     public byte[] getBytes() {
         return Arrays.copyOf(bytes(), bytes.length);
@@ -333,6 +372,18 @@ final class BlockImpl implements Block {
         return hasValidSignature;
     }
 
+    /**
+     * Verify the block signature if the generator public key is included in the block.
+     * The result is cached, so a later call to verifyBlockSignature() does not repeat the
+     * signature verification.  The database is not accessed, so this method can be called
+     * without holding the blockchain lock.
+     *
+     * @return                      FALSE if the block signature is not valid
+     */
+    boolean preVerifyBlockSignature() {
+        return generatorPublicKey == null || checkSignature();
+    }
+
     boolean verifyGenerationSignature() throws BlockchainProcessor.BlockOutOfOrderException {
 
         try {
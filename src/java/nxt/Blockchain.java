@@ -35,6 +35,10 @@ public interface Blockchain {
 
     void updateUnlock();
 
+    long tryOptimisticRead();
+
+    boolean validateOptimisticRead(long stamp);
+
     Block getLastBlock();
 
     Block getLastBlock(int timestamp);
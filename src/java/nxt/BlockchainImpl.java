@@ -23,7 +23,6 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -70,6 +69,16 @@ final class BlockchainImpl implements Blockchain {
         lock.updateLock().unlock();
     }
 
+    @Override
+    public long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+
+    @Override
+    public boolean validateOptimisticRead(long stamp) {
+        return lock.validate(stamp);
+    }
+
     void writeLock() {
         lock.writeLock().lock();
     }
@@ -199,20 +208,13 @@ final class BlockchainImpl implements Blockchain {
     @Override
     public List<Long> getBlockIdsAfter(long blockId, int limit) {
         // Check the block cache
-        List<Long> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                Collection<BlockImpl> cacheMap = BlockDb.heightMap.tailMap(block.getHeight() + 1).values();
-                for (BlockImpl cacheBlock : cacheMap) {
-                    if (result.size() >= limit) {
-                        break;
-                    }
-                    result.add(cacheBlock.getId());
-                }
-                return result;
-            }
+        List<BlockImpl> cachedBlocks = BlockDb.blockCache.getBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            List<Long> result = new ArrayList<>(cachedBlocks.size());
+            cachedBlocks.forEach(cacheBlock -> result.add(cacheBlock.getId()));
+            return result;
         }
+        List<Long> result = new ArrayList<>();
         // Search the database
         try (Connection con = Db.db.getConnection();
                 PreparedStatement pstmt = con.prepareStatement("SELECT id FROM block "
@@ -237,20 +239,11 @@ final class BlockchainImpl implements Blockchain {
             return Collections.emptyList();
         }
         // Check the block cache
-        List<BlockImpl> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                Collection<BlockImpl> cacheMap = BlockDb.heightMap.tailMap(block.getHeight() + 1).values();
-                for (BlockImpl cacheBlock : cacheMap) {
-                    if (result.size() >= limit) {
-                        break;
-                    }
-                    result.add(cacheBlock);
-                }
-                return result;
-            }
+        List<BlockImpl> cachedBlocks = BlockDb.blockCache.getBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            return cachedBlocks;
         }
+        List<BlockImpl> result = new ArrayList<>();
         // Search the database
         try (Connection con = Db.db.getConnection();
                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block "
@@ -275,21 +268,19 @@ final class BlockchainImpl implements Blockchain {
             return Collections.emptyList();
         }
         // Check the block cache
-        List<BlockImpl> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                Collection<BlockImpl> cacheMap = BlockDb.heightMap.tailMap(block.getHeight() + 1).values();
-                int index = 0;
-                for (BlockImpl cacheBlock : cacheMap) {
-                    if (result.size() >= blockList.size() || cacheBlock.getId() != blockList.get(index++)) {
-                        break;
-                    }
-                    result.add(cacheBlock);
+        List<BlockImpl> cachedBlocks = BlockDb.blockCache.getBlocksAfter(blockId, blockList.size());
+        if (cachedBlocks != null) {
+            List<BlockImpl> result = new ArrayList<>(cachedBlocks.size());
+            int index = 0;
+            for (BlockImpl cacheBlock : cachedBlocks) {
+                if (cacheBlock.getId() != blockList.get(index++)) {
+                    break;
                 }
-                return result;
+                result.add(cacheBlock);
             }
+            return result;
         }
+        List<BlockImpl> result = new ArrayList<>();
         // Search the database
         try (Connection con = Db.db.getConnection();
                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block "
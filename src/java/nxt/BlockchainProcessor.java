@@ -28,6 +28,13 @@ import nxt.util.Observable;
 
 public interface BlockchainProcessor extends Observable<Block,BlockchainProcessor.Event> {
 
+    /**
+     * Block events
+     *
+     * AFTER_BLOCK_ACCEPT and BLOCK_SCANNED are delivered for each block when the scan
+     * commits a batch of blocks, so a listener must use the block height and not the
+     * current blockchain height during a scan
+     */
     enum Event {
         BLOCK_PUSHED, BLOCK_POPPED, BLOCK_GENERATED, BLOCK_SCANNED,
         RESCAN_BEGIN, RESCAN_END,
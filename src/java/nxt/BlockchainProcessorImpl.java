@@ -26,9 +26,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -37,13 +39,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -53,8 +58,8 @@ import org.json.simple.JSONValue;
 import nxt.crypto.Crypto;
 import nxt.db.DbIterator;
 import nxt.db.DerivedDbTable;
-import nxt.db.FilteringIterator;
 import nxt.db.FullTextTrigger;
+import nxt.db.TableTrimmer;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -81,11 +86,16 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private final BlockchainImpl blockchain = BlockchainImpl.getInstance();
 
     private final ExecutorService networkService = Executors.newCachedThreadPool();
+    private final ForkJoinPool verificationPool = new ForkJoinPool(Math.max(1,
+            Nxt.getIntProperty("nxt.numberOfVerificationThreads", Runtime.getRuntime().availableProcessors())));
     private final List<DerivedDbTable> derivedTables = new CopyOnWriteArrayList<>();
     private final boolean trimDerivedTables = Nxt.getBooleanProperty("nxt.trimDerivedTables");
     private final int defaultNumberOfForkConfirmations = Nxt.getIntProperty(Constants.isTestnet
             ? "nxt.testnetNumberOfForkConfirmations" : "nxt.numberOfForkConfirmations");
     private final boolean simulateEndlessDownload = Nxt.getBooleanProperty("nxt.simulateEndlessDownload");
+    private final int scanCommitInterval = Math.min(Math.max(1, Nxt.getIntProperty("nxt.scanCommitInterval", 100)), Constants.MAX_ROLLBACK / 2);
+    private final int scanVerifyAhead = Math.max(1, Nxt.getIntProperty("nxt.scanVerifyAhead", 100));
+    private final int downloadPipelineDepth = Math.max(1, Nxt.getIntProperty("nxt.downloadPipelineDepth", 10));
 
     private int initialScanHeight;
     private volatile int lastTrimHeight;
@@ -396,11 +406,60 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             return blockList;
         }
 
+        /**
+         * Wait for the response to a segment request.  The request is hedged by sending
+         * the same request to another peer if the peer does not respond within the hedge
+         * delay for the peer.  The first successful response is used.  Only the segment at the
+         * head of the pipeline is hedged since the blocks are pushed in chain order and a slow
+         * segment further back is hedged when it reaches the head.
+         *
+         * @param   nextBlocks              Segment request
+         * @param   activeRequests          Number of requests in progress for each peer
+         * @return                          Completed request
+         * @throws  InterruptedException    Download interrupted
+         */
+        private GetNextBlocks waitForSegment(GetNextBlocks nextBlocks, Map<Peer, Integer> activeRequests)
+                throws InterruptedException {
+            try {
+                try {
+                    nextBlocks.getFuture().get(PeerScoreboard.getHedgeDelay(nextBlocks.getPeer()), TimeUnit.MILLISECONDS);
+                    return nextBlocks;
+                } catch (TimeoutException exc) {
+                    Peer hedgePeer = PeerScoreboard.selectPeer(connectedPublicPeers, activeRequests, nextBlocks.getPeer());
+                    if (hedgePeer == null) {
+                        nextBlocks.getFuture().get();
+                        return nextBlocks;
+                    }
+                    GetNextBlocks hedge = new GetNextBlocks(chainBlockIds, nextBlocks.getStart(), nextBlocks.getStop());
+                    hedge.setPeer(hedgePeer);
+                    hedge.setFuture(hedge.submit(networkService));
+                    activeRequests.merge(hedgePeer, 1, Integer::sum);
+                    CompletableFuture.anyOf(nextBlocks.getFuture(), hedge.getFuture()).get();
+                    GetNextBlocks first = nextBlocks.getFuture().isDone() ? nextBlocks : hedge;
+                    GetNextBlocks second = (first == nextBlocks ? hedge : nextBlocks);
+                    if (first.getFuture().get() == null) {
+                        second.getFuture().get();
+                        return second;
+                    }
+                    return first;
+                }
+            } catch (ExecutionException exc) {
+                throw new RuntimeException(exc.getMessage(), exc);
+            }
+        }
+
         /**
          * Download the block chain
          *
+         * The download is pipelined: the segment requests are issued on the network service,
+         * the blocks are parsed and their signatures are verified on the network threads, and
+         * the blocks are pushed in chain order as soon as the leading segments are available.
+         * At most nxt.downloadPipelineDepth segments are in flight at any time.  The blocks are
+         * pushed after the download is complete if we need to switch to a fork.
+         *
          * @param   feederPeer              Peer supplying the blocks list
          * @param   commonBlock             Common block
+         * @param   startHeight             Height of the common block
          * @throws  InterruptedException    Download interrupted
          */
         private void downloadBlockchain(final Peer feederPeer, final Block commonBlock, final int startHeight) throws InterruptedException {
@@ -415,10 +474,16 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             for (int start = 0; start < stop; start += segSize) {
                 getList.add(new GetNextBlocks(chainBlockIds, start, Math.min(start + segSize, stop)));
             }
-            int nextPeerIndex = ThreadLocalRandom.current().nextInt(connectedPublicPeers.size());
             long maxResponseTime = 0;
             Peer slowestPeer = null;
             //
+            // Blocks are pushed while the download is in progress if the common block is
+            // our last block.  Otherwise, the blocks are collected and processed as a fork
+            // once the download is complete.
+            //
+            boolean pipelined = blockchain.getLastBlock().getId() == commonBlock.getId();
+            int pushIndex = 1;
+            //
             // Issue the getNextBlocks requests and get the results.  We will repeat
             // a request if the peer didn't respond or returned a partial block list.
             // The download will be aborted if we are unable to get a segment after
@@ -426,13 +491,25 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             //
             download: while (!getList.isEmpty()) {
                 //
-                // Submit threads to issue 'getNextBlocks' requests.  The first segment
-                // will always be sent to the feeder peer.  Subsequent segments will
-                // be sent to the feeder peer if we failed trying to download the blocks
-                // from another peer.  We will stop the download and process any pending
-                // blocks if we are unable to download a segment from the feeder peer.
+                // Submit threads to issue 'getNextBlocks' requests for the segments in the
+                // pipeline window.  The first segment will always be sent to the feeder peer.
+                // The other segments are assigned to the peers with the best scores, limiting
+                // the number of concurrent requests for each peer.  Subsequent segments will
+                // be sent to the feeder peer if we failed trying to download the blocks from
+                // another peer.  We will stop the download and process any pending blocks if
+                // we are unable to download a segment from the feeder peer.
                 //
+                Map<Peer, Integer> activeRequests = new HashMap<>();
                 for (GetNextBlocks nextBlocks : getList) {
+                    if (nextBlocks.getFuture() != null) {
+                        activeRequests.merge(nextBlocks.getPeer(), 1, Integer::sum);
+                    }
+                }
+                for (int i = 0; i < Math.min(getList.size(), downloadPipelineDepth); i++) {
+                    GetNextBlocks nextBlocks = getList.get(i);
+                    if (nextBlocks.getFuture() != null) {
+                        continue;
+                    }
                     Peer peer;
                     if (nextBlocks.getRequestCount() > 1) {
                         break download;
@@ -440,60 +517,75 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     if (nextBlocks.getStart() == 0 || nextBlocks.getRequestCount() != 0) {
                         peer = feederPeer;
                     } else {
-                        if (nextPeerIndex >= connectedPublicPeers.size()) {
-                            nextPeerIndex = 0;
+                        peer = PeerScoreboard.selectPeer(connectedPublicPeers, activeRequests, null);
+                        if (peer == null) {
+                            if (i > 0) {
+                                break;
+                            }
+                            peer = feederPeer;
                         }
-                        peer = connectedPublicPeers.get(nextPeerIndex++);
                     }
                     if (nextBlocks.getPeer() == peer) {
                         break download;
                     }
                     nextBlocks.setPeer(peer);
-                    Future<List<BlockImpl>> future = networkService.submit(nextBlocks);
-                    nextBlocks.setFuture(future);
+                    nextBlocks.setFuture(nextBlocks.submit(networkService));
+                    activeRequests.merge(peer, 1, Integer::sum);
                 }
                 //
-                // Get the results.  A peer is on a different fork if a returned
-                // block is not in the block identifier list.
+                // Get the result for the first segment.  A peer is on a different fork
+                // if a returned block is not in the block identifier list.
                 //
-                Iterator<GetNextBlocks> it = getList.iterator();
-                while (it.hasNext()) {
-                    GetNextBlocks nextBlocks = it.next();
-                    List<BlockImpl> blockList;
-                    try {
-                        blockList = nextBlocks.getFuture().get();
-                    } catch (ExecutionException exc) {
-                        throw new RuntimeException(exc.getMessage(), exc);
-                    }
-                    if (blockList == null) {
-                        nextBlocks.getPeer().deactivate();
-                        continue;
-                    }
-                    Peer peer = nextBlocks.getPeer();
-                    int index = nextBlocks.getStart() + 1;
-                    for (BlockImpl block : blockList) {
-                        if (block.getId() != chainBlockIds.get(index)) {
-                            break;
-                        }
-                        blockMap.put(block.getId(), new PeerBlock(peer, block));
-                        index++;
-                    }
-                    if (index > nextBlocks.getStop()) {
-                        it.remove();
-                    } else {
-                        nextBlocks.setStart(index - 1);
+                GetNextBlocks nextBlocks = getList.get(0);
+                GetNextBlocks result = waitForSegment(nextBlocks, activeRequests);
+                List<BlockImpl> blockList = result.getFuture().join();
+                nextBlocks.setFuture(null);
+                if (blockList == null) {
+                    result.getPeer().deactivate();
+                    continue;
+                }
+                if (result.getStop() < nextBlocks.getStop()) {
+                    nextBlocks.setStop(result.getStop());
+                }
+                Peer peer = result.getPeer();
+                int index = nextBlocks.getStart() + 1;
+                for (BlockImpl block : blockList) {
+                    if (block.getId() != chainBlockIds.get(index)) {
+                        break;
                     }
-                    if (nextBlocks.getResponseTime() > maxResponseTime) {
-                        maxResponseTime = nextBlocks.getResponseTime();
-                        slowestPeer = nextBlocks.getPeer();
+                    blockMap.put(block.getId(), new PeerBlock(peer, block));
+                    index++;
+                }
+                if (index > nextBlocks.getStop()) {
+                    getList.remove(0);
+                } else {
+                    nextBlocks.setStart(index - 1);
+                }
+                if (result.getResponseTime() > maxResponseTime) {
+                    maxResponseTime = result.getResponseTime();
+                    slowestPeer = result.getPeer();
+                }
+                //
+                // Push the blocks that are now available while the remaining segments
+                // are being downloaded
+                //
+                if (pipelined) {
+                    pushIndex = pushBlocks(blockMap, pushIndex, startHeight);
+                    if (pushIndex < 0) {
+                        break;
                     }
                 }
-
             }
             if (slowestPeer != null && connectedPublicPeers.size() >= Peers.maxNumberOfConnectedPublicPeers && chainBlockIds.size() > 360) {
                 Logger.logDebugMessage(slowestPeer.getHost() + " took " + maxResponseTime + " ms, disconnecting");
                 slowestPeer.deactivate();
             }
+            if (pipelined) {
+                if (pushIndex > 0) {
+                    pushBlocks(blockMap, pushIndex, startHeight);
+                }
+                return;
+            }
             //
             // Add the new blocks to the blockchain.  We will stop if we encounter
             // a missing block (this will happen if an invalid block is encountered
@@ -532,6 +624,41 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         }
 
+        /**
+         * Push the downloaded blocks that extend the current chain.  Blocks are removed
+         * from the block map as they are pushed.
+         *
+         * @param   blockMap                Downloaded blocks
+         * @param   pushIndex               Index of the next block in the block identifier list
+         * @param   startHeight             Height of the common block
+         * @return                          Index of the next block or -1 if the blocks cannot be pushed
+         */
+        private int pushBlocks(Map<Long, PeerBlock> blockMap, int pushIndex, int startHeight) {
+            blockchain.writeLock();
+            try {
+                while (pushIndex < chainBlockIds.size() && blockchain.getHeight() - startHeight < 720) {
+                    PeerBlock peerBlock = blockMap.remove(chainBlockIds.get(pushIndex));
+                    if (peerBlock == null) {
+                        break;
+                    }
+                    BlockImpl block = peerBlock.getBlock();
+                    if (blockchain.getLastBlock().getId() != block.getPreviousBlockId()) {
+                        return -1;
+                    }
+                    try {
+                        pushBlock(block);
+                    } catch (BlockNotAcceptedException e) {
+                        peerBlock.getPeer().blacklist(e);
+                        return -1;
+                    }
+                    pushIndex++;
+                }
+            } finally {
+                blockchain.writeUnlock();
+            }
+            return pushIndex;
+        }
+
         private void processFork(final Peer peer, final List<BlockImpl> forkBlocks, final Block commonBlock) {
 
             BigInteger curCumulativeDifficulty = blockchain.getLastBlock().getCumulativeDifficulty();
@@ -586,12 +713,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     };
 
     /**
-     * Callable method to get the next block segment from the selected peer
+     * Asynchronous request to get the next block segment from the selected peer
      */
-    private static class GetNextBlocks implements Callable<List<BlockImpl>> {
+    private static class GetNextBlocks {
 
-        /** Callable future */
-        private Future<List<BlockImpl>> future;
+        /** Request future */
+        private CompletableFuture<List<BlockImpl>> future;
 
         /** Peer */
         private Peer peer;
@@ -626,12 +753,13 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
 
         /**
-         * Return the result
+         * Send the getNextBlocks request without waiting for the response.  The
+         * response is processed by the executor when it is received.
          *
-         * @return                      List of blocks or null if an error occurred
+         * @param   executor            Executor for response processing
+         * @return                      Future for the list of blocks or null if an error occurred
          */
-        @Override
-        public List<BlockImpl> call() {
+        public CompletableFuture<List<BlockImpl>> submit(ExecutorService executor) {
             requestCount++;
             //
             // Build the block request list
@@ -645,8 +773,26 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             request.put("blockIds", idList);
             request.put("blockId", Long.toUnsignedString(blockIds.get(start)));
             long startTime = System.currentTimeMillis();
-            JSONObject response = peer.send(JSON.prepareRequest(request), Peers.MAX_MESSAGE_SIZE);
-            responseTime = System.currentTimeMillis() - startTime;
+            Peer requestPeer = peer;
+            return peer.sendAsync(JSON.prepareRequest(request), Peers.MAX_MESSAGE_SIZE).thenApplyAsync(response -> {
+                responseTime = System.currentTimeMillis() - startTime;
+                List<BlockImpl> blockList = processResponse(response);
+                if (blockList != null) {
+                    PeerScoreboard.recordSuccess(requestPeer, blockList.size(), responseTime);
+                } else {
+                    PeerScoreboard.recordFailure(requestPeer, responseTime);
+                }
+                return blockList;
+            }, executor);
+        }
+
+        /**
+         * Process the getNextBlocks response
+         *
+         * @param   response            Peer response or null if the request failed
+         * @return                      List of blocks or null if an error occurred
+         */
+        private List<BlockImpl> processResponse(JSONObject response) {
             if (response == null) {
                 return null;
             }
@@ -655,7 +801,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             // an invalid block.  We will return the valid blocks and reset the stop
             // index so no more blocks will be processed.
             //
-            List<JSONObject> nextBlocks = (List<JSONObject>)response.get("nextBlocks");
+            List<?> nextBlocks = (List<?>)response.get("nextBlocks");
             if (nextBlocks == null)
                 return null;
             if (nextBlocks.size() > 36) {
@@ -666,13 +812,15 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             List<BlockImpl> blockList = new ArrayList<>(nextBlocks.size());
             try {
                 int count = stop - start;
-                for (JSONObject blockData : nextBlocks) {
-                    blockList.add(BlockImpl.parseBlock(blockData));
+                for (Object blockData : nextBlocks) {
+                    BlockImpl block = blockData instanceof BlockImpl ? (BlockImpl)blockData : BlockImpl.parseBlock((JSONObject)blockData);
+                    BlockchainProcessorImpl.getInstance().preVerify(block, false);
+                    blockList.add(block);
                     if (--count <= 0)
                         break;
                 }
-            } catch (RuntimeException | NxtException.NotValidException e) {
-                Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+            } catch (RuntimeException | NxtException.NotValidException | BlockNotAcceptedException e) {
+                Logger.logDebugMessage("Failed to parse or verify block: " + e.toString(), e);
                 peer.blacklist(e);
                 stop = start + blockList.size();
             }
@@ -680,20 +828,20 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
 
         /**
-         * Return the callable future
+         * Return the request future
          *
-         * @return                      Callable future
+         * @return                      Request future
          */
-        public Future<List<BlockImpl>> getFuture() {
+        public CompletableFuture<List<BlockImpl>> getFuture() {
             return future;
         }
 
         /**
-         * Set the callable future
+         * Set the request future
          *
-         * @param   future              Callable future
+         * @param   future              Request future
          */
-        public void setFuture(Future<List<BlockImpl>> future) {
+        public void setFuture(CompletableFuture<List<BlockImpl>> future) {
             this.future = future;
         }
 
@@ -742,6 +890,15 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             return stop;
         }
 
+        /**
+         * Set the stop index
+         *
+         * @param   stop                Stop index
+         */
+        public void setStop(int stop) {
+            this.stop = stop;
+        }
+
         /**
          * Return the request count
          *
@@ -802,6 +959,118 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
     }
 
+    /**
+     * Block read by the blockchain scan
+     */
+    private static class ScannedBlock {
+
+        /** Database identifier */
+        private final long dbId;
+
+        /** Block */
+        private BlockImpl block;
+
+        /** Block verification */
+        private Future<Boolean> verification;
+
+        /** Exception while loading the block */
+        private RuntimeException exception;
+
+        /**
+         * Create the scanned block
+         *
+         * @param   dbId                Database identifier
+         */
+        public ScannedBlock(long dbId) {
+            this.dbId = dbId;
+        }
+
+        /**
+         * Return the database identifier
+         *
+         * @return                      Database identifier
+         */
+        public long getDbId() {
+            return dbId;
+        }
+
+        /**
+         * Return the block
+         *
+         * @return                      Block
+         * @throws  RuntimeException    Unable to load the block
+         */
+        public BlockImpl getBlock() {
+            if (exception != null) {
+                throw exception;
+            }
+            return block;
+        }
+
+        /**
+         * Set the block
+         *
+         * @param   block               Block
+         */
+        public void setBlock(BlockImpl block) {
+            this.block = block;
+        }
+
+        /**
+         * Set the block verification
+         *
+         * @param   verification        Block verification
+         */
+        public void setVerification(Future<Boolean> verification) {
+            this.verification = verification;
+        }
+
+        /**
+         * Set the exception encountered while loading the block
+         *
+         * @param   exception           Exception
+         */
+        public void setException(RuntimeException exception) {
+            this.exception = exception;
+        }
+
+        /**
+         * Wait for the block verification to complete
+         *
+         * @return                      TRUE if the block was verified
+         * @throws  NxtException        Block is not valid
+         */
+        public boolean isVerified() throws NxtException {
+            if (verification == null) {
+                return false;
+            }
+            try {
+                return verification.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e.toString(), e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof NxtException) {
+                    throw (NxtException)cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw new RuntimeException(cause.toString(), cause);
+            }
+        }
+
+        /**
+         * Cancel the block verification
+         */
+        public void cancel() {
+            if (verification != null) {
+                verification.cancel(false);
+            }
+        }
+    }
+
     /**
      * Task to restore prunable data for downloaded blocks
      */
@@ -910,7 +1179,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                 Logger.logMessage("processed block " + block.getHeight());
             }
             if (trimDerivedTables && block.getHeight() % trimFrequency == 0) {
-                doTrimDerivedTables();
+                doTrimDerivedTables(block.getHeight());
             }
         }, Event.BLOCK_SCANNED);
 
@@ -918,8 +1187,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             if (trimDerivedTables && block.getHeight() % trimFrequency == 0 && !isTrimming) {
                 isTrimming = true;
                 networkService.submit(() -> {
-                    trimDerivedTables();
-                    isTrimming = false;
+                    try {
+                        trimDerivedTables();
+                    } finally {
+                        isTrimming = false;
+                    }
                 });
             }
             if (block.getHeight() % 5000 == 0) {
@@ -936,7 +1208,9 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         ThreadPool.runBeforeStart(() -> {
             alreadyInitialized = true;
+            Snapshot.importSnapshot();
             addGenesisBlock();
+            BlockDb.loadIdFilter();
             if (Nxt.getBooleanProperty("nxt.forceScan")) {
                 scan(0, Nxt.getBooleanProperty("nxt.forceValidate"));
             } else {
@@ -987,7 +1261,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     public void trimDerivedTables() {
         try {
             Db.db.beginTransaction();
-            doTrimDerivedTables();
+            lastTrimHeight = Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0);
+            if (lastTrimHeight > 0) {
+                TableTrimmer.trim(derivedTables, lastTrimHeight, true);
+            }
             Db.db.commitTransaction();
         } catch (Exception e) {
             Logger.logMessage(e.toString(), e);
@@ -998,18 +1275,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         }
     }
 
-    private void doTrimDerivedTables() {
-        lastTrimHeight = Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0);
+    private void doTrimDerivedTables(int height) {
+        lastTrimHeight = Math.max(height - Constants.MAX_ROLLBACK, 0);
         if (lastTrimHeight > 0) {
-            for (DerivedDbTable table : derivedTables) {
-                blockchain.readLock();
-                try {
-                    table.trim(lastTrimHeight);
-                    Db.db.commitTransaction();
-                } finally {
-                    blockchain.readUnlock();
-                }
-            }
+            TableTrimmer.trim(derivedTables, lastTrimHeight, false);
         }
     }
 
@@ -1059,7 +1328,11 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public void processPeerBlock(JSONObject request) throws NxtException {
-        BlockImpl block = BlockImpl.parseBlock(request);
+        //
+        // A binary processBlock request contains the parsed block
+        //
+        Object blockData = request.get("block");
+        BlockImpl block = blockData instanceof BlockImpl ? (BlockImpl)blockData : BlockImpl.parseBlock(request);
         BlockImpl lastBlock = blockchain.getLastBlock();
         if (block.getPreviousBlockId() == lastBlock.getId()) {
             pushBlock(block);
@@ -1102,6 +1375,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         try {
             try {
                 setGetMoreBlocks(false);
+                TableTrimmer.cancel();
                 //BlockDb.deleteBlock(Genesis.GENESIS_BLOCK_ID); // fails with stack overflow in H2
                 BlockDb.deleteAll();
                 addGenesisBlock();
@@ -1213,6 +1487,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     void shutdown() {
         ThreadPool.shutdownExecutor("networkService", networkService, 5);
+        ThreadPool.shutdownExecutor("verificationPool", verificationPool, 5);
     }
 
     private void addBlock(BlockImpl block) {
@@ -1288,6 +1563,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         int curTime = Nxt.getEpochTime();
 
+        preVerify(block, false);
+
         blockchain.writeLock();
         try {
             BlockImpl previousLastBlock = null;
@@ -1315,7 +1592,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
                 block.setPrevious(previousLastBlock);
                 blockListeners.notify(block, Event.BEFORE_BLOCK_ACCEPT);
-                TransactionProcessorImpl.getInstance().requeueAllUnconfirmedTransactions();
+                TransactionProcessorImpl.getInstance().requeueUnconfirmedTransactions(block, validPhasedTransactions);
                 addBlock(block);
                 accept(block, validPhasedTransactions, invalidPhasedTransactions, duplicates);
 
@@ -1339,6 +1616,120 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         blockListeners.notify(block, Event.BLOCK_PUSHED);
     }
 
+    /**
+     * Perform the stateless block checks before the blockchain lock is obtained.  The block
+     * and transaction signatures are verified in parallel using the verification pool and the
+     * payload hash is checked against the transaction bytes.  The signature verification
+     * results are cached, so validate() and validateTransactions() do not repeat the
+     * Curve25519 verification while holding the blockchain write lock.  Signatures that
+     * require a public key lookup are left for the serial checks.
+     *
+     * @param   block                       Block
+     * @param   roundTrip                   TRUE to verify that the transaction bytes parse back to the same transaction
+     * @throws  BlockNotAcceptedException   Block is not valid
+     */
+    private void preVerify(BlockImpl block, boolean roundTrip) throws BlockNotAcceptedException {
+        List<TransactionImpl> transactions = block.getTransactions();
+        Future<TransactionImpl> result = verificationPool.submit(() ->
+                transactions.parallelStream()
+                        .filter(transaction -> !preVerifyTransaction(transaction, roundTrip))
+                        .findFirst()
+                        .orElse(null));
+        if (!block.preVerifyBlockSignature()) {
+            result.cancel(false);
+            throw new BlockNotAcceptedException("Block signature verification failed", block);
+        }
+        TransactionImpl invalidTransaction;
+        try {
+            invalidTransaction = result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockNotAcceptedException(e, block);
+        } catch (ExecutionException e) {
+            throw new BlockNotAcceptedException(e.getCause(), block);
+        }
+        if (invalidTransaction != null) {
+            throw new TransactionNotAcceptedException(roundTrip ? "Transaction signature verification or bytes round-trip failed"
+                    : "Transaction signature verification failed", invalidTransaction);
+        }
+        MessageDigest digest = Crypto.sha256();
+        transactions.forEach(transaction -> digest.update(transaction.bytes()));
+        if (!Arrays.equals(digest.digest(), block.getPayloadHash())) {
+            throw new BlockNotAcceptedException("Payload hash doesn't match", block);
+        }
+    }
+
+    private static boolean preVerifyTransaction(TransactionImpl transaction, boolean roundTrip) {
+        if (!transaction.preVerifySignature()) {
+            return false;
+        }
+        byte[] transactionBytes = transaction.bytes();
+        if (roundTrip) {
+            try {
+                return Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionBytes).build().bytes());
+            } catch (NxtException.NotValidException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verify a block read by the blockchain scan.  This is done on the verification pool
+     * while the preceding blocks are being applied.  The block and transaction signatures
+     * are verified, the payload hash is checked and the block and its transactions must
+     * parse back to the same bytes.  The block is left for the serial checks if a public
+     * key has not been committed to the database yet.
+     *
+     * @param   block                       Block
+     * @return                              TRUE if the block was verified
+     * @throws  NxtException                Block is not valid
+     */
+    private boolean preVerifyScannedBlock(BlockImpl block) throws NxtException {
+        if (block.getGeneratorPublicKey() == null) {
+            return false;
+        }
+        List<TransactionImpl> transactions = block.getTransactions();
+        for (TransactionImpl transaction : transactions) {
+            if (transaction.getSenderPublicKey() == null) {
+                return false;
+            }
+        }
+        if (!block.preVerifyBlockSignature()) {
+            throw new BlockNotAcceptedException("Block signature verification failed", block);
+        }
+        MessageDigest digest = Crypto.sha256();
+        for (TransactionImpl transaction : transactions) {
+            if (!transaction.preVerifySignature()) {
+                throw new TransactionNotAcceptedException("Transaction signature verification failed", transaction);
+            }
+            verifyTransactionRoundTrip(transaction);
+            digest.update(transaction.bytes());
+        }
+        if (!Arrays.equals(digest.digest(), block.getPayloadHash())) {
+            throw new BlockNotAcceptedException("Payload hash doesn't match", block);
+        }
+        byte[] blockBytes = block.bytes();
+        JSONObject blockJSON = (JSONObject) JSONValue.parse(block.getJSONObject().toJSONString());
+        if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).bytes())) {
+            throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
+        }
+        return true;
+    }
+
+    private static void verifyTransactionRoundTrip(TransactionImpl transaction) throws NxtException.NotValidException {
+        byte[] transactionBytes = transaction.bytes();
+        if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionBytes).build().bytes())) {
+            throw new NxtException.NotValidException("Transaction bytes cannot be parsed back to the same transaction: "
+                    + transaction.getJSONObject().toJSONString());
+        }
+        JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
+        if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionJSON).build().bytes())) {
+            throw new NxtException.NotValidException("Transaction JSON cannot be parsed back to the same transaction: "
+                    + transaction.getJSONObject().toJSONString());
+        }
+    }
+
     private void validatePhasedTransactions(int height, List<TransactionImpl> validPhasedTransactions, List<TransactionImpl> invalidPhasedTransactions,
                                             Map<TransactionType, Map<String, Integer>> duplicates) {
         try (DbIterator<TransactionImpl> phasedTransactions = PhasingPoll.getFinishingTransactions(height + 1)) {
@@ -1678,10 +2069,8 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     SortedSet<UnconfirmedTransaction> selectUnconfirmedTransactions(Map<TransactionType, Map<String, Integer>> duplicates, Block previousBlock, int blockTimestamp) {
         List<UnconfirmedTransaction> orderedUnconfirmedTransactions = new ArrayList<>();
-        try (FilteringIterator<UnconfirmedTransaction> unconfirmedTransactions = new FilteringIterator<>(
-                TransactionProcessorImpl.getInstance().getAllUnconfirmedTransactions(),
-                transaction -> hasAllReferencedTransactions(transaction.getTransaction(), transaction.getTimestamp(), 0))) {
-            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+        for (UnconfirmedTransaction unconfirmedTransaction : TransactionProcessorImpl.getInstance().getAllUnconfirmedTransactions()) {
+            if (hasAllReferencedTransactions(unconfirmedTransaction.getTransaction(), unconfirmedTransaction.getTimestamp(), 0)) {
                 orderedUnconfirmedTransactions.add(unconfirmedTransaction);
             }
         }
@@ -1889,6 +2278,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                          + " db_id >= ? ORDER BY db_id ASC LIMIT 50000");
                  PreparedStatement pstmtDone = con.prepareStatement("UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE")) {
                 isScanning = true;
+                TableTrimmer.cancel();
                 initialScanHeight = blockchain.getHeight();
                 if (height > blockchain.getHeight() + 1) {
                     Logger.logMessage("Rollback height " + (height - 1) + " exceeds current blockchain height of " + blockchain.getHeight() + ", no scan needed");
@@ -1924,22 +2314,61 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     new Thread(() -> System.exit(0)).start();
                     return;
                 }
+                Db.db.commitTransaction();
                 int pstmtSelectIndex = 1;
                 if (height > 0) {
                     pstmtSelect.setInt(pstmtSelectIndex++, height);
                 }
+                //
+                // The derived table updates are committed every nxt.scanCommitInterval blocks.
+                // The scan table is not reset until the scan is complete, so the scan will be
+                // restarted if the server stops before the scan is done.  If a block fails, the
+                // uncommitted blocks are rolled back and applied again one block at a time
+                // until the failed block has been committed.
+                //
+                int commitInterval = scanCommitInterval;
+                int failedHeight = -1;
+                List<BlockImpl> uncommittedBlocks = new ArrayList<>();
+                BlockImpl committedLastBlock = blockchain.getLastBlock();
+                long committedBlockId = currentBlockId;
                 long dbId = Long.MIN_VALUE;
+                long committedDbId = dbId;
                 boolean hasMore = true;
                 outer:
                 while (hasMore) {
                     hasMore = false;
                     pstmtSelect.setLong(pstmtSelectIndex, dbId);
                     try (ResultSet rs = pstmtSelect.executeQuery()) {
-                        while (rs.next()) {
+                        //
+                        // Blocks are read ahead of the block being applied so they can be
+                        // verified in parallel
+                        //
+                        Deque<ScannedBlock> scannedBlocks = new ArrayDeque<>();
+                        boolean readAhead = true;
+                        while (true) {
+                            while (readAhead && scannedBlocks.size() < scanVerifyAhead && rs.next()) {
+                                ScannedBlock scannedBlock = new ScannedBlock(rs.getLong("db_id"));
+                                try {
+                                    BlockImpl block = BlockDb.loadBlock(con, rs, true);
+                                    block.loadTransactions();
+                                    scannedBlock.setBlock(block);
+                                    if (validate && block.getHeight() > 0) {
+                                        scannedBlock.setVerification(verificationPool.submit(() -> preVerifyScannedBlock(block)));
+                                    }
+                                } catch (RuntimeException e) {
+                                    scannedBlock.setException(e);
+                                    readAhead = false;
+                                }
+                                scannedBlocks.add(scannedBlock);
+                            }
+                            ScannedBlock scannedBlock = scannedBlocks.poll();
+                            if (scannedBlock == null) {
+                                break;
+                            }
+                            boolean committed = false;
                             try {
-                                dbId = rs.getLong("db_id");
-                                currentBlock = BlockDb.loadBlock(con, rs, true);
-                                currentBlock.loadTransactions();
+                                dbId = scannedBlock.getDbId();
+                                currentBlock = scannedBlock.getBlock();
                                 if (currentBlock.getId() != currentBlockId || currentBlock.getHeight() > blockchain.getHeight() + 1) {
                                     throw new NxtException.NotValidException("Database blocks in the wrong order!");
                                 }
@@ -1949,23 +2378,19 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                                 validatePhasedTransactions(blockchain.getHeight(), validPhasedTransactions, invalidPhasedTransactions, duplicates);
                                 if (validate && currentBlock.getHeight() > 0) {
                                     int curTime = Nxt.getEpochTime();
+                                    boolean verified = scannedBlock.isVerified();
                                     validate(currentBlock, blockchain.getLastBlock(), curTime);
-                                    byte[] blockBytes = currentBlock.bytes();
-                                    JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
-                                    if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).bytes())) {
-                                        throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
+                                    if (!verified) {
+                                        byte[] blockBytes = currentBlock.bytes();
+                                        JSONObject blockJSON = (JSONObject) JSONValue.parse(currentBlock.getJSONObject().toJSONString());
+                                        if (!Arrays.equals(blockBytes, BlockImpl.parseBlock(blockJSON).bytes())) {
+                                            throw new NxtException.NotValidException("Block JSON cannot be parsed back to the same block");
+                                        }
                                     }
                                     validateTransactions(currentBlock, blockchain.getLastBlock(), curTime, duplicates, true);
-                                    for (TransactionImpl transaction : currentBlock.getTransactions()) {
-                                        byte[] transactionBytes = transaction.bytes();
-                                        if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionBytes).build().bytes())) {
-                                            throw new NxtException.NotValidException("Transaction bytes cannot be parsed back to the same transaction: "
-                                                    + transaction.getJSONObject().toJSONString());
-                                        }
-                                        JSONObject transactionJSON = (JSONObject) JSONValue.parse(transaction.getJSONObject().toJSONString());
-                                        if (!Arrays.equals(transactionBytes, TransactionImpl.newTransactionBuilder(transactionJSON).build().bytes())) {
-                                            throw new NxtException.NotValidException("Transaction JSON cannot be parsed back to the same transaction: "
-                                                    + transaction.getJSONObject().toJSONString());
+                                    if (!verified) {
+                                        for (TransactionImpl transaction : currentBlock.getTransactions()) {
+                                            verifyTransactionRoundTrip(transaction);
                                         }
                                     }
                                 }
@@ -1973,12 +2398,35 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                                 blockchain.setLastBlock(currentBlock);
                                 accept(currentBlock, validPhasedTransactions, invalidPhasedTransactions, duplicates);
                                 currentBlockId = currentBlock.getNextBlockId();
-                                Db.db.clearCache();
-                                Db.db.commitTransaction();
-                                blockListeners.notify(currentBlock, Event.AFTER_BLOCK_ACCEPT);
+                                uncommittedBlocks.add(currentBlock);
+                                if (uncommittedBlocks.size() >= commitInterval || scannedBlocks.isEmpty()) {
+                                    Db.db.clearCache();
+                                    Db.db.commitTransaction();
+                                    committedLastBlock = currentBlock;
+                                    committedBlockId = currentBlockId;
+                                    committedDbId = dbId + 1;
+                                    committed = true;
+                                    if (commitInterval != scanCommitInterval && currentBlock.getHeight() >= failedHeight) {
+                                        commitInterval = scanCommitInterval;
+                                    }
+                                }
                             } catch (NxtException | RuntimeException e) {
                                 Db.db.rollbackTransaction();
                                 Logger.logDebugMessage(e.toString(), e);
+                                if (!uncommittedBlocks.isEmpty()) {
+                                    Logger.logDebugMessage("Applying block " + Long.toUnsignedString(currentBlockId) + " failed, applying "
+                                            + uncommittedBlocks.size() + " uncommitted blocks again starting at height "
+                                            + uncommittedBlocks.get(0).getHeight());
+                                    failedHeight = committedLastBlock.getHeight() + uncommittedBlocks.size() + 1;
+                                    uncommittedBlocks.clear();
+                                    scannedBlocks.forEach(ScannedBlock::cancel);
+                                    blockchain.setLastBlock(committedLastBlock);
+                                    currentBlockId = committedBlockId;
+                                    dbId = committedDbId;
+                                    commitInterval = 1;
+                                    hasMore = true;
+                                    continue outer;
+                                }
                                 Logger.logDebugMessage("Applying block " + Long.toUnsignedString(currentBlockId) + " at height "
                                         + (currentBlock == null ? 0 : currentBlock.getHeight()) + " failed, deleting from database");
                                 BlockImpl lastBlock = BlockDb.deleteBlocksFrom(currentBlockId);
@@ -1986,7 +2434,17 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                                 popOffTo(lastBlock);
                                 break outer;
                             }
-                            blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
+                            if (committed) {
+                                //
+                                // The scan events are delivered for each block after the blocks have been
+                                // committed, so the blockchain height is the height of the last committed block
+                                //
+                                for (BlockImpl block : uncommittedBlocks) {
+                                    blockListeners.notify(block, Event.AFTER_BLOCK_ACCEPT);
+                                    blockListeners.notify(block, Event.BLOCK_SCANNED);
+                                }
+                                uncommittedBlocks.clear();
+                            }
                             hasMore = true;
                         }
                         dbId = dbId + 1;
@@ -1996,6 +2454,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                     for (DerivedDbTable table : derivedTables) {
                         table.createSearchIndex(con);
                     }
+                    //
+                    // The tables are indexed in parallel using separate database connections,
+                    // so the scanned rows must be committed first
+                    //
+                    Db.db.commitTransaction();
+                    FullTextTrigger.reindex(con);
                 }
                 pstmtDone.executeUpdate();
                 Db.db.commitTransaction();
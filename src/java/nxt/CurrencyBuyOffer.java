@@ -21,6 +21,7 @@ package nxt;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import nxt.db.DbClause;
 import nxt.db.DbIterator;
@@ -50,8 +51,22 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
             buy.save(con, table);
         }
 
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            buyOfferBook.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            buyOfferBook.clear();
+        }
+
     };
 
+    private static final OfferBook buyOfferBook = new OfferBook("buy_offer", false);
+
     public static int getCount() {
         return buyOfferTable.getCount();
     }
@@ -100,12 +115,19 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
         return buyOfferTable.getManyBy(dbClause, from, to, sort);
     }
 
+    static List<BookEntry> getAvailableOffers(long currencyId, long minRateNQT) {
+        return buyOfferBook.getAvailableOffers(currencyId, minRateNQT);
+    }
+
     static void addOffer(Transaction transaction, Attachment.MonetarySystemPublishExchangeOffer attachment) {
-        buyOfferTable.insert(new CurrencyBuyOffer(transaction, attachment));
+        CurrencyBuyOffer offer = new CurrencyBuyOffer(transaction, attachment);
+        buyOfferTable.insert(offer);
+        buyOfferBook.add(offer);
     }
 
     static void remove(CurrencyBuyOffer buyOffer) {
         buyOfferTable.delete(buyOffer);
+        buyOfferBook.remove(buyOffer);
     }
 
     static void init() {}
@@ -132,12 +154,14 @@ public final class CurrencyBuyOffer extends CurrencyExchangeOffer {
     long increaseSupply(long delta) {
         long excess = super.increaseSupply(delta);
         buyOfferTable.insert(this);
+        buyOfferBook.add(this);
         return excess;
     }
 
     void decreaseLimitAndSupply(long delta) {
         super.decreaseLimitAndSupply(delta);
         buyOfferTable.insert(this);
+        buyOfferBook.add(this);
     }
 
 }
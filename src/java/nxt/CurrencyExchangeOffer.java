@@ -23,11 +23,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 import nxt.AccountLedger.LedgerEvent;
 import nxt.db.DbClause;
 import nxt.db.DbIterator;
+import nxt.db.TransactionalDb;
 
 public abstract class CurrencyExchangeOffer {
 
@@ -80,17 +85,17 @@ public abstract class CurrencyExchangeOffer {
         CurrencySellOffer.addOffer(transaction, attachment);
     }
 
-    private static AvailableOffers calculateTotal(List<CurrencyExchangeOffer> offers, final long units) {
+    private static AvailableOffers calculateTotal(List<BookEntry> offers, final long units) {
         long totalAmountNQT = 0;
         long remainingUnits = units;
         long rateNQT = 0;
-        for (CurrencyExchangeOffer offer : offers) {
+        for (BookEntry offer : offers) {
             if (remainingUnits == 0) {
                 break;
             }
-            rateNQT = offer.getRateNQT();
-            long curUnits = Math.min(Math.min(remainingUnits, offer.getSupply()), offer.getLimit());
-            long curAmountNQT = Math.multiplyExact(curUnits, offer.getRateNQT());
+            rateNQT = offer.rateNQT;
+            long curUnits = Math.min(Math.min(remainingUnits, offer.supply), offer.limit);
+            long curAmountNQT = Math.multiplyExact(curUnits, offer.rateNQT);
             totalAmountNQT = Math.addExact(totalAmountNQT, curAmountNQT);
             remainingUnits = Math.subtractExact(remainingUnits, curUnits);
         }
@@ -101,33 +106,28 @@ public abstract class CurrencyExchangeOffer {
             .and(new DbClause.LongClause("supply", DbClause.Op.NE, 0));
 
     public static AvailableOffers getAvailableToSell(final long currencyId, final long units) {
-        return calculateTotal(getAvailableBuyOffers(currencyId, 0L), units);
-    }
-
-    private static List<CurrencyExchangeOffer> getAvailableBuyOffers(long currencyId, long minRateNQT) {
-        List<CurrencyExchangeOffer> currencyExchangeOffers = new ArrayList<>();
-        DbClause dbClause = new DbClause.LongClause("currency_id", currencyId).and(availableOnlyDbClause);
-        if (minRateNQT > 0) {
-            dbClause = dbClause.and(new DbClause.LongClause("rate", DbClause.Op.GTE, minRateNQT));
-        }
-        try (DbIterator<CurrencyBuyOffer> offers = CurrencyBuyOffer.getOffers(dbClause, 0, -1,
-                " ORDER BY rate DESC, creation_height ASC, transaction_height ASC, transaction_index ASC ")) {
-            for (CurrencyBuyOffer offer : offers) {
-                currencyExchangeOffers.add(offer);
-            }
+        //
+        // The offer books are only modified while the blockchain write lock is held, so
+        // holding the read lock ensures we see the offers as of the last committed block
+        //
+        Nxt.getBlockchain().readLock();
+        try {
+            return calculateTotal(CurrencyBuyOffer.getAvailableOffers(currencyId, 0L), units);
+        } finally {
+            Nxt.getBlockchain().readUnlock();
         }
-        return currencyExchangeOffers;
     }
 
     static void exchangeCurrencyForNXT(Transaction transaction, Account account, final long currencyId, final long rateNQT, final long units) {
-        List<CurrencyExchangeOffer> currencyBuyOffers = getAvailableBuyOffers(currencyId, rateNQT);
+        List<BookEntry> currencyBuyOffers = CurrencyBuyOffer.getAvailableOffers(currencyId, rateNQT);
 
         long totalAmountNQT = 0;
         long remainingUnits = units;
-        for (CurrencyExchangeOffer offer : currencyBuyOffers) {
+        for (BookEntry entry : currencyBuyOffers) {
             if (remainingUnits == 0) {
                 break;
             }
+            CurrencyExchangeOffer offer = CurrencyBuyOffer.getOffer(entry.id);
             long curUnits = Math.min(Math.min(remainingUnits, offer.getSupply()), offer.getLimit());
             long curAmountNQT = Math.multiplyExact(curUnits, offer.getRateNQT());
 
@@ -150,33 +150,24 @@ public abstract class CurrencyExchangeOffer {
     }
 
     public static AvailableOffers getAvailableToBuy(final long currencyId, final long units) {
-        return calculateTotal(getAvailableSellOffers(currencyId, 0L), units);
-    }
-
-    private static List<CurrencyExchangeOffer> getAvailableSellOffers(long currencyId, long maxRateNQT) {
-        List<CurrencyExchangeOffer> currencySellOffers = new ArrayList<>();
-        DbClause dbClause = new DbClause.LongClause("currency_id", currencyId).and(availableOnlyDbClause);
-        if (maxRateNQT > 0) {
-            dbClause = dbClause.and(new DbClause.LongClause("rate", DbClause.Op.LTE, maxRateNQT));
+        Nxt.getBlockchain().readLock();
+        try {
+            return calculateTotal(CurrencySellOffer.getAvailableOffers(currencyId, 0L), units);
+        } finally {
+            Nxt.getBlockchain().readUnlock();
         }
-        try (DbIterator<CurrencySellOffer> offers = CurrencySellOffer.getOffers(dbClause, 0, -1,
-                " ORDER BY rate ASC, creation_height ASC, transaction_height ASC, transaction_index ASC ")) {
-            for (CurrencySellOffer offer : offers) {
-                currencySellOffers.add(offer);
-            }
-        }
-        return currencySellOffers;
     }
 
     static void exchangeNXTForCurrency(Transaction transaction, Account account, final long currencyId, final long rateNQT, final long units) {
-        List<CurrencyExchangeOffer> currencySellOffers = getAvailableSellOffers(currencyId, rateNQT);
+        List<BookEntry> currencySellOffers = CurrencySellOffer.getAvailableOffers(currencyId, rateNQT);
         long totalAmountNQT = 0;
         long remainingUnits = units;
 
-        for (CurrencyExchangeOffer offer : currencySellOffers) {
+        for (BookEntry entry : currencySellOffers) {
             if (remainingUnits == 0) {
                 break;
             }
+            CurrencyExchangeOffer offer = CurrencySellOffer.getOffer(entry.id);
             long curUnits = Math.min(Math.min(remainingUnits, offer.getSupply()), offer.getLimit());
             long curAmountNQT = Math.multiplyExact(curUnits, offer.getRateNQT());
 
@@ -215,6 +206,195 @@ public abstract class CurrencyExchangeOffer {
         account.addToUnconfirmedCurrencyUnits(event, buyOffer.getId(), buyOffer.getCurrencyId(), sellOffer.getSupply());
     }
 
+    /**
+     * OfferBook is a rate-time priority index of the exchange offers for each currency.
+     * The book for a currency is loaded from the offer table when it is first used and is
+     * then updated as offers are added, changed and removed.  An exchange transaction
+     * walks the book in priority order and only loads the offers it crosses, and the
+     * available-to-buy and available-to-sell totals are calculated without reading the
+     * offer table.
+     *
+     * The books are discarded when the offer table is rolled back or truncated and when
+     * the database transaction that modified them is rolled back.  The books are only
+     * modified while the blockchain write lock is held.
+     */
+    static final class OfferBook implements TransactionalDb.TransactionCallback {
+
+        /** Offer table */
+        private final String table;
+
+        /** TRUE if the lowest rate has priority */
+        private final boolean ascending;
+
+        /** Offer priority */
+        private final Comparator<BookEntry> comparator;
+
+        /** Offers for each currency */
+        private final Map<Long, TreeSet<BookEntry>> books = new HashMap<>();
+
+        /**
+         * Create an offer book
+         *
+         * @param   table               Offer table
+         * @param   ascending           TRUE if the lowest rate has priority
+         */
+        OfferBook(String table, boolean ascending) {
+            this.table = table;
+            this.ascending = ascending;
+            Comparator<BookEntry> rateComparator = Comparator.comparingLong(entry -> entry.rateNQT);
+            this.comparator = (ascending ? rateComparator : rateComparator.reversed())
+                    .thenComparingInt(entry -> entry.creationHeight)
+                    .thenComparingInt(entry -> entry.transactionHeight)
+                    .thenComparingInt(entry -> entry.transactionIndex)
+                    .thenComparingLong(entry -> entry.id);
+        }
+
+        /**
+         * Return the available offers in priority order
+         *
+         * @param   currencyId          Currency identifier
+         * @param   rateLimitNQT        Worst acceptable rate or 0 for all offers
+         * @return                      Snapshot of the available offers
+         */
+        synchronized List<BookEntry> getAvailableOffers(long currencyId, long rateLimitNQT) {
+            List<BookEntry> offers = new ArrayList<>();
+            for (BookEntry entry : getBook(currencyId)) {
+                if (rateLimitNQT > 0 && (ascending ? entry.rateNQT > rateLimitNQT : entry.rateNQT < rateLimitNQT)) {
+                    break;
+                }
+                if (entry.limit != 0 && entry.supply != 0) {
+                    offers.add(new BookEntry(entry));
+                }
+            }
+            return offers;
+        }
+
+        /**
+         * Add an offer or replace the current limit and supply of an existing offer
+         *
+         * @param   offer               Offer
+         */
+        synchronized void add(CurrencyExchangeOffer offer) {
+            TreeSet<BookEntry> book = books.get(offer.getCurrencyId());
+            if (book != null) {
+                BookEntry entry = new BookEntry(offer);
+                book.remove(entry);
+                book.add(entry);
+                registerCallback();
+            }
+        }
+
+        /**
+         * Remove an offer
+         *
+         * @param   offer               Offer
+         */
+        synchronized void remove(CurrencyExchangeOffer offer) {
+            TreeSet<BookEntry> book = books.get(offer.getCurrencyId());
+            if (book != null) {
+                book.remove(new BookEntry(offer));
+                registerCallback();
+            }
+        }
+
+        /**
+         * Discard all offer books
+         */
+        synchronized void clear() {
+            books.clear();
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            clear();
+        }
+
+        /**
+         * Return the offer book for a currency, loading it from the offer table if necessary
+         *
+         * @param   currencyId          Currency identifier
+         * @return                      Offer book
+         */
+        private TreeSet<BookEntry> getBook(long currencyId) {
+            TreeSet<BookEntry> book = books.get(currencyId);
+            if (book == null) {
+                book = new TreeSet<>(comparator);
+                try (Connection con = Db.db.getConnection();
+                     PreparedStatement pstmt = con.prepareStatement("SELECT id, rate, unit_limit, supply, creation_height, "
+                             + "transaction_height, transaction_index FROM " + table + " WHERE currency_id = ? AND latest = TRUE")) {
+                    pstmt.setLong(1, currencyId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            book.add(new BookEntry(rs));
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e.toString(), e);
+                }
+                books.put(currencyId, book);
+                registerCallback();
+            }
+            return book;
+        }
+
+        /**
+         * Discard the books if the current database transaction is rolled back
+         */
+        private void registerCallback() {
+            if (Db.db.isInTransaction()) {
+                Db.db.registerCallback(this);
+            }
+        }
+    }
+
+    /**
+     * Offer book entry
+     */
+    static final class BookEntry {
+
+        final long id;
+        final long rateNQT;
+        final long limit;
+        final long supply;
+        private final int creationHeight;
+        private final int transactionHeight;
+        private final short transactionIndex;
+
+        private BookEntry(CurrencyExchangeOffer offer) {
+            this.id = offer.id;
+            this.rateNQT = offer.rateNQT;
+            this.limit = offer.limit;
+            this.supply = offer.supply;
+            this.creationHeight = offer.creationHeight;
+            this.transactionHeight = offer.transactionHeight;
+            this.transactionIndex = offer.transactionIndex;
+        }
+
+        private BookEntry(BookEntry entry) {
+            this.id = entry.id;
+            this.rateNQT = entry.rateNQT;
+            this.limit = entry.limit;
+            this.supply = entry.supply;
+            this.creationHeight = entry.creationHeight;
+            this.transactionHeight = entry.transactionHeight;
+            this.transactionIndex = entry.transactionIndex;
+        }
+
+        private BookEntry(ResultSet rs) throws SQLException {
+            this.id = rs.getLong("id");
+            this.rateNQT = rs.getLong("rate");
+            this.limit = rs.getLong("unit_limit");
+            this.supply = rs.getLong("supply");
+            this.creationHeight = rs.getInt("creation_height");
+            this.transactionHeight = rs.getInt("transaction_height");
+            this.transactionIndex = rs.getShort("transaction_index");
+        }
+    }
+
 
     final long id;
     private final long currencyId;
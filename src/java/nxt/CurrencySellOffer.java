@@ -21,6 +21,7 @@ package nxt;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 import nxt.db.DbClause;
 import nxt.db.DbIterator;
@@ -50,8 +51,22 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
             sell.save(con, table);
         }
 
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            sellOfferBook.clear();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            sellOfferBook.clear();
+        }
+
     };
 
+    private static final OfferBook sellOfferBook = new OfferBook("sell_offer", true);
+
     public static int getCount() {
         return sellOfferTable.getCount();
     }
@@ -100,12 +115,19 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
         return sellOfferTable.getManyBy(dbClause, from, to, sort);
     }
 
+    static List<BookEntry> getAvailableOffers(long currencyId, long maxRateNQT) {
+        return sellOfferBook.getAvailableOffers(currencyId, maxRateNQT);
+    }
+
     static void addOffer(Transaction transaction, Attachment.MonetarySystemPublishExchangeOffer attachment) {
-        sellOfferTable.insert(new CurrencySellOffer(transaction, attachment));
+        CurrencySellOffer offer = new CurrencySellOffer(transaction, attachment);
+        sellOfferTable.insert(offer);
+        sellOfferBook.add(offer);
     }
 
     static void remove(CurrencySellOffer sellOffer) {
         sellOfferTable.delete(sellOffer);
+        sellOfferBook.remove(sellOffer);
     }
 
     static void init() {}
@@ -132,11 +154,13 @@ public final class CurrencySellOffer extends CurrencyExchangeOffer {
     long increaseSupply(long delta) {
         long excess = super.increaseSupply(delta);
         sellOfferTable.insert(this);
+        sellOfferBook.add(this);
         return excess;
     }
 
     void decreaseLimitAndSupply(long delta) {
         super.decreaseLimitAndSupply(delta);
         sellOfferTable.insert(this);
+        sellOfferBook.add(this);
     }
 }
@@ -25,11 +25,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import nxt.crypto.Crypto;
@@ -50,77 +52,66 @@ public final class Generator implements Comparable<Generator> {
     private static final byte[] fakeForgingPublicKey = Nxt.getBooleanProperty("nxt.enableFakeForging") ?
             Account.getPublicKey(Convert.parseAccountId(Nxt.getStringProperty("nxt.fakeForgingAccount"))) : null;
 
+    /** Maximum time to wait before checking the forging schedule (milliseconds) */
+    private static final int MAX_WAIT = 10000;
+
+    /** Wait interval during the second before the next hit time (milliseconds) */
+    private static final int HIT_WAIT = 50;
+
+    /** Wait interval after a block generation error (milliseconds) */
+    private static final int RETRY_WAIT = 1000;
+
+    /** Time multiplier */
+    private static final int TIME_MULTIPLIER = (Constants.isTestnet && Constants.isOffline) ?
+            Math.max(Nxt.getIntProperty("nxt.timeMultiplier"), 1) : 1;
+
+    /** Thread pool used to compute the forger hits */
+    private static final ForkJoinPool forgingPool = new ForkJoinPool(Math.max(1,
+            Nxt.getIntProperty("nxt.forgingThreads", Runtime.getRuntime().availableProcessors())));
+
     private static final Listeners<Generator,Event> listeners = new Listeners<>();
 
     private static final ConcurrentMap<String, Generator> generators = new ConcurrentHashMap<>();
     private static final Collection<Generator> allGenerators = Collections.unmodifiableCollection(generators.values());
-    private static volatile List<Generator> sortedForgers = null;
+    private static volatile List<Generator> sortedForgers = Collections.emptyList();
     private static long lastBlockId;
     private static int delayTime = Constants.FORGING_DELAY;
     private static final int MIN_BLOCK_TIME = 8;
 
+    /** Forgers ordered by hit time, protected by the blockchain update lock */
+    private static PriorityQueue<Generator> forgingQueue = new PriorityQueue<>();
+
+    /** Forging schedule lock */
+    private static final Object scheduleLock = new Object();
+
+    /** Forging schedule has changed */
+    private static boolean scheduleChanged;
+
+    /**
+     * The block generation thread computes the forger hits when a new block is received
+     * and then waits until the hit time of the first forger in the forging queue.  It is
+     * woken up early when a block is pushed or popped, a forger is started or the forging
+     * delay is changed.
+     */
     private static final Runnable generateBlocksThread = new Runnable() {
 
         @Override
         public void run() {
 
             try {
+                long waitTime;
                 try {
                     BlockchainImpl.getInstance().updateLock();
                     try {
-                        Block lastBlock = Nxt.getBlockchain().getLastBlock();
-                        if (lastBlock == null) {
-                            return;
-                        }
-                        final int generationLimit = Nxt.getEpochTime() - delayTime;
-                        if (lastBlock.getId() != lastBlockId || sortedForgers == null) {
-                            lastBlockId = lastBlock.getId();
-                            if (lastBlock.getTimestamp() > Nxt.getEpochTime() - 600 && lastBlock.getHeight() != 0) {
-                                Block previousBlock = Nxt.getBlockchain().getBlock(lastBlock.getPreviousBlockId());
-                                for (Generator generator : generators.values()) {
-                                    generator.setLastBlock(previousBlock);
-                                    int timestamp = generator.getTimestamp(generationLimit);
-                                    if (timestamp != generationLimit && generator.getHitTime() > 0 && timestamp < lastBlock.getTimestamp()) {
-                                    	 Logger.logDebugMessage("Pop off: " + generator.toString() + " will pop off last block,"+
-											" with height:" + lastBlock.getHeight() +
-											" and timestamp " + Time.getDateTimeStringInfo(lastBlock.getTimestamp()) + ". " +
-											" Current timestamp " + Time.getDateTimeStringInfo(timestamp));
-
-                                        List<BlockImpl> poppedOffBlock = BlockchainProcessorImpl.getInstance().popOffTo(previousBlock);
-                                        for (BlockImpl block : poppedOffBlock) {
-                                            TransactionProcessorImpl.getInstance().processLater(block.getTransactions());
-                                        }
-                                        lastBlock = previousBlock;
-                                        lastBlockId = previousBlock.getId();
-                                        break;
-                                    }
-                                }
-                            }
-                            List<Generator> forgers = new ArrayList<>();
-                            for (Generator generator : generators.values()) {
-                                generator.setLastBlock(lastBlock);
-                                if (generator.effectiveBalance.signum() > 0) {
-                                    forgers.add(generator);
-                                }
-                            }
-                            Collections.sort(forgers);
-                            sortedForgers = Collections.unmodifiableList(forgers);
-                            
-                            if (!sortedForgers.isEmpty()) {
-                            	Logger.logDebugMessage("Candidate forge for the new block: " + sortedForgers.get(0).toString());
-                            }
-                        }
-                        for (Generator generator : sortedForgers) {
-                            if (generator.getHitTime() > generationLimit || generator.forge(lastBlock, generationLimit)) {
-                                return;
-                            }
-                        }
+                        waitTime = generateBlocks();
                     } finally {
                         BlockchainImpl.getInstance().updateUnlock();
                     }
                 } catch (Exception e) {
                     Logger.logMessage("Error in block generation thread", e);
+                    waitTime = RETRY_WAIT;
                 }
+                waitForSchedule(waitTime);
             } catch (Throwable t) {
                 Logger.logErrorMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
                 t.printStackTrace();
@@ -133,12 +124,133 @@ public final class Generator implements Comparable<Generator> {
 
     static {
         if (!Constants.isLightClient) {
-            ThreadPool.scheduleThread("GenerateBlocks", generateBlocksThread, 500, TimeUnit.MILLISECONDS);
+            ThreadPool.scheduleThread("GenerateBlocks", generateBlocksThread, 1, TimeUnit.MILLISECONDS);
+            Nxt.getBlockchainProcessor().addListener(block -> scheduleChanged(), BlockchainProcessor.Event.BLOCK_PUSHED);
+            Nxt.getBlockchainProcessor().addListener(block -> scheduleChanged(), BlockchainProcessor.Event.BLOCK_POPPED);
         }
     }
 
     static void init() {}
 
+    /**
+     * Generate a block if the first forger in the forging queue has reached its hit time.
+     * The caller must hold the blockchain update lock.
+     *
+     * @return                      Time to wait before the next check (milliseconds)
+     * @throws  BlockchainProcessor.BlockNotAcceptedException   Generated block not accepted
+     */
+    private static long generateBlocks() throws BlockchainProcessor.BlockNotAcceptedException {
+        Block lastBlock = Nxt.getBlockchain().getLastBlock();
+        if (lastBlock == null) {
+            return MAX_WAIT;
+        }
+        final int generationLimit = Nxt.getEpochTime() - delayTime;
+        if (lastBlock.getId() != lastBlockId) {
+            lastBlockId = lastBlock.getId();
+            boolean poppedOff = false;
+            if (lastBlock.getTimestamp() > Nxt.getEpochTime() - 600 && lastBlock.getHeight() != 0) {
+                Block previousBlock = Nxt.getBlockchain().getBlock(lastBlock.getPreviousBlockId());
+                setLastBlock(generators.values(), previousBlock);
+                for (Generator generator : generators.values()) {
+                    int timestamp = generator.getTimestamp(generationLimit);
+                    if (timestamp != generationLimit && generator.getHitTime() > 0 && timestamp < lastBlock.getTimestamp()) {
+                        Logger.logDebugMessage("Pop off: " + generator.toString() + " will pop off last block,"+
+                                " with height:" + lastBlock.getHeight() +
+                                " and timestamp " + Time.getDateTimeStringInfo(lastBlock.getTimestamp()) + ". " +
+                                " Current timestamp " + Time.getDateTimeStringInfo(timestamp));
+                        List<BlockImpl> poppedOffBlock = BlockchainProcessorImpl.getInstance().popOffTo(previousBlock);
+                        for (BlockImpl block : poppedOffBlock) {
+                            TransactionProcessorImpl.getInstance().processLater(block.getTransactions());
+                        }
+                        lastBlock = previousBlock;
+                        lastBlockId = previousBlock.getId();
+                        poppedOff = true;
+                        break;
+                    }
+                }
+            }
+            if (!poppedOff) {
+                setLastBlock(generators.values(), lastBlock);
+            }
+            List<Generator> forgers = new ArrayList<>();
+            for (Generator generator : generators.values()) {
+                if (generator.effectiveBalance.signum() > 0) {
+                    forgers.add(generator);
+                }
+            }
+            Collections.sort(forgers);
+            sortedForgers = Collections.unmodifiableList(forgers);
+            forgingQueue = new PriorityQueue<>(forgers);
+            if (!forgers.isEmpty()) {
+                Logger.logDebugMessage("Candidate forge for the new block: " + forgers.get(0).toString());
+            }
+        }
+        while (!forgingQueue.isEmpty()) {
+            Generator generator = forgingQueue.peek();
+            long remaining = generator.getHitTime() - generationLimit;
+            if (remaining > 0) {
+                return remaining > 1 ? (remaining - 1) * 1000 / TIME_MULTIPLIER : HIT_WAIT / TIME_MULTIPLIER;
+            }
+            if (generator.forge(lastBlock, generationLimit)) {
+                return 0;
+            }
+            forgingQueue.poll();
+        }
+        return MAX_WAIT;
+    }
+
+    /**
+     * Compute the hits for the forgers in parallel
+     *
+     * @param   forgers             Forgers
+     * @param   block               Last block
+     */
+    private static void setLastBlock(Collection<Generator> forgers, Block block) {
+        try {
+            forgingPool.submit(() -> forgers.parallelStream().forEach(generator -> generator.setLastBlock(block))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Forger hit computation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().toString(), e.getCause());
+        }
+    }
+
+    /**
+     * Wait until the next forging check
+     *
+     * @param   waitTime            Maximum wait time (milliseconds)
+     */
+    private static void waitForSchedule(long waitTime) {
+        synchronized (scheduleLock) {
+            try {
+                if (!scheduleChanged && waitTime > 0) {
+                    scheduleLock.wait(Math.min(waitTime, MAX_WAIT));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduleChanged = false;
+        }
+    }
+
+    /**
+     * Wake up the block generation thread
+     */
+    private static void scheduleChanged() {
+        synchronized (scheduleLock) {
+            scheduleChanged = true;
+            scheduleLock.notify();
+        }
+    }
+
+    /**
+     * Shut down the forging thread pool
+     */
+    static void shutdown() {
+        ThreadPool.shutdownExecutor("forgingPool", forgingPool, 5);
+    }
+
     public static boolean addListener(Listener<Generator> listener, Event eventType) {
         return listeners.addListener(listener, eventType);
     }
@@ -152,25 +264,47 @@ public final class Generator implements Comparable<Generator> {
             throw new RuntimeException("Cannot forge with more than " + MAX_FORGERS + " accounts on the same node");
         }
         Generator generator = new Generator(secretPhrase);
-        Generator old = generators.putIfAbsent(secretPhrase, generator);
-        if (old != null) {
-            Logger.logDebugMessage(old + " is already forging");
-            return old;
+        Nxt.getBlockchain().updateLock();
+        try {
+            Generator old = generators.putIfAbsent(secretPhrase, generator);
+            if (old != null) {
+                Logger.logDebugMessage(old + " is already forging");
+                return old;
+            }
+            Block lastBlock = Nxt.getBlockchain().getLastBlock();
+            if (lastBlock.getId() == lastBlockId || Nxt.getBlockchain().getHeight() >= Constants.LAST_KNOWN_BLOCK) {
+                generator.setLastBlock(lastBlock);
+            }
+            if (lastBlock.getId() == lastBlockId && generator.effectiveBalance.signum() > 0) {
+                List<Generator> forgers = new ArrayList<>(sortedForgers);
+                int index = Collections.binarySearch(forgers, generator);
+                forgers.add(index < 0 ? -index - 1 : index, generator);
+                sortedForgers = Collections.unmodifiableList(forgers);
+                forgingQueue.add(generator);
+            }
+        } finally {
+            Nxt.getBlockchain().updateUnlock();
         }
+        scheduleChanged();
         listeners.notify(generator, Event.START_FORGING);
         Logger.logDebugMessage(generator + " started");
         return generator;
     }
 
     public static Generator stopForging(String secretPhrase) {
-        Generator generator = generators.remove(secretPhrase);
-        if (generator != null) {
-            Nxt.getBlockchain().updateLock();
-            try {
-                sortedForgers = null;
-            } finally {
-                Nxt.getBlockchain().updateUnlock();
+        Generator generator;
+        Nxt.getBlockchain().updateLock();
+        try {
+            generator = generators.remove(secretPhrase);
+            if (generator != null && forgingQueue.remove(generator)) {
+                List<Generator> forgers = new ArrayList<>(sortedForgers);
+                forgers.remove(generator);
+                sortedForgers = Collections.unmodifiableList(forgers);
             }
+        } finally {
+            Nxt.getBlockchain().updateUnlock();
+        }
+        if (generator != null) {
             Logger.logDebugMessage(generator + " stopped");
             listeners.notify(generator, Event.STOP_FORGING);
         }
@@ -178,21 +312,21 @@ public final class Generator implements Comparable<Generator> {
     }
 
     public static int stopForging() {
-        int count = generators.size();
-        Iterator<Generator> iter = generators.values().iterator();
-        while (iter.hasNext()) {
-            Generator generator = iter.next();
-            iter.remove();
-            Logger.logDebugMessage(generator + " stopped");
-            listeners.notify(generator, Event.STOP_FORGING);
-        }
+        List<Generator> stopped;
         Nxt.getBlockchain().updateLock();
         try {
-            sortedForgers = null;
+            stopped = new ArrayList<>(generators.values());
+            generators.clear();
+            forgingQueue.clear();
+            sortedForgers = Collections.emptyList();
         } finally {
             Nxt.getBlockchain().updateUnlock();
         }
-        return count;
+        for (Generator generator : stopped) {
+            Logger.logDebugMessage(generator + " stopped");
+            listeners.notify(generator, Event.STOP_FORGING);
+        }
+        return stopped.size();
     }
 
     public static Generator getGenerator(String secretPhrase) {
@@ -208,14 +342,13 @@ public final class Generator implements Comparable<Generator> {
     }
 
     public static List<Generator> getSortedForgers() {
-        List<Generator> forgers = sortedForgers;
-        return forgers == null ? Collections.emptyList() : forgers;
+        return sortedForgers;
     }
 
     public static long getNextHitTime(long lastBlockId, int curTime) {
         BlockchainImpl.getInstance().readLock();
         try {
-            if (lastBlockId == Generator.lastBlockId && sortedForgers != null) {
+            if (lastBlockId == Generator.lastBlockId) {
                 for (Generator generator : sortedForgers) {
                     if (generator.getHitTime() >= curTime - Constants.FORGING_DELAY) {
                         return generator.getHitTime();
@@ -230,6 +363,7 @@ public final class Generator implements Comparable<Generator> {
 
     static void setDelay(int delay) {
         Generator.delayTime = delay;
+        scheduleChanged();
     }
 
     static boolean verifyHit(BigInteger hit, BigInteger effectiveBalance, Block previousBlock, int timestamp) {
@@ -289,15 +423,6 @@ public final class Generator implements Comparable<Generator> {
         this.secretPhrase = secretPhrase;
         this.publicKey = Crypto.getPublicKey(secretPhrase);
         this.accountId = Account.getId(publicKey);
-        Nxt.getBlockchain().updateLock();
-        try {
-            if (Nxt.getBlockchain().getHeight() >= Constants.LAST_KNOWN_BLOCK) {
-                setLastBlock(Nxt.getBlockchain().getLastBlock());
-            }
-            sortedForgers = null;
-        } finally {
-            Nxt.getBlockchain().updateUnlock();
-        }
     }
 
     public byte[] getPublicKey() {
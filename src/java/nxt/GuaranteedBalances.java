@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import nxt.db.TransactionalDb;
+import nxt.util.Logger;
+
+/**
+ * GuaranteedBalances maintains the balance additions for each account over the last
+ * GUARANTEED_BALANCE_CONFIRMATIONS blocks.  This allows the guaranteed balance and the
+ * effective balance at the current height to be computed without querying the
+ * account_guaranteed_balance table.
+ *
+ * The additions for a block are added when the block is accepted and the additions
+ * for the block leaving the window are removed.  This is reversed when a block is
+ * popped off.  The window is rebuilt from the database when it is not at the current
+ * height, such as after a blockchain scan or a failed pop-off.
+ *
+ * The window is used only outside a database transaction since the additions for the
+ * block being processed are not included until the block has been accepted.
+ */
+final class GuaranteedBalances {
+
+    /** Guaranteed balance window enabled */
+    private static final boolean enabled = Nxt.getBooleanProperty("nxt.enableGuaranteedBalanceCache");
+
+    /** Window height or -1 if the window must be rebuilt */
+    private static int windowHeight = -1;
+
+    /** Account additions for each height in the window */
+    private static final Map<Integer, Map<Long, Long>> heightAdditions = new HashMap<>();
+
+    /** Total additions for each account in the window */
+    private static final Map<Long, Long> accountAdditions = new HashMap<>();
+
+    /** Invalidate the window if a pop-off is rolled back */
+    private static final TransactionalDb.TransactionCallback popOffCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            invalidate();
+        }
+    };
+
+    static {
+        if (enabled) {
+            Nxt.getBlockchainProcessor().addListener(GuaranteedBalances::blockAccepted,
+                    BlockchainProcessor.Event.AFTER_BLOCK_ACCEPT);
+            Nxt.getBlockchainProcessor().addListener(GuaranteedBalances::blockPopped,
+                    BlockchainProcessor.Event.BLOCK_POPPED);
+            Nxt.getBlockchainProcessor().addListener(block -> invalidate(),
+                    BlockchainProcessor.Event.RESCAN_BEGIN);
+        }
+    }
+
+    static void init() {}
+
+    private GuaranteedBalances() {}
+
+    /**
+     * Return the balance additions for an account within the guaranteed balance window.
+     * The blockchain read lock must be held by the caller.
+     *
+     * @param   accountId           Account identifier
+     * @param   height              Blockchain height
+     * @return                      Balance additions or -1 if the window is not available for the height
+     */
+    static synchronized long getAdditions(long accountId, int height) {
+        if (!enabled || height != Nxt.getBlockchain().getHeight() || Db.db.isInTransaction()) {
+            return -1;
+        }
+        if (windowHeight != height) {
+            rebuild(height);
+        }
+        Long additions = accountAdditions.get(accountId);
+        return additions != null ? additions : 0;
+    }
+
+    /**
+     * Add the balance additions for an accepted block
+     *
+     * @param   block               Accepted block
+     */
+    private static synchronized void blockAccepted(Block block) {
+        int height = block.getHeight();
+        if (windowHeight != height - 1) {
+            invalidate();
+            return;
+        }
+        Map<Long, Long> additions = loadAdditions(height);
+        heightAdditions.put(height, additions);
+        additions.forEach((accountId, amount) -> accountAdditions.merge(accountId, amount, Math::addExact));
+        removeHeight(height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS);
+        windowHeight = height;
+    }
+
+    /**
+     * Remove the balance additions for a popped block.  This is called within the
+     * pop-off database transaction.
+     *
+     * @param   block               Popped block
+     */
+    private static synchronized void blockPopped(Block block) {
+        int height = block.getHeight();
+        if (windowHeight != height) {
+            invalidate();
+            return;
+        }
+        removeHeight(height);
+        int restoredHeight = height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS;
+        if (restoredHeight >= 0) {
+            Map<Long, Long> additions = loadAdditions(restoredHeight);
+            heightAdditions.put(restoredHeight, additions);
+            additions.forEach((accountId, amount) -> accountAdditions.merge(accountId, amount, Math::addExact));
+        }
+        windowHeight = height - 1;
+        Db.db.registerCallback(popOffCallback);
+    }
+
+    /**
+     * Remove the balance additions for a height
+     *
+     * @param   height              Block height
+     */
+    private static void removeHeight(int height) {
+        Map<Long, Long> additions = heightAdditions.remove(height);
+        if (additions != null) {
+            additions.forEach((accountId, amount) -> {
+                long remaining = Math.subtractExact(accountAdditions.get(accountId), amount);
+                if (remaining == 0) {
+                    accountAdditions.remove(accountId);
+                } else {
+                    accountAdditions.put(accountId, remaining);
+                }
+            });
+        }
+    }
+
+    /**
+     * Invalidate the window.  The window will be rebuilt when it is next used.
+     */
+    private static synchronized void invalidate() {
+        windowHeight = -1;
+        heightAdditions.clear();
+        accountAdditions.clear();
+    }
+
+    /**
+     * Rebuild the window from the database
+     *
+     * @param   height              Window height
+     */
+    private static void rebuild(int height) {
+        heightAdditions.clear();
+        accountAdditions.clear();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT account_id, additions, height "
+                     + "FROM account_guaranteed_balance WHERE height > ? AND height <= ?")) {
+            pstmt.setInt(1, height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS);
+            pstmt.setInt(2, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long accountId = rs.getLong("account_id");
+                    long amount = rs.getLong("additions");
+                    heightAdditions.computeIfAbsent(rs.getInt("height"), k -> new HashMap<>()).put(accountId, amount);
+                    accountAdditions.merge(accountId, amount, Math::addExact);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        windowHeight = height;
+        Logger.logDebugMessage("Guaranteed balance window rebuilt at height " + height + " for "
+                + accountAdditions.size() + " accounts");
+    }
+
+    /**
+     * Load the balance additions for a height
+     *
+     * @param   height              Block height
+     * @return                      Account additions
+     */
+    private static Map<Long, Long> loadAdditions(int height) {
+        Map<Long, Long> additions = new HashMap<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT account_id, additions "
+                     + "FROM account_guaranteed_balance WHERE height = ?")) {
+            pstmt.setInt(1, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    additions.put(rs.getLong("account_id"), rs.getLong("additions"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return additions;
+    }
+}
@@ -20,6 +20,7 @@ package nxt;
 
 import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.simple.JSONObject;
 
@@ -82,6 +83,14 @@ public abstract class MonetarySystem extends TransactionType {
         return isDuplicate;
     }
 
+    @Override
+    void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+        if (transaction.getAttachment() instanceof Attachment.MonetarySystemAttachment) {
+            Attachment.MonetarySystemAttachment attachment = (Attachment.MonetarySystemAttachment) transaction.getAttachment();
+            affectedKeys.add(affectedKey("currency", attachment.getCurrencyId()));
+        }
+    }
+
     @Override
     public final boolean isPhasingSafe() {
         return false;
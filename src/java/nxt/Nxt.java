@@ -302,6 +302,18 @@ public final class Nxt {
         return TransactionImpl.newTransactionBuilder(transactionBytes, prunableAttachments);
     }
 
+    public static Transaction parseTransaction(JSONObject transactionData) throws NxtException.NotValidException {
+        return TransactionImpl.parseTransaction(transactionData);
+    }
+
+    public static Transaction parseTransaction(byte[] transactionBytes, JSONObject prunableAttachments) throws NxtException.NotValidException {
+        return TransactionImpl.parseTransaction(transactionBytes, prunableAttachments);
+    }
+
+    public static Block parseBlock(byte[] blockBytes, List<? extends Transaction> blockTransactions) throws NxtException.NotValidException {
+        return BlockImpl.parseBlock(blockBytes, blockTransactions);
+    }
+
     public static int getEpochTime() {
         return time.getTime();
     }
@@ -335,6 +347,7 @@ public final class Nxt {
         API.shutdown();
         FundingMonitor.shutdown();
         ThreadPool.shutdown();
+        Generator.shutdown();
         BlockchainProcessorImpl.getInstance().shutdown();
         Peers.shutdown();
         MetisServers.shutdown();
@@ -362,6 +375,7 @@ public final class Nxt {
                 TransactionProcessorImpl.getInstance();
                 BlockchainProcessorImpl.getInstance();
                 Account.init();
+                GuaranteedBalances.init();
                 AccountRestrictions.init();
                 AccountLedger.init();
                 Alias.init();
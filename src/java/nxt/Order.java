@@ -22,12 +22,18 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
 
 import nxt.AccountLedger.LedgerEvent;
 import nxt.db.DbClause;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
+import nxt.db.TransactionalDb;
 import nxt.db.VersionedEntityDbTable;
+import nxt.util.Logger;
 
 public abstract class Order {
 
@@ -180,6 +186,163 @@ public abstract class Order {
     }
     */
 
+    /**
+     * OrderBook is a price-time priority index of the open orders for each asset.  The
+     * book for an asset is loaded from the order table when it is first used and is then
+     * updated as orders are added and removed, so the best order can be found without
+     * sorting the order table for each matched order.
+     *
+     * The books are discarded when the order table is rolled back or truncated and when
+     * the database transaction that modified them is rolled back.  Orders are only
+     * matched while processing a block, so the books are accessed with the blockchain
+     * write lock held.
+     */
+    private static final class OrderBook implements TransactionalDb.TransactionCallback {
+
+        /** Order table */
+        private final String table;
+
+        /** Order priority */
+        private final Comparator<BookEntry> comparator;
+
+        /** Open orders for each asset */
+        private final Map<Long, TreeSet<BookEntry>> books = new HashMap<>();
+
+        /**
+         * Create an order book
+         *
+         * @param   table               Order table
+         * @param   ascending           TRUE if the lowest price has priority
+         */
+        private OrderBook(String table, boolean ascending) {
+            this.table = table;
+            Comparator<BookEntry> priceComparator = Comparator.comparingLong(entry -> entry.priceNQT);
+            this.comparator = (ascending ? priceComparator : priceComparator.reversed())
+                    .thenComparingInt(entry -> entry.creationHeight)
+                    .thenComparingInt(entry -> entry.transactionHeight)
+                    .thenComparingInt(entry -> entry.transactionIndex)
+                    .thenComparingLong(entry -> entry.id);
+        }
+
+        /**
+         * Return the identifier of the order with the highest priority
+         *
+         * @param   assetId             Asset identifier
+         * @return                      Order identifier or 0 if there are no open orders
+         */
+        private synchronized long getFirst(long assetId) {
+            TreeSet<BookEntry> book = getBook(assetId);
+            return book.isEmpty() ? 0 : book.first().id;
+        }
+
+        /**
+         * Add an order
+         *
+         * @param   order               Order
+         */
+        private synchronized void add(Order order) {
+            TreeSet<BookEntry> book = books.get(order.getAssetId());
+            if (book != null) {
+                book.add(new BookEntry(order));
+                Db.db.registerCallback(this);
+            }
+        }
+
+        /**
+         * Remove an order
+         *
+         * @param   order               Order
+         */
+        private synchronized void remove(Order order) {
+            TreeSet<BookEntry> book = books.get(order.getAssetId());
+            if (book != null) {
+                book.remove(new BookEntry(order));
+                Db.db.registerCallback(this);
+            }
+        }
+
+        /**
+         * Discard the order book for an asset
+         *
+         * @param   assetId             Asset identifier
+         */
+        private synchronized void clear(long assetId) {
+            books.remove(assetId);
+        }
+
+        /**
+         * Discard all order books
+         */
+        private synchronized void clear() {
+            books.clear();
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            clear();
+        }
+
+        /**
+         * Return the order book for an asset, loading it from the order table if necessary
+         *
+         * @param   assetId             Asset identifier
+         * @return                      Order book
+         */
+        private TreeSet<BookEntry> getBook(long assetId) {
+            TreeSet<BookEntry> book = books.get(assetId);
+            if (book == null) {
+                book = new TreeSet<>(comparator);
+                try (Connection con = Db.db.getConnection();
+                     PreparedStatement pstmt = con.prepareStatement("SELECT id, price, creation_height, transaction_height, "
+                             + "transaction_index FROM " + table + " WHERE asset_id = ? AND latest = TRUE")) {
+                    pstmt.setLong(1, assetId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            book.add(new BookEntry(rs));
+                        }
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e.toString(), e);
+                }
+                books.put(assetId, book);
+                Db.db.registerCallback(this);
+            }
+            return book;
+        }
+    }
+
+    /**
+     * Order book entry
+     */
+    private static final class BookEntry {
+
+        private final long id;
+        private final long priceNQT;
+        private final int creationHeight;
+        private final int transactionHeight;
+        private final short transactionIndex;
+
+        private BookEntry(Order order) {
+            this.id = order.getId();
+            this.priceNQT = order.getPriceNQT();
+            this.creationHeight = order.getHeight();
+            this.transactionHeight = order.getTransactionHeight();
+            this.transactionIndex = (short)order.getTransactionIndex();
+        }
+
+        private BookEntry(ResultSet rs) throws SQLException {
+            this.id = rs.getLong("id");
+            this.priceNQT = rs.getLong("price");
+            this.creationHeight = rs.getInt("creation_height");
+            this.transactionHeight = rs.getInt("transaction_height");
+            this.transactionIndex = rs.getShort("transaction_index");
+        }
+    }
+
     public static final class Ask extends Order {
 
         private static final DbKey.LongKeyFactory<Ask> askOrderDbKeyFactory = new DbKey.LongKeyFactory<Ask>("id") {
@@ -202,6 +365,18 @@ public abstract class Order {
                 ask.save(con, table);
             }
 
+            @Override
+            public void rollback(int height) {
+                super.rollback(height);
+                askOrderBook.clear();
+            }
+
+            @Override
+            public void truncate() {
+                super.truncate();
+                askOrderBook.clear();
+            }
+
             @Override
             protected String defaultSort() {
                 return " ORDER BY creation_height DESC ";
@@ -209,6 +384,8 @@ public abstract class Order {
 
         };
 
+        private static final OrderBook askOrderBook = new OrderBook("ask_order", true);
+
         public static int getCount() {
             return askOrderTable.getCount();
         }
@@ -244,26 +421,33 @@ public abstract class Order {
         }
 
         private static Ask getNextOrder(long assetId) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM ask_order WHERE asset_id = ? "
-                         + "AND latest = TRUE ORDER BY price ASC, creation_height ASC, transaction_height ASC, transaction_index ASC LIMIT 1")) {
-                pstmt.setLong(1, assetId);
-                try (DbIterator<Ask> askOrders = askOrderTable.getManyBy(con, pstmt, true)) {
-                    return askOrders.hasNext() ? askOrders.next() : null;
+            while (true) {
+                long orderId = askOrderBook.getFirst(assetId);
+                if (orderId == 0) {
+                    return null;
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
+                Ask order = getAskOrder(orderId);
+                if (order != null) {
+                    return order;
+                }
+                Logger.logErrorMessage("Ask order " + Long.toUnsignedString(orderId) + " not found, reloading order book");
+                askOrderBook.clear(assetId);
             }
         }
 
         static void addOrder(Transaction transaction, Attachment.ColoredCoinsAskOrderPlacement attachment) {
             Ask order = new Ask(transaction, attachment);
             askOrderTable.insert(order);
+            askOrderBook.add(order);
             matchOrders(attachment.getAssetId());
         }
 
         static void removeOrder(long orderId) {
-            askOrderTable.delete(getAskOrder(orderId));
+            Ask order = getAskOrder(orderId);
+            askOrderTable.delete(order);
+            if (order != null) {
+                askOrderBook.remove(order);
+            }
         }
 
         static void init() {}
@@ -291,6 +475,7 @@ public abstract class Order {
                 askOrderTable.insert(this);
             } else if (quantityQNT == 0) {
                 askOrderTable.delete(this);
+                askOrderBook.remove(this);
             } else {
                 throw new IllegalArgumentException("Negative quantity: " + quantityQNT
                         + " for order: " + Long.toUnsignedString(getId()));
@@ -335,6 +520,18 @@ public abstract class Order {
                 bid.save(con, table);
             }
 
+            @Override
+            public void rollback(int height) {
+                super.rollback(height);
+                bidOrderBook.clear();
+            }
+
+            @Override
+            public void truncate() {
+                super.truncate();
+                bidOrderBook.clear();
+            }
+
             @Override
             protected String defaultSort() {
                 return " ORDER BY creation_height DESC ";
@@ -342,6 +539,8 @@ public abstract class Order {
 
         };
 
+        private static final OrderBook bidOrderBook = new OrderBook("bid_order", false);
+
         public static int getCount() {
             return bidOrderTable.getCount();
         }
@@ -373,26 +572,33 @@ public abstract class Order {
         }
 
         private static Bid getNextOrder(long assetId) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM bid_order WHERE asset_id = ? "
-                         + "AND latest = TRUE ORDER BY price DESC, creation_height ASC, transaction_height ASC, transaction_index ASC LIMIT 1")) {
-                pstmt.setLong(1, assetId);
-                try (DbIterator<Bid> bidOrders = bidOrderTable.getManyBy(con, pstmt, true)) {
-                    return bidOrders.hasNext() ? bidOrders.next() : null;
+            while (true) {
+                long orderId = bidOrderBook.getFirst(assetId);
+                if (orderId == 0) {
+                    return null;
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
+                Bid order = getBidOrder(orderId);
+                if (order != null) {
+                    return order;
+                }
+                Logger.logErrorMessage("Bid order " + Long.toUnsignedString(orderId) + " not found, reloading order book");
+                bidOrderBook.clear(assetId);
             }
         }
 
         static void addOrder(Transaction transaction, Attachment.ColoredCoinsBidOrderPlacement attachment) {
             Bid order = new Bid(transaction, attachment);
             bidOrderTable.insert(order);
+            bidOrderBook.add(order);
             matchOrders(attachment.getAssetId());
         }
 
         static void removeOrder(long orderId) {
-            bidOrderTable.delete(getBidOrder(orderId));
+            Bid order = getBidOrder(orderId);
+            bidOrderTable.delete(order);
+            if (order != null) {
+                bidOrderBook.remove(order);
+            }
         }
 
         static void init() {}
@@ -420,6 +626,7 @@ public abstract class Order {
                 bidOrderTable.insert(this);
             } else if (quantityQNT == 0) {
                 bidOrderTable.delete(this);
+                bidOrderBook.remove(this);
             } else {
                 throw new IllegalArgumentException("Negative quantity: " + quantityQNT
                         + " for order: " + Long.toUnsignedString(getId()));
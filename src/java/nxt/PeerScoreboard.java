@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.ToDoubleFunction;
+
+import nxt.peer.Peer;
+
+/**
+ * Performance scoreboard for the peers used to download the blockchain
+ *
+ * An exponentially weighted moving average of the request latency, the block
+ * throughput and the failure rate is kept for each peer.  The scoreboard is used
+ * to select the peer for a block segment, to limit the number of concurrent requests
+ * sent to a peer and to determine when a slow request should be hedged by sending
+ * the same request to another peer.
+ *
+ * Peers without a score are assumed to perform like the median peer so that new
+ * peers will be tried.  Scores are discarded when the peer is no longer referenced.
+ */
+final class PeerScoreboard {
+
+    /** Weight of a new sample in the moving averages */
+    private static final double ALPHA = 0.25;
+
+    /** Expected request time when no peers have been scored (milliseconds) */
+    private static final long DEFAULT_REQUEST_TIME = 2000;
+
+    /** Minimum delay before hedging a request (milliseconds) */
+    private static final long MIN_HEDGE_DELAY = 500;
+
+    /** Maximum number of concurrent requests for a single peer */
+    private static final int MAX_REQUESTS_PER_PEER = 4;
+
+    /** Peer scores */
+    private static final Map<Peer, Score> scores = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private PeerScoreboard() {}
+
+    /**
+     * Record a successful request
+     *
+     * @param   peer                Peer
+     * @param   blockCount          Number of blocks returned
+     * @param   elapsedTime         Request time (milliseconds)
+     */
+    static void recordSuccess(Peer peer, int blockCount, long elapsedTime) {
+        getScore(peer).update(elapsedTime, blockCount * 1000.0 / Math.max(elapsedTime, 1), false);
+    }
+
+    /**
+     * Record a failed request
+     *
+     * @param   peer                Peer
+     * @param   elapsedTime         Request time (milliseconds)
+     */
+    static void recordFailure(Peer peer, long elapsedTime) {
+        getScore(peer).update(elapsedTime, 0, true);
+    }
+
+    /**
+     * Return the expected time for a request to the peer.  The request latency is
+     * increased by the peer failure rate since a failed request must be repeated.
+     *
+     * @param   peer                Peer
+     * @return                      Expected request time (milliseconds)
+     */
+    static long getExpectedTime(Peer peer) {
+        Score score = scores.get(peer);
+        return score != null && score.isValid() ? score.getExpectedTime() : getMedianExpectedTime();
+    }
+
+    /**
+     * Return the time to wait for a response before hedging a request to the peer
+     *
+     * @param   peer                Peer
+     * @return                      Hedge delay (milliseconds)
+     */
+    static long getHedgeDelay(Peer peer) {
+        return Math.max(MIN_HEDGE_DELAY, 2 * getExpectedTime(peer));
+    }
+
+    /**
+     * Return the maximum number of concurrent requests for the peer.  A peer with
+     * twice the median throughput can handle two concurrent requests.
+     *
+     * @param   peer                Peer
+     * @return                      Maximum number of concurrent requests
+     */
+    static int getMaxRequests(Peer peer) {
+        Score score = scores.get(peer);
+        if (score == null || !score.isValid()) {
+            return 1;
+        }
+        double medianThroughput = getMedian(Score::getThroughput);
+        if (medianThroughput <= 0) {
+            return 1;
+        }
+        int maxRequests = (int)Math.round(score.getThroughput() / medianThroughput);
+        return Math.max(1, Math.min(MAX_REQUESTS_PER_PEER, maxRequests));
+    }
+
+    /**
+     * Select the peer for a request.  The selected peer has the lowest expected time
+     * after allowing for the requests already in progress for the peer.
+     *
+     * @param   peers               Candidate peers
+     * @param   activeRequests      Number of requests in progress for each peer
+     * @param   excludedPeer        Peer to exclude or null
+     * @return                      Selected peer or null if all peers are busy
+     */
+    static Peer selectPeer(List<Peer> peers, Map<Peer, Integer> activeRequests, Peer excludedPeer) {
+        List<Peer> candidates = new ArrayList<>(peers);
+        Collections.shuffle(candidates);
+        Peer selectedPeer = null;
+        long selectedTime = Long.MAX_VALUE;
+        for (Peer peer : candidates) {
+            if (peer == excludedPeer) {
+                continue;
+            }
+            int active = activeRequests.getOrDefault(peer, 0);
+            if (active >= getMaxRequests(peer)) {
+                continue;
+            }
+            long time = getExpectedTime(peer) * (active + 1);
+            if (time < selectedTime) {
+                selectedPeer = peer;
+                selectedTime = time;
+            }
+        }
+        return selectedPeer;
+    }
+
+    private static Score getScore(Peer peer) {
+        synchronized (scores) {
+            return scores.computeIfAbsent(peer, p -> new Score());
+        }
+    }
+
+    private static long getMedianExpectedTime() {
+        double time = getMedian(score -> (double)score.getExpectedTime());
+        return time > 0 ? (long)time : DEFAULT_REQUEST_TIME;
+    }
+
+    private static double getMedian(ToDoubleFunction<Score> value) {
+        List<Double> values = new ArrayList<>();
+        synchronized (scores) {
+            scores.values().forEach(score -> {
+                if (score.isValid()) {
+                    values.add(value.applyAsDouble(score));
+                }
+            });
+        }
+        if (values.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+
+    /**
+     * Peer score
+     */
+    private static final class Score {
+
+        /** Request latency (milliseconds) */
+        private double latency;
+
+        /** Block throughput (blocks per second) */
+        private double throughput;
+
+        /** Failure rate */
+        private double failureRate;
+
+        /** Number of samples */
+        private int samples;
+
+        /**
+         * Update the score
+         *
+         * @param   elapsedTime         Request time (milliseconds)
+         * @param   blocksPerSecond     Block throughput
+         * @param   failed              TRUE if the request failed
+         */
+        synchronized void update(long elapsedTime, double blocksPerSecond, boolean failed) {
+            if (samples == 0) {
+                latency = elapsedTime;
+                throughput = blocksPerSecond;
+                failureRate = failed ? 1 : 0;
+            } else {
+                latency += ALPHA * (elapsedTime - latency);
+                throughput += ALPHA * (blocksPerSecond - throughput);
+                failureRate += ALPHA * ((failed ? 1 : 0) - failureRate);
+            }
+            samples++;
+        }
+
+        synchronized boolean isValid() {
+            return samples > 0;
+        }
+
+        synchronized long getExpectedTime() {
+            return (long)(latency / Math.max(0.1, 1 - failureRate));
+        }
+
+        synchronized double getThroughput() {
+            return throughput;
+        }
+    }
+}
@@ -35,6 +35,7 @@ import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.DbUtils;
 import nxt.db.EntityDbTable;
+import nxt.db.TableTrimmer;
 import nxt.db.ValuesDbTable;
 import nxt.util.Convert;
 
@@ -136,14 +137,16 @@ public final class PhasingPoll extends AbstractPoll {
                  PreparedStatement pstmt4 = con.prepareStatement("DELETE FROM phasing_poll_linked_transaction WHERE transaction_id = ?")) {
                 while (pollsToTrim.hasNext()) {
                     long id = pollsToTrim.next().getId();
+                    int deleted = 0;
                     pstmt1.setLong(1, id);
-                    pstmt1.executeUpdate();
+                    deleted += pstmt1.executeUpdate();
                     pstmt2.setLong(1, id);
-                    pstmt2.executeUpdate();
+                    deleted += pstmt2.executeUpdate();
                     pstmt3.setLong(1, id);
-                    pstmt3.executeUpdate();
+                    deleted += pstmt3.executeUpdate();
                     pstmt4.setLong(1, id);
-                    pstmt4.executeUpdate();
+                    deleted += pstmt4.executeUpdate();
+                    TableTrimmer.rowsDeleted(deleted);
                 }
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
@@ -27,7 +27,6 @@ import java.util.Map;
 import java.util.Set;
 
 import nxt.crypto.Crypto;
-import nxt.db.DbIterator;
 import nxt.util.Convert;
 import nxt.util.Logger;
 
@@ -439,11 +438,9 @@ public final class Shuffler {
                 return;
             }
         } else {
-            try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = TransactionProcessorImpl.getInstance().getAllUnconfirmedTransactions()) {
-                if (hasUnconfirmedTransaction(attachment, unconfirmedTransactions)) {
-                    Logger.logDebugMessage("Transaction already submitted");
-                    return;
-                }
+            if (hasUnconfirmedTransaction(attachment, TransactionProcessorImpl.getInstance().getUnconfirmedTransactions(accountId))) {
+                Logger.logDebugMessage("Transaction already submitted");
+                return;
             }
         }
         try {
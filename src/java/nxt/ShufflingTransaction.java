@@ -77,6 +77,14 @@ public abstract class ShufflingTransaction extends TransactionType {
         return false;
     }
 
+    @Override
+    final void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+        if (transaction.getAttachment() instanceof Attachment.ShufflingAttachment) {
+            Attachment.ShufflingAttachment attachment = (Attachment.ShufflingAttachment) transaction.getAttachment();
+            affectedKeys.add(affectedKey("shuffling", attachment.getShufflingId()));
+        }
+    }
+
 
     public static final TransactionType SHUFFLING_CREATION = new ShufflingTransaction() {
 
@@ -0,0 +1,780 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nxt.crypto.Crypto;
+import nxt.db.DerivedDbTable;
+import nxt.db.EntityDbTable;
+import nxt.db.ValuesDbTable;
+import nxt.util.Convert;
+import nxt.util.Logger;
+
+/**
+ * Blockchain snapshot
+ *
+ * A snapshot contains the block, transaction and referenced transaction tables and all of the registered derived
+ * tables at the current blockchain height.  A new node can import the snapshot instead
+ * of downloading and processing the complete blockchain.  The node then resumes normal
+ * synchronization from the snapshot height.
+ *
+ * The snapshot file is a GZIP-compressed stream consisting of the snapshot header, the
+ * table data and the SHA-256 digest of the uncompressed header and table data.  Each table
+ * consists of the table name, the column names and the table rows.  Column values are
+ * preceded by a value type.  The unconfirmed transaction pool is not included and the
+ * unconfirmed account balances are reset to the confirmed balances when the snapshot is imported.
+ *
+ * The snapshot height is fixed while holding the blockchain read lock.  The tables are then
+ * written as of the snapshot height without holding the lock, the same way the tables would
+ * be after a rollback to the snapshot height.  The export returns the snapshot block and
+ * the state digest.  The state digest is a SHA-256 digest of the current rows of the versioned
+ * derived tables and does not depend on the database identifiers, so it is the same on every
+ * node at the snapshot height.
+ *
+ * A snapshot is imported when the node is started with an empty database and nxt.importSnapshot
+ * specifies the snapshot file.  The snapshot block identifier and the state digest must be
+ * obtained from a trusted source and are specified by nxt.importSnapshotBlockId and
+ * nxt.importSnapshotStateDigest.  The imported data is verified by checking the snapshot
+ * digest, the block chain links, the block hashes and signatures for the most recent blocks,
+ * the trusted snapshot block and the state digest of the imported derived tables.
+ */
+public final class Snapshot {
+
+    /** Snapshot file identifier */
+    private static final int MAGIC = 0x4e58534e;
+
+    /** Snapshot format version */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Number of recent blocks with verified signatures */
+    private static final int VERIFY_BLOCK_COUNT = 1440;
+
+    /** Number of imported rows between database commits */
+    private static final int COMMIT_INTERVAL = 10000;
+
+    /** Non-derived tables included in the snapshot */
+    private static final String[] BLOCKCHAIN_TABLES = {"block", "transaction", "referenced_transaction"};
+
+    /** Derived tables that are not included in the snapshot */
+    private static final List<String> EXCLUDED_TABLES = Arrays.asList("unconfirmed_transaction");
+
+    /** Derived tables that are not included in the state digest since they depend on the node pruning */
+    private static final List<String> STATE_DIGEST_EXCLUDED_TABLES = Arrays.asList("tagged_data", "data_tag");
+
+    /** Unconfirmed columns reset to the confirmed value since the unconfirmed pool is not included */
+    private static final String[][] UNCONFIRMED_COLUMNS = {
+            {"account", "unconfirmed_balance", "balance"},
+            {"account_asset", "unconfirmed_quantity", "quantity"},
+            {"account_currency", "unconfirmed_units", "units"}
+    };
+
+    /** Column value types */
+    private static final byte TYPE_NULL = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_BYTE = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_STRING = 7;
+    private static final byte TYPE_BYTES = 8;
+    private static final byte TYPE_ARRAY = 9;
+    private static final byte TYPE_DECIMAL = 10;
+    private static final byte TYPE_TIMESTAMP = 11;
+    private static final byte TYPE_DOUBLE = 12;
+
+    /** Snapshot directory */
+    private static final Path snapshotDirectory = Paths.get(Nxt.getStringProperty("nxt.snapshotDirectory", "snapshots"));
+
+    private Snapshot() {}
+
+    /**
+     * Exported snapshot
+     */
+    public static final class Info {
+
+        /** Snapshot block */
+        private final Block block;
+
+        /** Snapshot state digest */
+        private final byte[] stateDigest;
+
+        private Info(Block block, byte[] stateDigest) {
+            this.block = block;
+            this.stateDigest = stateDigest;
+        }
+
+        /**
+         * Return the snapshot block
+         *
+         * @return                      Snapshot block
+         */
+        public Block getBlock() {
+            return block;
+        }
+
+        /**
+         * Return the state digest of the derived tables at the snapshot height
+         *
+         * @return                      State digest
+         */
+        public byte[] getStateDigest() {
+            return stateDigest;
+        }
+    }
+
+    /**
+     * Write a snapshot of the current blockchain state to the snapshot directory
+     *
+     * @param   fileName            Snapshot file name
+     * @return                      Snapshot block and state digest
+     * @throws  IOException         I/O error occurred
+     */
+    public static Info exportSnapshot(String fileName) throws IOException {
+        if (fileName.isEmpty() || !fileName.equals(Paths.get(fileName).getFileName().toString())) {
+            throw new IllegalArgumentException("Invalid snapshot file name " + fileName);
+        }
+        Files.createDirectories(snapshotDirectory);
+        Path snapshotPath = snapshotDirectory.resolve(fileName);
+        Path tempPath = snapshotDirectory.resolve(fileName + ".tmp");
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        //
+        // The snapshot height is fixed while holding the blockchain read lock.  The tables are
+        // then written as of the snapshot height without holding the lock, so blocks can be
+        // pushed while the snapshot is being written.
+        //
+        BlockImpl lastBlock;
+        blockchain.readLock();
+        try {
+            lastBlock = blockchain.getLastBlock();
+        } finally {
+            blockchain.readUnlock();
+        }
+        int height = lastBlock.getHeight();
+        byte[] stateDigest;
+        try (DigestOutputStream digestStream = new DigestOutputStream(
+                    new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath.toFile()), 65536), 65536),
+                    Crypto.sha256());
+             DataOutputStream out = new DataOutputStream(digestStream);
+             Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            List<String> tables = getTables();
+            Map<String, String> selfJoinClauses = getSelfJoinClauses();
+            Logger.logMessage("Writing snapshot at height " + height + " to " + snapshotPath);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(getDbVersion(stmt));
+            out.writeInt(height);
+            out.writeLong(lastBlock.getId());
+            out.writeInt(tables.size());
+            for (String table : tables) {
+                long rowCount = 0;
+                List<String> columns = getColumns(con, table);
+                out.writeUTF(table);
+                out.writeInt(columns.size());
+                for (String column : columns) {
+                    out.writeUTF(column);
+                }
+                StringBuilder sb = new StringBuilder("SELECT ");
+                for (int i = 0; i < columns.size(); i++) {
+                    String column = columns.get(i);
+                    sb.append(i == 0 ? "" : ", ");
+                    if (table.equals("block") && column.equals("NEXT_BLOCK_ID")) {
+                        sb.append("CASE WHEN a.height < ? THEN a.next_block_id END");
+                    } else if (column.equals("LATEST")) {
+                        sb.append(getLatestClause(table, selfJoinClauses));
+                    } else {
+                        sb.append("a.").append(column);
+                    }
+                }
+                sb.append(" FROM ").append(table).append(" AS a WHERE ")
+                        .append(table.equals("referenced_transaction") ? "a.transaction_id IN (SELECT id FROM transaction WHERE height <= ?)"
+                                : "a.height <= ?")
+                        .append(" ORDER BY a.db_id");
+                try (PreparedStatement pstmt = con.prepareStatement(sb.toString())) {
+                    setHeight(pstmt, height);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            out.writeBoolean(true);
+                            for (int i = 1; i <= columns.size(); i++) {
+                                writeValue(out, rs.getObject(i));
+                            }
+                            rowCount++;
+                        }
+                    }
+                }
+                out.writeBoolean(false);
+                Logger.logDebugMessage("Wrote " + rowCount + " rows for table " + table);
+            }
+            out.flush();
+            byte[] digest = digestStream.getMessageDigest().digest();
+            digestStream.on(false);
+            out.write(digest);
+            stateDigest = getStateDigest(con, tables, height);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        //
+        // The snapshot is not valid if the snapshot block was popped or the rows needed
+        // to write the tables as of the snapshot height were trimmed during the export
+        //
+        blockchain.readLock();
+        try {
+            if (blockchain.getBlockIdAtHeight(height) != lastBlock.getId()) {
+                throw new IllegalStateException("Snapshot block " + lastBlock.getStringId() + " was popped off during the export");
+            }
+            if (Nxt.getBlockchainProcessor().getMinRollbackHeight() > height) {
+                throw new IllegalStateException("Snapshot height " + height + " was trimmed during the export");
+            }
+        } finally {
+            blockchain.readUnlock();
+        }
+        Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+        Logger.logMessage("Snapshot at height " + lastBlock.getHeight() + " written to " + snapshotPath
+                + ", block " + lastBlock.getStringId() + ", state digest " + Convert.toHexString(stateDigest));
+        return new Info(lastBlock, stateDigest);
+    }
+
+    /**
+     * Import the snapshot specified by nxt.importSnapshot if the database is empty.  This
+     * is called during server initialization before the genesis block is created.
+     */
+    static void importSnapshot() {
+        String fileName = Convert.emptyToNull(Nxt.getStringProperty("nxt.importSnapshot", "").trim());
+        if (fileName == null || BlockDb.findLastBlock() != null) {
+            return;
+        }
+        String blockId = Convert.emptyToNull(Nxt.getStringProperty("nxt.importSnapshotBlockId", "").trim());
+        String stateDigest = Convert.emptyToNull(Nxt.getStringProperty("nxt.importSnapshotStateDigest", "").trim());
+        if (blockId == null || stateDigest == null) {
+            Logger.logErrorMessage("Snapshot " + fileName + " is not imported since nxt.importSnapshotBlockId and "
+                    + "nxt.importSnapshotStateDigest are not both specified, starting from the genesis block");
+            return;
+        }
+        try {
+            importSnapshot(new File(fileName), Convert.parseUnsignedLong(blockId), Convert.parseHexString(stateDigest));
+        } catch (IOException | RuntimeException e) {
+            Logger.logErrorMessage("Unable to import snapshot " + fileName + ", starting from the genesis block", e);
+            BlockDb.deleteAll();
+        }
+    }
+
+    /**
+     * Import a snapshot into an empty database
+     *
+     * @param   file                Snapshot file
+     * @param   expectedBlockId     Trusted snapshot block identifier
+     * @param   expectedStateDigest Trusted snapshot state digest
+     * @throws  IOException         I/O error occurred
+     */
+    private static void importSnapshot(File file, long expectedBlockId, byte[] expectedStateDigest) throws IOException {
+        Logger.logMessage("Importing snapshot " + file);
+        int height;
+        long blockId;
+        try (DigestInputStream digestStream = new DigestInputStream(
+                    new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 65536), 65536),
+                    Crypto.sha256());
+             DataInputStream in = new DataInputStream(digestStream)) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot file format");
+            }
+            int dbVersion = in.readInt();
+            height = in.readInt();
+            blockId = in.readLong();
+            if (blockId != expectedBlockId) {
+                throw new IOException("Snapshot block " + Long.toUnsignedString(blockId) + " is not the expected block "
+                        + Long.toUnsignedString(expectedBlockId));
+            }
+            int tableCount = in.readInt();
+            List<String> tables = getTables();
+            Db.db.beginTransaction();
+            try (Connection con = Db.db.getConnection();
+                 Statement stmt = con.createStatement()) {
+                if (dbVersion != getDbVersion(stmt)) {
+                    throw new IOException("Snapshot database version " + dbVersion + " does not match the database version");
+                }
+                stmt.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
+                for (int i = 0; i < tableCount; i++) {
+                    String table = in.readUTF();
+                    if (!tables.contains(table)) {
+                        throw new IOException("Snapshot table " + table + " is not a blockchain table");
+                    }
+                    importTable(con, in, table);
+                }
+                //
+                // The unconfirmed transaction pool is not included in the snapshot, so
+                // no funds are reserved by unconfirmed transactions
+                //
+                for (String[] columns : UNCONFIRMED_COLUMNS) {
+                    stmt.executeUpdate("UPDATE " + columns[0] + " SET " + columns[1] + " = " + columns[2]
+                            + " WHERE " + columns[1] + " <> " + columns[2]);
+                }
+                stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
+                Db.db.commitTransaction();
+            } catch (SQLException e) {
+                Db.db.rollbackTransaction();
+                throw new RuntimeException(e.toString(), e);
+            } catch (Exception e) {
+                Db.db.rollbackTransaction();
+                throw e;
+            } finally {
+                Db.db.endTransaction();
+            }
+            byte[] digest = digestStream.getMessageDigest().digest();
+            digestStream.on(false);
+            byte[] snapshotDigest = new byte[digest.length];
+            in.readFully(snapshotDigest);
+            if (!Arrays.equals(digest, snapshotDigest)) {
+                throw new IOException("Snapshot digest is not valid");
+            }
+        }
+        verifySnapshot(height, blockId, expectedStateDigest);
+        Logger.logMessage("Snapshot imported at height " + height);
+    }
+
+    /**
+     * Import the rows for a table
+     *
+     * @param   con                 Database connection
+     * @param   in                  Snapshot stream
+     * @param   table               Table name
+     * @throws  IOException         I/O error occurred
+     * @throws  SQLException        SQL error occurred
+     */
+    private static void importTable(Connection con, DataInputStream in, String table) throws IOException, SQLException {
+        //
+        // The snapshot columns must be the table columns so no column name from the
+        // snapshot file is used in the INSERT statement unless it is a known column
+        //
+        List<String> tableColumns = getColumns(con, table);
+        int columnCount = in.readInt();
+        if (columnCount != tableColumns.size()) {
+            throw new IOException("Snapshot table " + table + " has " + columnCount + " columns instead of " + tableColumns.size());
+        }
+        List<String> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            String column = in.readUTF().toUpperCase(Locale.ROOT);
+            if (!tableColumns.contains(column) || columns.contains(column)) {
+                throw new IOException("Snapshot table " + table + " column " + column + " is not valid");
+            }
+            columns.add(column);
+        }
+        StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columnCount; i++) {
+            sb.append(i == 0 ? "" : ", ").append(columns.get(i));
+        }
+        sb.append(") VALUES (");
+        for (int i = 0; i < columnCount; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        sb.append(")");
+        long rowCount = 0;
+        try (Statement stmt = con.createStatement();
+             PreparedStatement pstmt = con.prepareStatement(sb.toString())) {
+            stmt.executeUpdate("TRUNCATE TABLE " + table);
+            while (in.readBoolean()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    pstmt.setObject(i, readValue(in));
+                }
+                pstmt.addBatch();
+                if (++rowCount % COMMIT_INTERVAL == 0) {
+                    pstmt.executeBatch();
+                    Db.db.commitTransaction();
+                }
+            }
+            pstmt.executeBatch();
+        }
+        Logger.logDebugMessage("Imported " + rowCount + " rows for table " + table);
+    }
+
+    /**
+     * Verify the imported blockchain
+     *
+     * @param   height              Snapshot height
+     * @param   blockId             Trusted snapshot block identifier
+     * @param   stateDigest         Trusted snapshot state digest
+     */
+    private static void verifySnapshot(int height, long blockId, byte[] stateDigest) {
+        BlockImpl lastBlock = BlockDb.findLastBlock();
+        if (lastBlock == null || lastBlock.getId() != blockId || lastBlock.getHeight() != height) {
+            throw new IllegalStateException("Snapshot last block does not match the snapshot header");
+        }
+        //
+        // Verify the block links from the genesis block to the snapshot block
+        //
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, previous_block_id, next_block_id, height FROM block ORDER BY height")) {
+            long previousId = 0;
+            int expectedHeight = 0;
+            while (rs.next()) {
+                long id = rs.getLong("id");
+                if (rs.getInt("height") != expectedHeight || (expectedHeight > 0 && rs.getLong("previous_block_id") != previousId)) {
+                    throw new IllegalStateException("Block " + Long.toUnsignedString(id) + " is not linked to the previous block");
+                }
+                long nextId = rs.getLong("next_block_id");
+                if (expectedHeight < height ? nextId == 0 : nextId != 0) {
+                    throw new IllegalStateException("Block " + Long.toUnsignedString(id) + " has an incorrect next block");
+                }
+                previousId = id;
+                expectedHeight++;
+            }
+            if (expectedHeight != height + 1) {
+                throw new IllegalStateException("Snapshot blockchain is incomplete");
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        //
+        // Verify the hash chain from the trusted snapshot block back to the genesis block.  The
+        // payload hash for each block is calculated from the imported transactions, so the
+        // block and transaction tables are both covered by the trusted block identifier.
+        // The block signatures are verified for the most recent blocks and the genesis block.
+        //
+        Db.db.beginTransaction();
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            int transactionCount = 0;
+            byte[] expectedHash = null;
+            try (ResultSet rs = stmt.executeQuery("SELECT * FROM block ORDER BY height DESC")) {
+                while (rs.next()) {
+                    BlockImpl block = BlockDb.loadBlock(con, rs, true);
+                    MessageDigest digest = Crypto.sha256();
+                    block.getTransactions().forEach(transaction -> digest.update(transaction.bytes()));
+                    if (!Arrays.equals(digest.digest(), block.getPayloadHash())) {
+                        throw new IllegalStateException("Block " + block.getStringId() + " payload hash is not valid");
+                    }
+                    transactionCount += block.getTransactions().size();
+                    byte[] blockHash = Crypto.sha256().digest(block.bytes());
+                    if (block.getId() != Convert.fullHashToId(blockHash)) {
+                        throw new IllegalStateException("Block " + block.getStringId() + " hash is not valid");
+                    }
+                    if (expectedHash != null && !Arrays.equals(blockHash, expectedHash)) {
+                        throw new IllegalStateException("Block " + block.getStringId() + " does not match the next block previous block hash");
+                    }
+                    if (block.getHeight() > height - VERIFY_BLOCK_COUNT || block.getHeight() == 0) {
+                        if (!block.verifyBlockSignature()) {
+                            throw new IllegalStateException("Block " + block.getStringId() + " signature is not valid");
+                        }
+                    }
+                    if (block.getHeight() == 0 && !Arrays.equals(block.getGeneratorPublicKey(), Genesis.CREATOR_PUBLIC_KEY)) {
+                        throw new IllegalStateException("Snapshot genesis block is not valid");
+                    }
+                    expectedHash = block.getPreviousBlockHash();
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM transaction")) {
+                if (!rs.next() || rs.getInt(1) != transactionCount) {
+                    throw new IllegalStateException("Snapshot transaction table contains transactions which are not in a block");
+                }
+            }
+            Db.db.commitTransaction();
+        } catch (SQLException e) {
+            Db.db.rollbackTransaction();
+            throw new RuntimeException(e.toString(), e);
+        } catch (Exception e) {
+            Db.db.rollbackTransaction();
+            throw e;
+        } finally {
+            Db.db.endTransaction();
+        }
+        //
+        // Verify the derived tables against the trusted state digest
+        //
+        try (Connection con = Db.db.getConnection()) {
+            byte[] digest = getStateDigest(con, getTables(), height);
+            if (!Arrays.equals(digest, stateDigest)) {
+                throw new IllegalStateException("Snapshot state digest " + Convert.toHexString(digest)
+                        + " is not the trusted state digest " + Convert.toHexString(stateDigest));
+            }
+        } catch (IOException | SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Calculate the state digest for the versioned derived tables
+     *
+     * The state digest includes the current row for each entity.  The database identifier,
+     * the unconfirmed columns and the tables which depend on the node pruning are not included,
+     * so nodes at the same height have the same state digest.
+     *
+     * @param   con                 Database connection
+     * @param   tables              Snapshot tables
+     * @param   height              Snapshot height
+     * @return                      State digest
+     * @throws  IOException         I/O error occurred
+     * @throws  SQLException        SQL error occurred
+     */
+    private static byte[] getStateDigest(Connection con, List<String> tables, int height) throws IOException, SQLException {
+        Map<String, String> selfJoinClauses = getSelfJoinClauses();
+        MessageDigest digest = Crypto.sha256();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String table : tables) {
+            if (Arrays.asList(BLOCKCHAIN_TABLES).contains(table) || STATE_DIGEST_EXCLUDED_TABLES.contains(table)) {
+                continue;
+            }
+            List<String> columns = getColumns(con, table);
+            if (!columns.contains("LATEST")) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String column : columns) {
+                if (!column.equals("DB_ID") && !column.equals("LATEST") && !column.startsWith("UNCONFIRMED_")) {
+                    sb.append(sb.length() == 0 ? "" : ", ").append("a.").append(column);
+                }
+            }
+            out.writeUTF(table);
+            try (PreparedStatement pstmt = con.prepareStatement("SELECT " + sb + " FROM " + table + " AS a WHERE a.height <= ? AND "
+                    + getLatestClause(table, selfJoinClauses) + " ORDER BY " + sb)) {
+                setHeight(pstmt, height);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    int columnCount = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        for (int i = 1; i <= columnCount; i++) {
+                            writeValue(out, rs.getObject(i));
+                        }
+                        digest.update(bytes.toByteArray());
+                        bytes.reset();
+                    }
+                }
+            }
+            digest.update(bytes.toByteArray());
+            bytes.reset();
+        }
+        return digest.digest();
+    }
+
+    private static List<String> getTables() {
+        List<String> tables = new ArrayList<>(Arrays.asList(BLOCKCHAIN_TABLES));
+        for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+            String tableName = table.toString();
+            if (!EXCLUDED_TABLES.contains(tableName) && !tables.contains(tableName)) {
+                tables.add(tableName);
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Return the clause selecting the latest rows as of the snapshot height for a versioned table
+     *
+     * A row is the latest row at the snapshot height if it is the current row or if it is
+     * the most recent row at the snapshot height and the entity was changed after the
+     * snapshot height.  This is the row which is set as the latest row when the table
+     * is rolled back to the snapshot height.  The table must be named a in the query.
+     *
+     * @param   table               Table name
+     * @param   selfJoinClauses     Self join clause for each versioned table
+     * @return                      Latest row clause
+     */
+    private static String getLatestClause(String table, Map<String, String> selfJoinClauses) {
+        String selfJoinClause = selfJoinClauses.get(table);
+        if (selfJoinClause == null) {
+            throw new IllegalStateException("Table " + table + " is not a versioned derived table");
+        }
+        return "(a.latest = TRUE OR (EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + selfJoinClause + " AND b.height > ?)"
+                + " AND NOT EXISTS (SELECT 1 FROM " + table + " AS b WHERE " + selfJoinClause
+                + " AND b.height <= ? AND b.height > a.height)))";
+    }
+
+    /**
+     * Set the query parameters.  Every parameter of the snapshot queries is the snapshot height.
+     *
+     * @param   pstmt               Prepared statement
+     * @param   height              Snapshot height
+     * @throws  SQLException        SQL error occurred
+     */
+    private static void setHeight(PreparedStatement pstmt, int height) throws SQLException {
+        int parameterCount = pstmt.getParameterMetaData().getParameterCount();
+        for (int i = 1; i <= parameterCount; i++) {
+            pstmt.setInt(i, height);
+        }
+    }
+
+    private static Map<String, String> getSelfJoinClauses() {
+        Map<String, String> selfJoinClauses = new HashMap<>();
+        for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+            if (table instanceof EntityDbTable) {
+                selfJoinClauses.put(table.toString(), ((EntityDbTable<?>)table).getDbKeyFactory().getSelfJoinClause());
+            } else if (table instanceof ValuesDbTable) {
+                selfJoinClauses.put(table.toString(), ((ValuesDbTable<?, ?>)table).getDbKeyFactory().getSelfJoinClause());
+            }
+        }
+        return selfJoinClauses;
+    }
+
+    private static List<String> getColumns(Connection con, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (ResultSet rs = con.getMetaData().getColumns(null, "PUBLIC", table.toUpperCase(Locale.ROOT), null)) {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        if (columns.isEmpty()) {
+            throw new SQLException("Table " + table + " does not exist");
+        }
+        return columns;
+    }
+
+    private static int getDbVersion(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT next_update FROM version")) {
+            if (!rs.next()) {
+                throw new SQLException("Invalid version table");
+            }
+            return rs.getInt(1);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException, SQLException {
+        if (value instanceof Array) {
+            value = ((Array)value).getArray();
+        }
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer)value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long)value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short)value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte)value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeBytes(out, ((String)value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes(out, (byte[])value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[])value;
+            out.writeByte(TYPE_ARRAY);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_DECIMAL);
+            writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(((Timestamp)value).getTime());
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double)value);
+        } else {
+            throw new IOException("Unsupported column type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case TYPE_BYTES:
+                return readBytes(in);
+            case TYPE_ARRAY:
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid array length " + length);
+                }
+                Object[] array = new Object[length];
+                for (int i = 0; i < length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            case TYPE_DECIMAL:
+                return new BigDecimal(new String(readBytes(in), StandardCharsets.UTF_8));
+            case TYPE_TIMESTAMP:
+                return new Timestamp(in.readLong());
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            default:
+                throw new IOException("Unsupported column type " + type);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid value length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -40,11 +40,13 @@ final class TransactionDb {
 
     static TransactionImpl findTransaction(long transactionId, int height) {
         // Check the block cache
-        synchronized (BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return transaction.getHeight() <= height ? transaction : null;
-            }
+        TransactionImpl cachedTransaction = BlockDb.blockCache.getTransaction(transactionId);
+        if (cachedTransaction != null) {
+            return cachedTransaction.getHeight() <= height ? cachedTransaction : null;
+        }
+        // Check the identifier filter
+        if (!BlockDb.mightHaveTransaction(transactionId)) {
+            return null;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -70,12 +72,14 @@ final class TransactionDb {
     static TransactionImpl findTransactionByFullHash(byte[] fullHash, int height) {
         long transactionId = Convert.fullHashToId(fullHash);
         // Check the cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return (transaction.getHeight() <= height &&
-                        Arrays.equals(transaction.fullHash(), fullHash) ? transaction : null);
-            }
+        TransactionImpl cachedTransaction = BlockDb.blockCache.getTransaction(transactionId);
+        if (cachedTransaction != null) {
+            return (cachedTransaction.getHeight() <= height &&
+                    Arrays.equals(cachedTransaction.fullHash(), fullHash) ? cachedTransaction : null);
+        }
+        // Check the identifier filter
+        if (!BlockDb.mightHaveTransaction(transactionId)) {
+            return null;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -101,11 +105,13 @@ final class TransactionDb {
 
     static boolean hasTransaction(long transactionId, int height) {
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return (transaction.getHeight() <= height);
-            }
+        int cachedHeight = BlockDb.blockCache.getTransactionHeight(transactionId);
+        if (cachedHeight >= 0) {
+            return cachedHeight <= height;
+        }
+        // Check the identifier filter
+        if (!BlockDb.mightHaveTransaction(transactionId)) {
+            return false;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -126,12 +132,14 @@ final class TransactionDb {
     static boolean hasTransactionByFullHash(byte[] fullHash, int height) {
         long transactionId = Convert.fullHashToId(fullHash);
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return (transaction.getHeight() <= height &&
-                        Arrays.equals(transaction.fullHash(), fullHash));
-            }
+        TransactionImpl cachedTransaction = BlockDb.blockCache.getTransaction(transactionId);
+        if (cachedTransaction != null) {
+            return (cachedTransaction.getHeight() <= height &&
+                    Arrays.equals(cachedTransaction.fullHash(), fullHash));
+        }
+        // Check the identifier filter
+        if (!BlockDb.mightHaveTransaction(transactionId)) {
+            return false;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -147,11 +155,13 @@ final class TransactionDb {
 
     static byte[] getFullHash(long transactionId) {
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return transaction.fullHash();
-            }
+        TransactionImpl cachedTransaction = BlockDb.blockCache.getTransaction(transactionId);
+        if (cachedTransaction != null) {
+            return cachedTransaction.fullHash();
+        }
+        // Check the identifier filter
+        if (!BlockDb.mightHaveTransaction(transactionId)) {
+            return null;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -246,11 +256,9 @@ final class TransactionDb {
 
     static List<TransactionImpl> findBlockTransactions(long blockId) {
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                return block.getTransactions();
-            }
+        BlockImpl cachedBlock = BlockDb.blockCache.getBlock(blockId);
+        if (cachedBlock != null) {
+            return cachedBlock.getTransactions();
         }
         // Search the database
         try (Connection con = Db.db.getConnection()) {
@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.simple.JSONObject;
 
@@ -803,6 +804,14 @@ final class TransactionImpl implements Transaction {
         return transaction;
     }
 
+    static TransactionImpl parseTransaction(byte[] transactionBytes, JSONObject prunableAttachments) throws NxtException.NotValidException {
+        TransactionImpl transaction = newTransactionBuilder(transactionBytes, prunableAttachments).build();
+        if (transaction.getSignature() != null && !transaction.checkSignature()) {
+            throw new NxtException.NotValidException("Invalid transaction signature for transaction " + transaction.getJSONObject().toJSONString());
+        }
+        return transaction;
+    }
+
     static TransactionImpl.BuilderImpl newTransactionBuilder(JSONObject transactionData) throws NxtException.NotValidException {
         try {
             byte type = ((Long) transactionData.get("type")).byteValue();
@@ -890,6 +899,18 @@ final class TransactionImpl implements Transaction {
         return hasValidSignature;
     }
 
+    /**
+     * Verify the transaction signature if the sender public key is included in the transaction.
+     * The result is cached, so a later call to verifySignature() does not repeat the
+     * signature verification.  The database is not accessed, so this method can be called
+     * without holding the blockchain lock.
+     *
+     * @return                      FALSE if the transaction signature is not valid
+     */
+    boolean preVerifySignature() {
+        return senderPublicKey == null || checkSignature();
+    }
+
     private int getSize() {
         return signatureOffset() + 64  + 4 + 4 + 8 + appendagesSize;
     }
@@ -1093,6 +1114,11 @@ final class TransactionImpl implements Transaction {
         return type.isUnconfirmedDuplicate(this, duplicates);
     }
 
+    void getAffectedKeys(Set<String> affectedKeys) {
+        affectedKeys.add(TransactionType.affectedKey("account", getSenderId()));
+        type.getAffectedKeys(this, affectedKeys);
+    }
+
     private long getMinimumFeeNQT(int blockchainHeight) {
         long totalFee = 0;
         for (Appendix.AbstractAppendix appendage : appendages) {
@@ -25,7 +25,6 @@ import java.util.SortedSet;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import nxt.db.DbIterator;
 import nxt.util.Observable;
 
 public interface TransactionProcessor extends Observable<List<? extends Transaction>,TransactionProcessor.Event> {
@@ -38,13 +37,9 @@ public interface TransactionProcessor extends Observable<List<? extends Transact
         REJECT_PHASED_TRANSACTION
     }
 
-    DbIterator<? extends Transaction> getAllUnconfirmedTransactions();
+    List<? extends Transaction> getAllUnconfirmedTransactions();
 
-    DbIterator<? extends Transaction> getAllUnconfirmedTransactions(int from, int to);
-
-    DbIterator<? extends Transaction> getAllUnconfirmedTransactions(String sort);
-
-    DbIterator<? extends Transaction> getAllUnconfirmedTransactions(int from, int to, String sort);
+    List<? extends Transaction> getAllUnconfirmedTransactions(int from, int to);
 
     Transaction getUnconfirmedTransaction(long transactionId);
 
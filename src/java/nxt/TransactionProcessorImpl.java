@@ -18,16 +18,12 @@
 
 package nxt;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -40,10 +36,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import nxt.db.DbClause;
-import nxt.db.DbIterator;
 import nxt.db.DbKey;
-import nxt.db.EntityDbTable;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -57,6 +50,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
     private static final boolean enableTransactionRebroadcasting = Nxt.getBooleanProperty("nxt.enableTransactionRebroadcasting");
     private static final boolean testUnconfirmedTransactions = Nxt.getBooleanProperty("nxt.testUnconfirmedTransactions");
+    private static final boolean incrementalRequeue = Nxt.getBooleanProperty("nxt.incrementalRequeue");
     private static final int maxUnconfirmedTransactions;
     
     static {
@@ -70,9 +64,6 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         return instance;
     }
 
-    private final Map<DbKey, UnconfirmedTransaction> transactionCache = new HashMap<>();
-    private volatile boolean cacheInitialized = false;
-
     final DbKey.LongKeyFactory<UnconfirmedTransaction> unconfirmedTransactionDbKeyFactory = new DbKey.LongKeyFactory<UnconfirmedTransaction>("id") {
 
         @Override
@@ -82,51 +73,15 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
     };
 
-    private final EntityDbTable<UnconfirmedTransaction> unconfirmedTransactionTable = new EntityDbTable<UnconfirmedTransaction>("unconfirmed_transaction", unconfirmedTransactionDbKeyFactory) {
-
-        @Override
-        protected UnconfirmedTransaction load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException {
-            return new UnconfirmedTransaction(rs);
-        }
-
-        @Override
-        protected void save(Connection con, UnconfirmedTransaction unconfirmedTransaction) throws SQLException {
-            unconfirmedTransaction.save(con);
-            if (transactionCache.size() < maxUnconfirmedTransactions) {
-                transactionCache.put(unconfirmedTransaction.getDbKey(), unconfirmedTransaction);
-            }
-        }
+    private final UnconfirmedTransactionPool unconfirmedTransactionPool = new UnconfirmedTransactionPool() {
 
         @Override
         public void rollback(int height) {
-            try (Connection con = Db.db.getConnection();
-                 PreparedStatement pstmt = con.prepareStatement("SELECT * FROM unconfirmed_transaction WHERE height > ?")) {
-                pstmt.setInt(1, height);
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    while (rs.next()) {
-                        UnconfirmedTransaction unconfirmedTransaction = load(con, rs, null);
-                        waitingTransactions.add(unconfirmedTransaction);
-                        transactionCache.remove(unconfirmedTransaction.getDbKey());
-                    }
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }
+            waitingTransactions.addAll(getAddedAfter(height));
             super.rollback(height);
             unconfirmedDuplicates.clear();
         }
 
-        @Override
-        public void truncate() {
-            super.truncate();
-            clearCache();
-        }
-
-        @Override
-        protected String defaultSort() {
-            return " ORDER BY transaction_height ASC, fee_per_byte DESC, arrival_timestamp ASC, id ASC ";
-        }
-
     };
 
     private final Set<TransactionImpl> broadcastedTransactions = Collections.newSetFromMap(new ConcurrentHashMap<>());
@@ -176,13 +131,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 if (Nxt.getBlockchainProcessor().isDownloading() && !testUnconfirmedTransactions) {
                     return;
                 }
-                List<UnconfirmedTransaction> expiredTransactions = new ArrayList<>();
-                try (DbIterator<UnconfirmedTransaction> iterator = unconfirmedTransactionTable.getManyBy(
-                        new DbClause.IntClause("expiration", DbClause.Op.LT, Nxt.getEpochTime()), 0, -1, "")) {
-                    while (iterator.hasNext()) {
-                        expiredTransactions.add(iterator.next());
-                    }
-                }
+                List<UnconfirmedTransaction> expiredTransactions = unconfirmedTransactionPool.getExpired(Nxt.getEpochTime());
                 if (expiredTransactions.size() > 0) {
                     BlockchainImpl.getInstance().writeLock();
                     try {
@@ -260,7 +209,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 JSONObject request = new JSONObject();
                 request.put("requestType", "getUnconfirmedTransactions");
                 JSONArray exclude = new JSONArray();
-                getAllUnconfirmedTransactionIds().forEach(transactionId -> exclude.add(Long.toUnsignedString(transactionId)));
+                unconfirmedTransactionPool.getAll().forEach(transaction -> exclude.add(transaction.getStringId()));
                 Collections.sort(exclude);
                 request.put("exclude", exclude);
                 JSONObject response = peer.send(JSON.prepareRequest(request), Peers.MAX_MESSAGE_SIZE);
@@ -308,6 +257,11 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
 
     private TransactionProcessorImpl() {
+        //
+        // The pool is loaded before the startup scan job runs so that the pool transactions
+        // are moved to the waiting transactions if the scan rolls back the blockchain
+        //
+        unconfirmedTransactionPool.load();
         if (!Constants.isLightClient) {
             if (!Constants.isOffline) {
                 ThreadPool.scheduleThread("ProcessTransactions", processTransactionsThread, 5);
@@ -334,56 +288,28 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     }
 
     @Override
-    public DbIterator<UnconfirmedTransaction> getAllUnconfirmedTransactions() {
-        return unconfirmedTransactionTable.getAll(0, -1);
+    public List<UnconfirmedTransaction> getAllUnconfirmedTransactions() {
+        return new ArrayList<>(unconfirmedTransactionPool.getAll());
     }
 
     @Override
-    public DbIterator<UnconfirmedTransaction> getAllUnconfirmedTransactions(int from, int to) {
-        return unconfirmedTransactionTable.getAll(from, to);
-    }
-
-    @Override
-    public DbIterator<UnconfirmedTransaction> getAllUnconfirmedTransactions(String sort) {
-        return unconfirmedTransactionTable.getAll(0, -1, sort);
-    }
-
-    @Override
-    public DbIterator<UnconfirmedTransaction> getAllUnconfirmedTransactions(int from, int to, String sort) {
-        return unconfirmedTransactionTable.getAll(from, to, sort);
+    public List<UnconfirmedTransaction> getAllUnconfirmedTransactions(int from, int to) {
+        return unconfirmedTransactionPool.getAll(from, to);
     }
 
     @Override
     public Transaction getUnconfirmedTransaction(long transactionId) {
-        DbKey dbKey = unconfirmedTransactionDbKeyFactory.newKey(transactionId);
-        return getUnconfirmedTransaction(dbKey);
+        return unconfirmedTransactionPool.get(transactionId);
     }
 
-    Transaction getUnconfirmedTransaction(DbKey dbKey) {
-        Nxt.getBlockchain().readLock();
-        try {
-            Transaction transaction = transactionCache.get(dbKey);
-            if (transaction != null) {
-                return transaction;
-            }
-        } finally {
-            Nxt.getBlockchain().readUnlock();
-        }
-        return unconfirmedTransactionTable.get(dbKey);
-    }
-
-    private List<Long> getAllUnconfirmedTransactionIds() {
-        List<Long> result = new ArrayList<>();
-        try (Connection con = Db.db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT id FROM unconfirmed_transaction");
-             ResultSet rs = pstmt.executeQuery()) {
-            while (rs.next()) {
-                result.add(rs.getLong("id"));
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        }
-        return result;
+    /**
+     * Return the unconfirmed transactions sent by an account
+     *
+     * @param   senderId                Sender account identifier
+     * @return                          Unconfirmed transactions
+     */
+    List<UnconfirmedTransaction> getUnconfirmedTransactions(long senderId) {
+        return unconfirmedTransactionPool.getBySender(senderId);
     }
 
     @Override
@@ -421,7 +347,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 Logger.logMessage("Transaction " + transaction.getStringId() + " already in blockchain, will not broadcast again");
                 return;
             }
-            if (getUnconfirmedTransaction(((TransactionImpl)transaction).getDbKey()) != null) {
+            if (unconfirmedTransactionPool.contains(transaction.getId())) {
                 if (enableTransactionRebroadcasting) {
                     broadcastedTransactions.add((TransactionImpl) transaction);
                     Logger.logMessage("Transaction " + transaction.getStringId() + " already in unconfirmed pool, will re-broadcast");
@@ -464,13 +390,11 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             List<Transaction> removed = new ArrayList<>();
             try {
                 Db.db.beginTransaction();
-                try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = getAllUnconfirmedTransactions()) {
-                    for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                        unconfirmedTransaction.getTransaction().undoUnconfirmed();
-                        removed.add(unconfirmedTransaction.getTransaction());
-                    }
+                for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+                    unconfirmedTransaction.getTransaction().undoUnconfirmed();
+                    removed.add(unconfirmedTransaction.getTransaction());
                 }
-                unconfirmedTransactionTable.truncate();
+                unconfirmedTransactionPool.truncate();
                 Db.db.commitTransaction();
             } catch (Exception e) {
                 Logger.logErrorMessage(e.toString(), e);
@@ -482,13 +406,20 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             unconfirmedDuplicates.clear();
             waitingTransactions.clear();
             broadcastedTransactions.clear();
-            transactionCache.clear();
             transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
         } finally {
             BlockchainImpl.getInstance().writeUnlock();
         }
     }
 
+    /**
+     * Discard the unconfirmed transactions after the database has been deleted
+     */
+    void resetUnconfirmedTransactions() {
+        unconfirmedTransactionPool.reset();
+        unconfirmedDuplicates.clear();
+    }
+
     @Override
     public void requeueAllUnconfirmedTransactions() {
         BlockchainImpl.getInstance().writeLock();
@@ -508,35 +439,88 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 return;
             }
             List<Transaction> removed = new ArrayList<>();
-            try (DbIterator<UnconfirmedTransaction> unconfirmedTransactions = getAllUnconfirmedTransactions()) {
-                for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
-                    unconfirmedTransaction.getTransaction().undoUnconfirmed();
-                    if (removed.size() < maxUnconfirmedTransactions) {
-                        removed.add(unconfirmedTransaction.getTransaction());
-                    }
-                    waitingTransactions.add(unconfirmedTransaction);
+            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+                unconfirmedTransaction.getTransaction().undoUnconfirmed();
+                if (removed.size() < maxUnconfirmedTransactions) {
+                    removed.add(unconfirmedTransaction.getTransaction());
                 }
+                waitingTransactions.add(unconfirmedTransaction);
             }
-            unconfirmedTransactionTable.truncate();
+            unconfirmedTransactionPool.truncate();
             unconfirmedDuplicates.clear();
-            transactionCache.clear();
             transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
         } finally {
             BlockchainImpl.getInstance().writeUnlock();
         }
     }
 
+    /**
+     * Requeue the unconfirmed transactions that conflict with a block that is about to be
+     * accepted.  A transaction conflicts with the block if it has an affected key in common
+     * with a block transaction or with a phased transaction released by the block.  The
+     * affected keys include the sender account and the entities changed by the transaction,
+     * such as the asset, currency, alias, digital goods or order, so a transaction is requeued
+     * when a block transaction from the same sender or changing the same entity is accepted.
+     * The conflicting transactions are found using the pool index of affected keys.  The
+     * unconfirmed balance changes for the conflicting transactions are undone and the
+     * transactions are moved to the waiting queue to be revalidated after the block has been
+     * accepted.  All other transactions remain in the unconfirmed pool.  All unconfirmed
+     * transactions are requeued if incremental requeue is disabled.
+     *
+     * Caller must hold the blockchain write lock and must be in a database transaction.
+     *
+     * @param   block                   Block
+     * @param   phasedTransactions      Phased transactions released by the block
+     */
+    void requeueUnconfirmedTransactions(BlockImpl block, List<TransactionImpl> phasedTransactions) {
+        if (!incrementalRequeue) {
+            requeueAllUnconfirmedTransactions();
+            return;
+        }
+        if (!Db.db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        Set<String> affectedKeys = new HashSet<>();
+        block.getTransactions().forEach(transaction -> transaction.getAffectedKeys(affectedKeys));
+        phasedTransactions.forEach(transaction -> {
+            transaction.getAffectedKeys(affectedKeys);
+            affectedKeys.add(TransactionType.affectedKey("phasing", transaction.getId()));
+        });
+        List<UnconfirmedTransaction> requeued = unconfirmedTransactionPool.getAffected(affectedKeys);
+        if (requeued.isEmpty()) {
+            return;
+        }
+        List<Transaction> removed = new ArrayList<>(requeued.size());
+        Map<TransactionType, Map<String, Integer>> requeuedDuplicates = new HashMap<>();
+        for (UnconfirmedTransaction unconfirmedTransaction : requeued) {
+            unconfirmedTransaction.getTransaction().undoUnconfirmed();
+            unconfirmedTransactionPool.remove(unconfirmedTransaction.getId());
+            waitingTransactions.add(unconfirmedTransaction);
+            removed.add(unconfirmedTransaction.getTransaction());
+            unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(requeuedDuplicates);
+        }
+        //
+        // Remove the unconfirmed duplicate keys for the requeued transactions.  The unconfirmed
+        // duplicate keys are exclusive, so no remaining pool transaction has the same key.
+        //
+        requeuedDuplicates.forEach((type, keys) -> {
+            Map<String, Integer> typeDuplicates = unconfirmedDuplicates.get(type);
+            if (typeDuplicates != null) {
+                typeDuplicates.keySet().removeAll(keys.keySet());
+            }
+        });
+        transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+    }
+
     @Override
     public void rebroadcastAllUnconfirmedTransactions() {
         BlockchainImpl.getInstance().writeLock();
         try {
-            try (DbIterator<UnconfirmedTransaction> oldNonBroadcastedTransactions = getAllUnconfirmedTransactions()) {
-                for (UnconfirmedTransaction unconfirmedTransaction : oldNonBroadcastedTransactions) {
-                    if (unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates)) {
-                        Logger.logDebugMessage("Skipping duplicate unconfirmed transaction " + unconfirmedTransaction.getTransaction().getJSONObject().toString());
-                    } else if (enableTransactionRebroadcasting) {
-                        broadcastedTransactions.add(unconfirmedTransaction.getTransaction());
-                    }
+            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactionPool.getAll()) {
+                if (unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates)) {
+                    Logger.logDebugMessage("Skipping duplicate unconfirmed transaction " + unconfirmedTransaction.getTransaction().getJSONObject().toString());
+                } else if (enableTransactionRebroadcasting) {
+                    broadcastedTransactions.add(unconfirmedTransaction.getTransaction());
                 }
             }
         } finally {
@@ -559,18 +543,9 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             }
             return;
         }
-        try (Connection con = Db.db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("DELETE FROM unconfirmed_transaction WHERE id = ?")) {
-            pstmt.setLong(1, transaction.getId());
-            int deleted = pstmt.executeUpdate();
-            if (deleted > 0) {
-                transaction.undoUnconfirmed();
-                transactionCache.remove(transaction.getDbKey());
-                transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
-            }
-        } catch (SQLException e) {
-            Logger.logErrorMessage(e.toString(), e);
-            throw new RuntimeException(e.toString(), e);
+        if (unconfirmedTransactionPool.remove(transaction.getId()) != null) {
+            transaction.undoUnconfirmed();
+            transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
         }
     }
 
@@ -580,7 +555,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         BlockchainImpl.getInstance().writeLock();
         try {
             for (Transaction transaction : transactions) {
-                BlockDb.transactionCache.remove(transaction.getId());
+                BlockDb.blockCache.removeTransaction(transaction.getId());
                 if (TransactionDb.hasTransaction(transaction.getId())) {
                     continue;
                 }
@@ -640,9 +615,10 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         List<Exception> exceptions = new ArrayList<>();
         for (Object transactionData : transactionsData) {
             try {
-                TransactionImpl transaction = TransactionImpl.parseTransaction((JSONObject) transactionData);
+                TransactionImpl transaction = transactionData instanceof TransactionImpl ? (TransactionImpl)transactionData :
+                        TransactionImpl.parseTransaction((JSONObject) transactionData);
                 receivedTransactions.add(transaction);
-                if (getUnconfirmedTransaction(transaction.getDbKey()) != null || TransactionDb.hasTransaction(transaction.getId())) {
+                if (unconfirmedTransactionPool.contains(transaction.getId()) || TransactionDb.hasTransaction(transaction.getId())) {
                     continue;
                 }
                 transaction.validate();
@@ -658,7 +634,8 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
             } catch (NxtException.NotCurrentlyValidException ignore) {
             } catch (NxtException.ValidationException|RuntimeException e) {
-                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", ((JSONObject) transactionData).toJSONString()), e);
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", transactionData instanceof TransactionImpl ?
+                        ((TransactionImpl)transactionData).getJSONObject().toJSONString() : ((JSONObject) transactionData).toJSONString()), e);
                 exceptions.add(e);
             }
         }
@@ -695,7 +672,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     throw new NxtException.NotCurrentlyValidException("Blockchain not ready to accept transactions");
                 }
 
-                if (getUnconfirmedTransaction(transaction.getDbKey()) != null || TransactionDb.hasTransaction(transaction.getId())) {
+                if (unconfirmedTransactionPool.contains(transaction.getId()) || TransactionDb.hasTransaction(transaction.getId())) {
                     throw new NxtException.ExistingTransactionException("Transaction already processed");
                 }
 
@@ -715,7 +692,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     throw new NxtException.NotCurrentlyValidException("Duplicate unconfirmed transaction");
                 }
 
-                unconfirmedTransactionTable.insert(unconfirmedTransaction);
+                unconfirmedTransactionPool.insert(unconfirmedTransaction);
 
                 Db.db.commitTransaction();
             } catch (Exception e) {
@@ -729,24 +706,6 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         }
     }
 
-    private static final Comparator<UnconfirmedTransaction> cachedUnconfirmedTransactionComparator = (UnconfirmedTransaction t1, UnconfirmedTransaction t2) -> {
-        int compare;
-        // Sort by transaction_height ASC
-        compare = Integer.compare(t1.getHeight(), t2.getHeight());
-        if (compare != 0)
-            return compare;
-        // Sort by fee_per_byte DESC
-        compare = Long.compare(t1.getFeePerByte(), t2.getFeePerByte());
-        if (compare != 0)
-            return -compare;
-        // Sort by arrival_timestamp ASC
-        compare = Long.compare(t1.getArrivalTimestamp(), t2.getArrivalTimestamp());
-        if (compare != 0)
-            return compare;
-        // Sort by transaction ID ASC
-        return Long.compare(t1.getId(), t2.getId());
-    };
-
     /**
      * Get the cached unconfirmed transactions
      *
@@ -754,33 +713,12 @@ final class TransactionProcessorImpl implements TransactionProcessor {
      */
     @Override
     public SortedSet<? extends Transaction> getCachedUnconfirmedTransactions(List<String> exclude) {
-        SortedSet<UnconfirmedTransaction> transactionSet = new TreeSet<>(cachedUnconfirmedTransactionComparator);
-        Nxt.getBlockchain().readLock();
-        try {
-            //
-            // Initialize the unconfirmed transaction cache if it hasn't been done yet
-            //
-            synchronized(transactionCache) {
-                if (!cacheInitialized) {
-                    DbIterator<UnconfirmedTransaction> it = getAllUnconfirmedTransactions();
-                    while (it.hasNext()) {
-                        UnconfirmedTransaction unconfirmedTransaction = it.next();
-                        transactionCache.put(unconfirmedTransaction.getDbKey(), unconfirmedTransaction);
-                    }
-                    cacheInitialized = true;
-                }
+        SortedSet<UnconfirmedTransaction> transactionSet = new TreeSet<>(UnconfirmedTransactionPool.priorityComparator);
+        unconfirmedTransactionPool.getAll().forEach(transaction -> {
+            if (Collections.binarySearch(exclude, transaction.getStringId()) < 0) {
+                transactionSet.add(transaction);
             }
-            //
-            // Build the result set
-            //
-            transactionCache.values().forEach(transaction -> {
-                if (Collections.binarySearch(exclude, transaction.getStringId()) < 0) {
-                    transactionSet.add(transaction);
-                }
-            });
-        } finally {
-            Nxt.getBlockchain().readUnlock();
-        }
+        });
         return transactionSet;
     }
 
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.tika.Tika;
 import org.apache.tika.mime.MediaType;
@@ -302,6 +303,15 @@ public abstract class TransactionType {
         return false;
     }
 
+    // the affected keys identify the entities which are changed by the transaction or which the transaction depends on,
+    // an unconfirmed transaction is revalidated when a block transaction has an affected key in common with it
+    void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+    }
+
+    static String affectedKey(String entity, long id) {
+        return entity + ":" + Long.toUnsignedString(id);
+    }
+
     static boolean isDuplicate(TransactionType uniqueType, String key, Map<TransactionType, Map<String, Integer>> duplicates, boolean exclusive) {
         return isDuplicate(uniqueType, key, duplicates, exclusive ? 0 : Integer.MAX_VALUE);
     }
@@ -999,6 +1009,12 @@ public abstract class TransactionType {
                         && isDuplicate(Messaging.ALIAS_ASSIGNMENT, "", duplicates, true);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingAliasAssignment attachment = (Attachment.MessagingAliasAssignment) transaction.getAttachment();
+                affectedKeys.add("alias:" + attachment.getAliasName().toLowerCase());
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.MessagingAliasAssignment attachment = (Attachment.MessagingAliasAssignment) transaction.getAttachment();
@@ -1070,6 +1086,12 @@ public abstract class TransactionType {
                 return isDuplicate(Messaging.ALIAS_ASSIGNMENT, attachment.getAliasName().toLowerCase(), duplicates, true);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingAliasSell attachment = (Attachment.MessagingAliasSell) transaction.getAttachment();
+                affectedKeys.add("alias:" + attachment.getAliasName().toLowerCase());
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 if (transaction.getAmountNQT() != 0) {
@@ -1173,6 +1195,12 @@ public abstract class TransactionType {
                 return isDuplicate(Messaging.ALIAS_ASSIGNMENT, attachment.getAliasName().toLowerCase(), duplicates, true);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingAliasBuy attachment = (Attachment.MessagingAliasBuy) transaction.getAttachment();
+                affectedKeys.add("alias:" + attachment.getAliasName().toLowerCase());
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 final Attachment.MessagingAliasBuy attachment =
@@ -1254,6 +1282,12 @@ public abstract class TransactionType {
                 return isDuplicate(Messaging.ALIAS_ASSIGNMENT, attachment.getAliasName().toLowerCase(), duplicates, true);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingAliasDelete attachment = (Attachment.MessagingAliasDelete) transaction.getAttachment();
+                affectedKeys.add("alias:" + attachment.getAliasName().toLowerCase());
+            }
+
             @Override
             void validateAttachment(final Transaction transaction) throws NxtException.ValidationException {
                 final Attachment.MessagingAliasDelete attachment =
@@ -1444,6 +1478,12 @@ public abstract class TransactionType {
                 Vote.addVote(transaction, attachment);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingVoteCasting attachment = (Attachment.MessagingVoteCasting) transaction.getAttachment();
+                affectedKeys.add(affectedKey("poll", attachment.getPollId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
 
@@ -1547,6 +1587,12 @@ public abstract class TransactionType {
                 return false;
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingPhasingVoteCasting attachment = (Attachment.MessagingPhasingVoteCasting) transaction.getAttachment();
+                attachment.getTransactionFullHashes().forEach(hash -> affectedKeys.add(affectedKey("phasing", Convert.fullHashToId(hash))));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
 
@@ -1764,6 +1810,11 @@ public abstract class TransactionType {
                 return new Attachment.MessagingAccountProperty(attachmentData);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                affectedKeys.add(affectedKey("account", transaction.getRecipientId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.MessagingAccountProperty attachment = (Attachment.MessagingAccountProperty)transaction.getAttachment();
@@ -1825,6 +1876,12 @@ public abstract class TransactionType {
                 return new Attachment.MessagingAccountPropertyDelete(attachmentData);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.MessagingAccountPropertyDelete attachment = (Attachment.MessagingAccountPropertyDelete) transaction.getAttachment();
+                affectedKeys.add(affectedKey("property", attachment.getPropertyId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.MessagingAccountPropertyDelete attachment = (Attachment.MessagingAccountPropertyDelete)transaction.getAttachment();
@@ -2073,6 +2130,12 @@ public abstract class TransactionType {
                         attachment.getAssetId(), attachment.getQuantityQNT());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.ColoredCoinsAssetTransfer attachment = (Attachment.ColoredCoinsAssetTransfer) transaction.getAttachment();
+                affectedKeys.add(affectedKey("asset", attachment.getAssetId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.ColoredCoinsAssetTransfer attachment = (Attachment.ColoredCoinsAssetTransfer)transaction.getAttachment();
@@ -2159,6 +2222,12 @@ public abstract class TransactionType {
                         attachment.getAssetId(), attachment.getQuantityQNT());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.ColoredCoinsAssetDelete attachment = (Attachment.ColoredCoinsAssetDelete) transaction.getAttachment();
+                affectedKeys.add(affectedKey("asset", attachment.getAssetId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.ColoredCoinsAssetDelete attachment = (Attachment.ColoredCoinsAssetDelete)transaction.getAttachment();
@@ -2189,6 +2258,12 @@ public abstract class TransactionType {
 
         abstract static class ColoredCoinsOrderPlacement extends ColoredCoins {
 
+            @Override
+            final void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.ColoredCoinsOrderPlacement attachment = (Attachment.ColoredCoinsOrderPlacement) transaction.getAttachment();
+                affectedKeys.add(affectedKey("asset", attachment.getAssetId()));
+            }
+
             @Override
             final void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.ColoredCoinsOrderPlacement attachment = (Attachment.ColoredCoinsOrderPlacement)transaction.getAttachment();
@@ -2392,6 +2467,16 @@ public abstract class TransactionType {
                 }
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.ColoredCoinsAskOrderCancellation attachment = (Attachment.ColoredCoinsAskOrderCancellation) transaction.getAttachment();
+                affectedKeys.add(affectedKey("order", attachment.getOrderId()));
+                Order.Ask order = Order.Ask.getAskOrder(attachment.getOrderId());
+                if (order != null) {
+                    affectedKeys.add(affectedKey("asset", order.getAssetId()));
+                }
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.ColoredCoinsAskOrderCancellation attachment = (Attachment.ColoredCoinsAskOrderCancellation) transaction.getAttachment();
@@ -2445,6 +2530,16 @@ public abstract class TransactionType {
                 }
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.ColoredCoinsBidOrderCancellation attachment = (Attachment.ColoredCoinsBidOrderCancellation) transaction.getAttachment();
+                affectedKeys.add(affectedKey("order", attachment.getOrderId()));
+                Order.Bid order = Order.Bid.getBidOrder(attachment.getOrderId());
+                if (order != null) {
+                    affectedKeys.add(affectedKey("asset", order.getAssetId()));
+                }
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.ColoredCoinsBidOrderCancellation attachment = (Attachment.ColoredCoinsBidOrderCancellation) transaction.getAttachment();
@@ -2523,6 +2618,12 @@ public abstract class TransactionType {
                 senderAccount.addToUnconfirmedBalanceNQT(getLedgerEvent(), transaction.getId(), totalDividendPayment);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.ColoredCoinsDividendPayment attachment = (Attachment.ColoredCoinsDividendPayment) transaction.getAttachment();
+                affectedKeys.add(affectedKey("asset", attachment.getAssetId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.ColoredCoinsDividendPayment attachment = (Attachment.ColoredCoinsDividendPayment)transaction.getAttachment();
@@ -2752,6 +2853,12 @@ public abstract class TransactionType {
                 DigitalGoodsStore.delistGoods(attachment.getGoodsId());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsDelisting attachment = (Attachment.DigitalGoodsDelisting) transaction.getAttachment();
+                affectedKeys.add(affectedKey("goods", attachment.getGoodsId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsDelisting attachment = (Attachment.DigitalGoodsDelisting) transaction.getAttachment();
@@ -2816,6 +2923,12 @@ public abstract class TransactionType {
                 DigitalGoodsStore.changePrice(attachment.getGoodsId(), attachment.getPriceNQT());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsPriceChange attachment = (Attachment.DigitalGoodsPriceChange) transaction.getAttachment();
+                affectedKeys.add(affectedKey("goods", attachment.getGoodsId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsPriceChange attachment = (Attachment.DigitalGoodsPriceChange) transaction.getAttachment();
@@ -2882,6 +2995,12 @@ public abstract class TransactionType {
                 DigitalGoodsStore.changeQuantity(attachment.getGoodsId(), attachment.getDeltaQuantity());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsQuantityChange attachment = (Attachment.DigitalGoodsQuantityChange) transaction.getAttachment();
+                affectedKeys.add(affectedKey("goods", attachment.getGoodsId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsQuantityChange attachment = (Attachment.DigitalGoodsQuantityChange) transaction.getAttachment();
@@ -2967,6 +3086,12 @@ public abstract class TransactionType {
                 DigitalGoodsStore.purchase(transaction, attachment);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsPurchase attachment = (Attachment.DigitalGoodsPurchase) transaction.getAttachment();
+                affectedKeys.add(affectedKey("goods", attachment.getGoodsId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsPurchase attachment = (Attachment.DigitalGoodsPurchase) transaction.getAttachment();
@@ -3072,6 +3197,12 @@ public abstract class TransactionType {
                 DigitalGoodsStore.deliver(transaction, attachment);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsDelivery attachment = (Attachment.DigitalGoodsDelivery) transaction.getAttachment();
+                affectedKeys.add(affectedKey("purchase", attachment.getPurchaseId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsDelivery attachment = (Attachment.DigitalGoodsDelivery) transaction.getAttachment();
@@ -3148,6 +3279,12 @@ public abstract class TransactionType {
                 DigitalGoodsStore.feedback(attachment.getPurchaseId(), transaction.getEncryptedMessage(), transaction.getMessage());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsFeedback attachment = (Attachment.DigitalGoodsFeedback) transaction.getAttachment();
+                affectedKeys.add(affectedKey("purchase", attachment.getPurchaseId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsFeedback attachment = (Attachment.DigitalGoodsFeedback) transaction.getAttachment();
@@ -3233,6 +3370,12 @@ public abstract class TransactionType {
                         attachment.getPurchaseId(), attachment.getRefundNQT(), transaction.getEncryptedMessage());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.DigitalGoodsRefund attachment = (Attachment.DigitalGoodsRefund) transaction.getAttachment();
+                affectedKeys.add(affectedKey("purchase", attachment.getPurchaseId()));
+            }
+
             @Override
             void doValidateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.DigitalGoodsRefund attachment = (Attachment.DigitalGoodsRefund) transaction.getAttachment();
@@ -3333,6 +3476,11 @@ public abstract class TransactionType {
                 Account.getAccount(transaction.getSenderId()).leaseEffectiveBalance(transaction.getRecipientId(), attachment.getPeriod());
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                affectedKeys.add(affectedKey("account", transaction.getRecipientId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.AccountControlEffectiveBalanceLeasing attachment = (Attachment.AccountControlEffectiveBalanceLeasing)transaction.getAttachment();
@@ -3602,6 +3750,12 @@ public abstract class TransactionType {
                 return new Attachment.TaggedDataExtend(attachmentData);
             }
 
+            @Override
+            void getAffectedKeys(Transaction transaction, Set<String> affectedKeys) {
+                Attachment.TaggedDataExtend attachment = (Attachment.TaggedDataExtend) transaction.getAttachment();
+                affectedKeys.add(affectedKey("taggedData", attachment.getTaggedDataId()));
+            }
+
             @Override
             void validateAttachment(Transaction transaction) throws NxtException.ValidationException {
                 Attachment.TaggedDataExtend attachment = (Attachment.TaggedDataExtend) transaction.getAttachment();
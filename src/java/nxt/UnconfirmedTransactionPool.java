@@ -0,0 +1,413 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import nxt.db.DerivedDbTable;
+import nxt.db.TransactionalDb;
+
+/**
+ * In-memory unconfirmed transaction pool
+ *
+ * The unconfirmed transactions are kept in memory and indexed by transaction identifier,
+ * by sender, by priority (transaction height, fee per byte, arrival time), by expiration
+ * and by the blockchain height when the transaction was added to the pool.  Lookups do not
+ * access the database.
+ *
+ * Each change is also written to the unconfirmed_transaction table within the current
+ * database transaction.  The unconfirmed account balances are stored in the account
+ * tables, so the table must be updated in the same database transaction in order for the
+ * pool to match the unconfirmed balances when the server is restarted.  Changes made to
+ * the pool are undone if the database transaction is rolled back.
+ *
+ * Changes to the pool must be made while holding the blockchain write lock.
+ */
+class UnconfirmedTransactionPool extends DerivedDbTable {
+
+    /** Pool order: transaction height ascending, fee per byte descending, arrival ascending, identifier ascending */
+    static final Comparator<UnconfirmedTransaction> priorityComparator = (UnconfirmedTransaction t1, UnconfirmedTransaction t2) -> {
+        int compare;
+        // Sort by transaction_height ASC
+        compare = Integer.compare(t1.getHeight(), t2.getHeight());
+        if (compare != 0)
+            return compare;
+        // Sort by fee_per_byte DESC
+        compare = Long.compare(t1.getFeePerByte(), t2.getFeePerByte());
+        if (compare != 0)
+            return -compare;
+        // Sort by arrival_timestamp ASC
+        compare = Long.compare(t1.getArrivalTimestamp(), t2.getArrivalTimestamp());
+        if (compare != 0)
+            return compare;
+        // Sort by transaction ID ASC
+        return Long.compare(t1.getId(), t2.getId());
+    };
+
+    /** Expiration order: expiration ascending, identifier ascending */
+    private static final Comparator<UnconfirmedTransaction> expirationComparator =
+            Comparator.comparingInt(UnconfirmedTransaction::getExpiration).thenComparingLong(UnconfirmedTransaction::getId);
+
+    /** Pool entries by transaction identifier */
+    private final Map<Long, PoolEntry> idMap = new ConcurrentHashMap<>();
+
+    /** Pool transactions in priority order */
+    private final NavigableSet<UnconfirmedTransaction> prioritySet = new ConcurrentSkipListSet<>(priorityComparator);
+
+    /** Pool transactions in expiration order */
+    private final NavigableSet<UnconfirmedTransaction> expirationSet = new ConcurrentSkipListSet<>(expirationComparator);
+
+    /** Pool transactions by sender */
+    private final Map<Long, Set<UnconfirmedTransaction>> senderMap = new ConcurrentHashMap<>();
+
+    /** Pool transactions by affected key */
+    private final Map<String, Set<UnconfirmedTransaction>> affectedKeyMap = new ConcurrentHashMap<>();
+
+    /** Pool transactions by the blockchain height when they were added */
+    private final ConcurrentSkipListMap<Integer, Set<UnconfirmedTransaction>> heightMap = new ConcurrentSkipListMap<>();
+
+    /** Undo actions for the current database transaction */
+    private final Deque<Runnable> undoLog = new ArrayDeque<>();
+
+    /** Database transaction callback */
+    private final TransactionalDb.TransactionCallback transactionCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+            synchronized (UnconfirmedTransactionPool.this) {
+                undoLog.clear();
+            }
+        }
+
+        @Override
+        public void rollback() {
+            synchronized (UnconfirmedTransactionPool.this) {
+                Runnable undo;
+                while ((undo = undoLog.pollFirst()) != null) {
+                    undo.run();
+                }
+            }
+        }
+    };
+
+    /**
+     * Create the unconfirmed transaction pool
+     */
+    UnconfirmedTransactionPool() {
+        super("unconfirmed_transaction");
+    }
+
+    /**
+     * Load the pool from the database
+     */
+    synchronized void load() {
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM unconfirmed_transaction");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                addEntry(new PoolEntry(new UnconfirmedTransaction(rs), rs.getInt("height")));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Return the number of transactions in the pool
+     *
+     * @return                      Number of transactions
+     */
+    int size() {
+        return idMap.size();
+    }
+
+    /**
+     * Return a pool transaction
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      Transaction or null if the transaction is not in the pool
+     */
+    UnconfirmedTransaction get(long transactionId) {
+        PoolEntry entry = idMap.get(transactionId);
+        return entry != null ? entry.transaction : null;
+    }
+
+    /**
+     * Check if a transaction is in the pool
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      TRUE if the transaction is in the pool
+     */
+    boolean contains(long transactionId) {
+        return idMap.containsKey(transactionId);
+    }
+
+    /**
+     * Return the pool transactions in priority order.  The returned set is a live view
+     * of the pool and reflects concurrent changes.
+     *
+     * @return                      Pool transactions
+     */
+    NavigableSet<UnconfirmedTransaction> getAll() {
+        return Collections.unmodifiableNavigableSet(prioritySet);
+    }
+
+    /**
+     * Return a range of the pool transactions in priority order
+     *
+     * @param   from                Index of the first transaction
+     * @param   to                  Index of the last transaction or -1 for all transactions
+     * @return                      Transaction list
+     */
+    List<UnconfirmedTransaction> getAll(int from, int to) {
+        List<UnconfirmedTransaction> result = new ArrayList<>();
+        int index = 0;
+        for (UnconfirmedTransaction transaction : prioritySet) {
+            if (to >= 0 && index > to) {
+                break;
+            }
+            if (index >= from) {
+                result.add(transaction);
+            }
+            index++;
+        }
+        return result;
+    }
+
+    /**
+     * Return the pool transactions sent by an account
+     *
+     * @param   senderId            Sender account identifier
+     * @return                      Transaction list
+     */
+    List<UnconfirmedTransaction> getBySender(long senderId) {
+        Set<UnconfirmedTransaction> transactions = senderMap.get(senderId);
+        return transactions != null ? new ArrayList<>(transactions) : Collections.emptyList();
+    }
+
+    /**
+     * Return the pool transactions with at least one of the affected keys
+     *
+     * @param   affectedKeys        Affected keys
+     * @return                      Transaction list
+     */
+    List<UnconfirmedTransaction> getAffected(Set<String> affectedKeys) {
+        Set<UnconfirmedTransaction> result = new LinkedHashSet<>();
+        for (String affectedKey : affectedKeys) {
+            Set<UnconfirmedTransaction> transactions = affectedKeyMap.get(affectedKey);
+            if (transactions != null) {
+                result.addAll(transactions);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Return the pool transactions that have expired
+     *
+     * @param   epochTime           Current epoch time
+     * @return                      Transaction list
+     */
+    List<UnconfirmedTransaction> getExpired(int epochTime) {
+        List<UnconfirmedTransaction> result = new ArrayList<>();
+        for (UnconfirmedTransaction transaction : expirationSet) {
+            if (transaction.getExpiration() >= epochTime) {
+                break;
+            }
+            result.add(transaction);
+        }
+        return result;
+    }
+
+    /**
+     * Return the pool transactions added after the specified blockchain height
+     *
+     * @param   height              Blockchain height
+     * @return                      Transaction list
+     */
+    List<UnconfirmedTransaction> getAddedAfter(int height) {
+        List<UnconfirmedTransaction> result = new ArrayList<>();
+        heightMap.tailMap(height, false).values().forEach(result::addAll);
+        return result;
+    }
+
+    /**
+     * Add a transaction to the pool
+     *
+     * @param   transaction         Unconfirmed transaction
+     */
+    synchronized void insert(UnconfirmedTransaction transaction) {
+        checkTransaction();
+        try (Connection con = db.getConnection()) {
+            transaction.save(con);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        PoolEntry entry = new PoolEntry(transaction, Nxt.getBlockchain().getHeight());
+        addEntry(entry);
+        logUndo(() -> removeEntry(entry));
+    }
+
+    /**
+     * Remove a transaction from the pool
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      Removed transaction or null if the transaction is not in the pool
+     */
+    synchronized UnconfirmedTransaction remove(long transactionId) {
+        checkTransaction();
+        PoolEntry entry = idMap.get(transactionId);
+        if (entry == null) {
+            return null;
+        }
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("DELETE FROM unconfirmed_transaction WHERE id = ?")) {
+            pstmt.setLong(1, transactionId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        removeEntry(entry);
+        logUndo(() -> addEntry(entry));
+        return entry.transaction;
+    }
+
+    /**
+     * Remove the transactions added after the specified blockchain height
+     *
+     * @param   height              Blockchain height
+     */
+    @Override
+    public synchronized void rollback(int height) {
+        super.rollback(height);
+        List<PoolEntry> removed = new ArrayList<>();
+        heightMap.tailMap(height, false).values().forEach(transactions ->
+                transactions.forEach(transaction -> removed.add(idMap.get(transaction.getId()))));
+        removed.forEach(this::removeEntry);
+        logUndo(() -> removed.forEach(this::addEntry));
+    }
+
+    /**
+     * Remove all transactions from the pool
+     */
+    @Override
+    public synchronized void truncate() {
+        super.truncate();
+        List<PoolEntry> removed = new ArrayList<>(idMap.values());
+        clearEntries();
+        logUndo(() -> removed.forEach(this::addEntry));
+    }
+
+    /**
+     * Discard the pool contents after the unconfirmed_transaction table has been
+     * truncated outside of the pool
+     */
+    synchronized void reset() {
+        clearEntries();
+        undoLog.clear();
+    }
+
+    private void checkTransaction() {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+    }
+
+    private void logUndo(Runnable undo) {
+        undoLog.addFirst(undo);
+        db.registerCallback(transactionCallback);
+    }
+
+    private void addEntry(PoolEntry entry) {
+        UnconfirmedTransaction transaction = entry.transaction;
+        idMap.put(transaction.getId(), entry);
+        prioritySet.add(transaction);
+        expirationSet.add(transaction);
+        senderMap.computeIfAbsent(transaction.getSenderId(), k -> ConcurrentHashMap.newKeySet()).add(transaction);
+        heightMap.computeIfAbsent(entry.height, k -> ConcurrentHashMap.newKeySet()).add(transaction);
+        entry.affectedKeys.forEach(affectedKey ->
+                affectedKeyMap.computeIfAbsent(affectedKey, k -> ConcurrentHashMap.newKeySet()).add(transaction));
+    }
+
+    private void removeEntry(PoolEntry entry) {
+        UnconfirmedTransaction transaction = entry.transaction;
+        idMap.remove(transaction.getId());
+        prioritySet.remove(transaction);
+        expirationSet.remove(transaction);
+        senderMap.computeIfPresent(transaction.getSenderId(), (k, set) -> {
+            set.remove(transaction);
+            return set.isEmpty() ? null : set;
+        });
+        heightMap.computeIfPresent(entry.height, (k, set) -> {
+            set.remove(transaction);
+            return set.isEmpty() ? null : set;
+        });
+        entry.affectedKeys.forEach(affectedKey -> affectedKeyMap.computeIfPresent(affectedKey, (k, set) -> {
+            set.remove(transaction);
+            return set.isEmpty() ? null : set;
+        }));
+    }
+
+    private void clearEntries() {
+        idMap.clear();
+        prioritySet.clear();
+        expirationSet.clear();
+        senderMap.clear();
+        heightMap.clear();
+        affectedKeyMap.clear();
+    }
+
+    /**
+     * Pool entry
+     */
+    private static final class PoolEntry {
+
+        /** Unconfirmed transaction */
+        private final UnconfirmedTransaction transaction;
+
+        /** Blockchain height when the transaction was added to the pool */
+        private final int height;
+
+        /** Keys of the entities affected by the transaction */
+        private final Set<String> affectedKeys = new HashSet<>();
+
+        private PoolEntry(UnconfirmedTransaction transaction, int height) {
+            this.transaction = transaction;
+            this.height = height;
+            transaction.getTransaction().getAffectedKeys(affectedKeys);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import nxt.db.DbClause;
 import nxt.db.DbIterator;
 import nxt.db.DbKey;
 import nxt.db.EntityDbTable;
+import nxt.db.TableTrimmer;
 
 public final class Vote {
 
@@ -57,7 +58,7 @@ public final class Vote {
                  PreparedStatement pstmt = con.prepareStatement("DELETE FROM vote WHERE poll_id = ?")) {
                 for (Poll poll : polls) {
                     pstmt.setLong(1, poll.getId());
-                    pstmt.executeUpdate();
+                    TableTrimmer.rowsDeleted(pstmt.executeUpdate());
                 }
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
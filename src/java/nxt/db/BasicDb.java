@@ -150,6 +150,11 @@ public class BasicDb {
             throw new RuntimeException(e.toString(), e);
         }
         dbVersion.init(this);
+        try (Connection con = cp.getConnection()) {
+            FullTextTrigger.checkIndex(con);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
         initialized = true;
     }
 
@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.db;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nxt.Db;
+import nxt.Nxt;
+
+/**
+ * EntityCache is a shared cache for the latest version of the entities in a table.
+ * The cache is used for reads outside a database transaction and is enabled for the
+ * tables listed in nxt.entityCacheTables.  The least-recently used entities are
+ * discarded when the cache contains more than nxt.entityCacheSize entities.
+ *
+ * An entity is removed from the cache when it is inserted or deleted, and entities
+ * with a height greater than the rollback height are removed when the table is rolled
+ * back.  The removal is repeated when the database transaction is committed since
+ * readers outside the transaction continue to see the previous version until then.
+ * An entity is not added to the cache if the cache was modified while it was being
+ * loaded.
+ *
+ * @param   <T>                 Entity type
+ */
+public final class EntityCache<T> implements TransactionalDb.TransactionCallback {
+
+    /** Cached tables */
+    private static final Set<String> cachedTables = new HashSet<>(Nxt.getStringListProperty("nxt.entityCacheTables"));
+
+    /** Maximum number of cached entities for each table */
+    private static final int maxSize = Nxt.getIntProperty("nxt.entityCacheSize", 10000);
+
+    /** Table caches */
+    private static final List<EntityCache<?>> caches = new ArrayList<>();
+
+    /**
+     * Create the entity cache for a table
+     *
+     * @param   table               Table name
+     * @return                      Entity cache or null if the table is not cached
+     */
+    static <T> EntityCache<T> createCache(String table) {
+        if (maxSize <= 0 || !cachedTables.contains(table)) {
+            return null;
+        }
+        EntityCache<T> cache = new EntityCache<>(table);
+        synchronized (caches) {
+            caches.add(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Return the entity caches
+     *
+     * @return                      Entity cache list
+     */
+    public static List<EntityCache<?>> getCaches() {
+        synchronized (caches) {
+            return new ArrayList<>(caches);
+        }
+    }
+
+    /** Table name */
+    private final String table;
+
+    /** Cached entities in access order */
+    private final Map<DbKey, Entry<T>> cacheMap = new LinkedHashMap<DbKey, Entry<T>>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DbKey, Entry<T>> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /** Cache modification count */
+    private long modCount;
+
+    /** Pending invalidations for the current database transaction */
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+
+    /** Cache statistics */
+    private long hits, misses, evictions, invalidations;
+
+    private EntityCache(String table) {
+        this.table = table;
+    }
+
+    /**
+     * Return a cached entity
+     *
+     * @param   dbKey               Entity key
+     * @return                      Entity or null if the entity is not cached
+     */
+    synchronized T get(DbKey dbKey) {
+        Entry<T> entry = cacheMap.get(dbKey);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.entity;
+    }
+
+    /**
+     * Return the cache modification count.  This is obtained before loading an entity
+     * from the database and is then passed to put().
+     *
+     * @return                      Modification count
+     */
+    synchronized long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Add an entity to the cache.  The entity is not added if the cache has been
+     * modified since the entity was loaded.
+     *
+     * @param   dbKey               Entity key
+     * @param   entity              Entity
+     * @param   height              Entity height
+     * @param   loadModCount        Modification count before loading the entity
+     */
+    synchronized void put(DbKey dbKey, T entity, int height, long loadModCount) {
+        if (loadModCount == modCount) {
+            cacheMap.put(dbKey, new Entry<>(entity, height));
+        }
+    }
+
+    /**
+     * Remove an entity that is being modified by the current database transaction
+     *
+     * @param   dbKey               Entity key
+     */
+    void remove(DbKey dbKey) {
+        Pending p = getPending();
+        if (!p.clear) {
+            if (p.keys.size() < maxSize) {
+                p.keys.add(dbKey);
+            } else {
+                p.clear = true;
+                p.keys.clear();
+            }
+        }
+        synchronized (this) {
+            modCount++;
+            if (cacheMap.remove(dbKey) != null) {
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Remove entities with a height greater than the rollback height
+     *
+     * @param   height              Rollback height
+     */
+    void rollback(int height) {
+        Pending p = getPending();
+        p.height = Math.min(p.height, height);
+        removeAbove(height);
+    }
+
+    /**
+     * Remove all entities
+     */
+    public void clear() {
+        Pending p = getPending();
+        p.clear = true;
+        p.keys.clear();
+        removeAll();
+    }
+
+    /**
+     * Database transaction has been committed
+     */
+    @Override
+    public void commit() {
+        Pending p = pending.get();
+        if (p == null) {
+            return;
+        }
+        pending.remove();
+        if (p.clear) {
+            removeAll();
+            return;
+        }
+        if (p.height != Integer.MAX_VALUE) {
+            removeAbove(p.height);
+        }
+        synchronized (this) {
+            modCount++;
+            p.keys.forEach(dbKey -> {
+                if (cacheMap.remove(dbKey) != null) {
+                    invalidations++;
+                }
+            });
+        }
+    }
+
+    /**
+     * Database transaction has been rolled back
+     */
+    @Override
+    public void rollback() {
+        commit();
+    }
+
+    /**
+     * Return the pending invalidations for the current database transaction
+     *
+     * @return                      Pending invalidations
+     */
+    private Pending getPending() {
+        Pending p = pending.get();
+        if (p == null) {
+            p = new Pending();
+            pending.set(p);
+        }
+        Db.db.registerCallback(this);
+        return p;
+    }
+
+    private synchronized void removeAbove(int height) {
+        modCount++;
+        Iterator<Entry<T>> it = cacheMap.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().height > height) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private synchronized void removeAll() {
+        modCount++;
+        invalidations += cacheMap.size();
+        cacheMap.clear();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public synchronized int getSize() {
+        return cacheMap.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Cached entity
+     */
+    private static final class Entry<T> {
+
+        /** Entity */
+        private final T entity;
+
+        /** Height of the entity row */
+        private final int height;
+
+        private Entry(T entity, int height) {
+            this.entity = entity;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Invalidations pending until the database transaction is committed
+     */
+    private static final class Pending {
+
+        /** Modified entities */
+        private final Set<DbKey> keys = new HashSet<>();
+
+        /** Lowest rollback height */
+        private int height = Integer.MAX_VALUE;
+
+        /** Remove all entities */
+        private boolean clear;
+    }
+}
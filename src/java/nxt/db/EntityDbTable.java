@@ -33,6 +33,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
     private final String fullTextSearchColumns;
+    private final EntityCache<T> entityCache;
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false, null);
@@ -48,6 +49,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         this.multiversion = multiversion;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC, db_id DESC ");
         this.fullTextSearchColumns = fullTextSearchColumns;
+        this.entityCache = EntityCache.createCache(table);
     }
 
     protected abstract T load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException;
@@ -62,6 +64,10 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         db.clearCache(table);
     }
 
+    public final DbKey.Factory<T> getDbKeyFactory() {
+        return dbKeyFactory;
+    }
+
     public void checkAvailable(int height) {
         if (multiversion) {
             int minRollBackHeight = isPersistent() && Nxt.getBlockchainProcessor().isScanning() ?
@@ -101,6 +107,12 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             if (t != null) {
                 return t;
             }
+        } else if (cache && entityCache != null) {
+            T t = entityCache.get(dbKey);
+            if (t != null) {
+                return t;
+            }
+            return getShared(dbKey);
         }
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
@@ -112,6 +124,29 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    private T getShared(DbKey dbKey) {
+        long modCount = entityCache.getModCount();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
+             + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
+            dbKey.setPK(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                int height = rs.getInt("height");
+                T t = load(con, rs, dbKey);
+                if (rs.next()) {
+                    throw new RuntimeException("Multiple records found");
+                }
+                entityCache.put(dbKey, t, height, modCount);
+                return t;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     public final T get(DbKey dbKey, int height) {
         if (height < 0 || doesNotExceed(height)) {
             return get(dbKey);
@@ -443,6 +478,9 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         if (dbKey == null) {
             throw new RuntimeException("DbKey not set");
         }
+        if (entityCache != null) {
+            entityCache.remove(dbKey);
+        }
         T cachedT = (T) db.getCache(table).get(dbKey);
         if (cachedT == null) {
             db.getCache(table).put(dbKey, t);
@@ -467,6 +505,9 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
 
     @Override
     public void rollback(int height) {
+        if (entityCache != null) {
+            entityCache.rollback(height);
+        }
         if (multiversion) {
             VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
         } else {
@@ -474,6 +515,20 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    @Override
+    public void truncate() {
+        if (entityCache != null) {
+            entityCache.clear();
+        }
+        super.truncate();
+    }
+
+    final void removeFromCache(DbKey dbKey) {
+        if (entityCache != null) {
+            entityCache.remove(dbKey);
+        }
+    }
+
     @Override
     public void trim(int height) {
         if (multiversion) {
@@ -486,8 +541,8 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     @Override
     public final void createSearchIndex(Connection con) throws SQLException {
         if (fullTextSearchColumns != null) {
-            Logger.logDebugMessage("Creating search index on " + table + " (" + fullTextSearchColumns + ")");
-            FullTextTrigger.createIndex(con, "PUBLIC", table.toUpperCase(), fullTextSearchColumns.toUpperCase());
+            Logger.logDebugMessage("Defining search index on " + table + " (" + fullTextSearchColumns + ")");
+            FullTextTrigger.defineIndex(con, "PUBLIC", table.toUpperCase(), fullTextSearchColumns.toUpperCase());
         }
     }
 
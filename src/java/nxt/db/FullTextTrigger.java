@@ -29,10 +29,15 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.StringJoiner;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -42,7 +47,6 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
@@ -51,6 +55,7 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -58,6 +63,7 @@ import org.h2.api.Trigger;
 import org.h2.tools.SimpleResultSet;
 
 import nxt.Db;
+import nxt.Nxt;
 import nxt.util.Logger;
 import nxt.util.ReadWriteUpdateLock;
 
@@ -79,6 +85,10 @@ import nxt.util.ReadWriteUpdateLock;
  *   CREATE ALIAS FTL_SEARCH FOR "nxt.db.FullTextTrigger.search"
  *       CALL FTL_SEARCH(schema, table, query, limit, offset)
  *
+ * The Lucene index is rebuilt by reading each indexed table using a separate database
+ * connection.  The tables are indexed in parallel by nxt.fullTextReindexThreads threads,
+ * each adding its documents to its own index segments, and Lucene merges the segments.
+ *
  * FTL_CREATE_INDEX is called to create a fulltext index for a table.  It is
  * provided as a convenience for use in NxtDbVersion when creating a new index
  * after the database has been created.
@@ -97,6 +107,17 @@ import nxt.util.ReadWriteUpdateLock;
  *
  * The table index trigger is defined as follows:
  *   CREATE TRIGGER trigger_name AFTER INSERT,UPDATE,DELETE ON table_name FOR EACH ROW CALL "nxt.db.FullTextTrigger"
+ *
+ * Row changes are saved in a buffer for the current thread and are added to the Lucene
+ * index when the database transaction is committed.  They are discarded when the database
+ * transaction is rolled back, so the index never contains uncommitted rows.  Searches use
+ * a near-real-time searcher which is refreshed before a search if the index has changed.
+ *
+ * When nxt.fullTextCommitInterval is not zero, the Lucene index is committed to disk by a
+ * background thread at that interval instead of after each database transaction.  A marker
+ * file is kept in the index directory while there are index changes that have not been
+ * committed, and the index is rebuilt if the marker file is found when the database is
+ * opened after the server was not shut down cleanly.
  */
 public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCallback {
 
@@ -118,11 +139,11 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     /** Lucene directory */
     private static Directory directory;
 
-    /** Lucene index reader (thread-safe) */
-    private static DirectoryReader indexReader;
+    /** Lucene searcher manager (thread-safe) */
+    private static SearcherManager searcherManager;
 
-    /** Lucene index searcher (thread-safe) */
-    private static IndexSearcher indexSearcher;
+    /** Searcher must be refreshed before the next search */
+    private static volatile boolean refreshSearcher;
 
     /** Lucene index writer (thread-safe) */
     private static IndexWriter indexWriter;
@@ -130,6 +151,36 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     /** Lucene analyzer (thread-safe) */
     private static final Analyzer analyzer = new StandardAnalyzer();
 
+    /** Uncommitted index changes marker file */
+    private static final String PENDING_FILE = "index.pending";
+
+    /** Index commit interval (seconds) - 0 to commit after each database transaction */
+    private static int commitInterval;
+
+    /** Index commit thread */
+    private static ScheduledExecutorService commitService;
+
+    /** Pending index commit lock */
+    private static final Object pendingLock = new Object();
+
+    /** Index changes have not been committed */
+    private static boolean commitPending;
+
+    /** Index must be rebuilt since uncommitted index changes were lost */
+    private static volatile boolean rebuildIndex;
+
+    /** Number of tables indexed in parallel when rebuilding the index */
+    private static int reindexThreads = 1;
+
+    /** Reindex lock */
+    private static final Object reindexLock = new Object();
+
+    /** Index is being rebuilt */
+    private static volatile boolean isReindexing;
+
+    /** Progress of the current or last index rebuild */
+    private static volatile List<ReindexProgress> reindexProgress = new ArrayList<>();
+
     /** Index trigger is enabled */
     private volatile boolean isEnabled = false;
 
@@ -148,8 +199,8 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     /** Indexed column ordinals */
     private final List<Integer>indexColumns = new ArrayList<>();
 
-    /** Pending table updates */
-    private final List<TableUpdate> tableUpdates = new ArrayList<>();
+    /** Pending table updates for the current thread */
+    private final ThreadLocal<List<TableUpdate>> tableUpdates = ThreadLocal.withInitial(ArrayList::new);
 
     /**
      * This method is called by NRS initialization to indicate NRS is active.
@@ -161,15 +212,54 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
      *
      * @param   active              TRUE to enable database triggers
      */
-    public static void setActive(boolean active) {
+    public static synchronized void setActive(boolean active) {
         isActive = active;
-        if (!active) {
+        if (active) {
+            commitInterval = Nxt.getIntProperty("nxt.fullTextCommitInterval");
+            reindexThreads = Math.max(Nxt.getIntProperty("nxt.fullTextReindexThreads",
+                    Runtime.getRuntime().availableProcessors()), 1);
+            if (commitInterval > 0 && commitService == null) {
+                commitService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "FullTextIndexCommit");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                commitService.scheduleWithFixedDelay(FullTextTrigger::commitPendingUpdates,
+                        commitInterval, commitInterval, TimeUnit.SECONDS);
+            }
+        } else {
             indexTriggers.values().forEach((trigger) -> trigger.isEnabled = false);
             indexTriggers.clear();
+            if (commitService != null) {
+                commitService.shutdown();
+                try {
+                    commitService.awaitTermination(10, TimeUnit.SECONDS);
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+                commitService = null;
+            }
             removeIndexAccess();
         }
     }
 
+    /**
+     * Rebuild the Lucene index if index changes were lost because the server was not
+     * shut down cleanly
+     *
+     * This method should be called after the database has been opened and the database
+     * triggers have been initialized
+     *
+     * @param   conn                SQL connection
+     * @throws  SQLException        Unable to rebuild the Lucene index
+     */
+    public static void checkIndex(Connection conn) throws SQLException {
+        if (rebuildIndex) {
+            Logger.logWarningMessage("Lucene search index was not committed when the server was stopped");
+            reindex(conn);
+        }
+    }
+
     /**
      * Initialize the fulltext support for a new database
      *
@@ -258,26 +348,94 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     /**
      * Reindex all of the indexed tables
      *
+     * The tables are read using separate database connections, so the table rows must
+     * be committed before the index is rebuilt.
+     *
      * @param   conn                SQL connection
      * @throws  SQLException        Unable to reindex tables
      */
     public static void reindex(Connection conn) throws SQLException {
-        Logger.logInfoMessage("Rebuilding the Lucene search index");
-        try {
-            //
-            // Delete the current Lucene index
-            //
-            removeIndexFiles(conn);
-            //
-            // Reindex each table
-            //
-            for (FullTextTrigger trigger : indexTriggers.values()) {
-                trigger.reindexTable(conn);
+        synchronized(reindexLock) {
+            Logger.logInfoMessage("Rebuilding the Lucene search index");
+            List<FullTextTrigger> triggers = new ArrayList<>(indexTriggers.values());
+            List<ReindexProgress> progressList = new ArrayList<>(triggers.size());
+            triggers.forEach(trigger -> progressList.add(new ReindexProgress(trigger.tableName)));
+            reindexProgress = progressList;
+            isReindexing = true;
+            long startTime = System.currentTimeMillis();
+            try {
+                //
+                // Delete the current Lucene index
+                //
+                removeIndexFiles(conn);
+                //
+                // Reindex each table
+                //
+                int threadCount = Math.min(reindexThreads, triggers.size());
+                if (threadCount <= 1) {
+                    for (int i=0; i<triggers.size(); i++) {
+                        triggers.get(i).reindexTable(conn, progressList.get(i));
+                    }
+                } else {
+                    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+                    try {
+                        List<Future<Void>> futures = new ArrayList<>(triggers.size());
+                        for (int i=0; i<triggers.size(); i++) {
+                            FullTextTrigger trigger = triggers.get(i);
+                            ReindexProgress progress = progressList.get(i);
+                            futures.add(executor.submit(() -> {
+                                try (Connection con = Db.db.getConnection()) {
+                                    trigger.reindexTable(con, progress);
+                                }
+                                return null;
+                            }));
+                        }
+                        for (Future<Void> future : futures) {
+                            future.get();
+                        }
+                    } catch (ExecutionException exc) {
+                        Throwable cause = exc.getCause();
+                        if (cause instanceof SQLException) {
+                            throw (SQLException)cause;
+                        }
+                        throw new SQLException(cause.toString(), cause);
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Lucene index rebuild interrupted");
+                    } finally {
+                        executor.shutdownNow();
+                    }
+                }
+                //
+                // Commit the index updates
+                //
+                commitIndex();
+            } catch (SQLException exc) {
+                throw new SQLException("Unable to rebuild the Lucene index", exc);
+            } finally {
+                isReindexing = false;
             }
-        } catch (SQLException exc) {
-            throw new SQLException("Unable to rebuild the Lucene index", exc);
+            Logger.logInfoMessage("Lucene search index successfully rebuilt in "
+                    + (System.currentTimeMillis() - startTime) / 1000 + " seconds");
         }
-        Logger.logInfoMessage("Lucene search index successfully rebuilt");
+    }
+
+    /**
+     * Check if the Lucene index is being rebuilt
+     *
+     * @return                      TRUE if the index is being rebuilt
+     */
+    public static boolean isReindexing() {
+        return isReindexing;
+    }
+
+    /**
+     * Return the progress of the current or last index rebuild
+     *
+     * @return                      Progress for each indexed table
+     */
+    public static List<ReindexProgress> getReindexProgress() {
+        return reindexProgress;
     }
 
     /**
@@ -300,17 +458,9 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         //
         dropIndex(conn, schema, table);
         //
-        // Update our schema and create a new database trigger.  Note that the trigger
-        // will be initialized when it is created.
+        // Update our schema and create a new database trigger
         //
-        try (Statement stmt = conn.createStatement()) {
-            stmt.execute(String.format("INSERT INTO FTL.INDEXES (schema, table, columns) "
-                    + "VALUES('%s', '%s', '%s')",
-                    upperSchema, upperTable, columnList.toUpperCase()));
-            stmt.execute(String.format("CREATE TRIGGER FTL_%s AFTER INSERT,UPDATE,DELETE ON %s "
-                    + "FOR EACH ROW CALL \"%s\"",
-                    upperTable, tableName, FullTextTrigger.class.getName()));
-        }
+        createTrigger(conn, upperSchema, upperTable, columnList);
         //
         // Index the table
         //
@@ -319,7 +469,8 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
             Logger.logErrorMessage("NRS fulltext trigger for table " + tableName + " was not initialized");
         } else {
             try {
-                trigger.reindexTable(conn);
+                trigger.reindexTable(conn, new ReindexProgress(tableName));
+                commitIndex();
                 Logger.logInfoMessage("Lucene search index created for table " + tableName);
             } catch (SQLException exc) {
                 Logger.logErrorMessage("Unable to create Lucene search index for table " + tableName);
@@ -328,6 +479,25 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         }
     }
 
+    /**
+     * Define the fulltext index for a table without indexing the table rows.  The
+     * Lucene index must then be rebuilt by calling reindex().
+     *
+     * @param   conn                SQL connection
+     * @param   schema              Schema name
+     * @param   table               Table name
+     * @param   columnList          Indexed column names separated by commas
+     * @throws  SQLException        Unable to define fulltext index
+     */
+    public static void defineIndex(Connection conn, String schema, String table, String columnList)
+                                    throws SQLException {
+        String upperSchema = schema.toUpperCase();
+        String upperTable = table.toUpperCase();
+        getIndexAccess(conn);
+        dropTrigger(conn, upperSchema, upperTable);
+        createTrigger(conn, upperSchema, upperTable, columnList);
+    }
+
     /**
      * Drop the fulltext index for a table
      *
@@ -337,9 +507,47 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
      * @throws  SQLException        Unable to drop fulltext index
      */
     public static void dropIndex(Connection conn, String schema, String table) throws SQLException {
-        String upperSchema = schema.toUpperCase();
-        String upperTable = table.toUpperCase();
-        boolean reindex = false;
+        //
+        // Rebuild the Lucene index if the table was indexed
+        //
+        if (dropTrigger(conn, schema.toUpperCase(), table.toUpperCase())) {
+            reindex(conn);
+        }
+    }
+
+    /**
+     * Create the database trigger for an indexed table.  The trigger is initialized
+     * when it is created.
+     *
+     * @param   conn                SQL connection
+     * @param   upperSchema         Schema name (uppercase)
+     * @param   upperTable          Table name (uppercase)
+     * @param   columnList          Indexed column names separated by commas
+     * @throws  SQLException        Unable to create the trigger
+     */
+    private static void createTrigger(Connection conn, String upperSchema, String upperTable, String columnList)
+                                    throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(String.format("INSERT INTO FTL.INDEXES (schema, table, columns) "
+                    + "VALUES('%s', '%s', '%s')",
+                    upperSchema, upperTable, columnList.toUpperCase()));
+            stmt.execute(String.format("CREATE TRIGGER FTL_%s AFTER INSERT,UPDATE,DELETE ON %s.%s "
+                    + "FOR EACH ROW CALL \"%s\"",
+                    upperTable, upperSchema, upperTable, FullTextTrigger.class.getName()));
+        }
+    }
+
+    /**
+     * Drop the database trigger for an indexed table
+     *
+     * @param   conn                SQL connection
+     * @param   upperSchema         Schema name (uppercase)
+     * @param   upperTable          Table name (uppercase)
+     * @return                      TRUE if the table was indexed
+     * @throws  SQLException        Unable to drop the trigger
+     */
+    private static boolean dropTrigger(Connection conn, String upperSchema, String upperTable) throws SQLException {
+        boolean dropped = false;
         //
         // Drop an existing database trigger
         //
@@ -352,16 +560,11 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
                     stmt.execute("DROP TRIGGER IF EXISTS FTL_" + upperTable);
                     stmt.execute(String.format("DELETE FROM FTL.INDEXES WHERE SCHEMA = '%s' AND TABLE = '%s'",
                             upperSchema, upperTable));
-                    reindex = true;
+                    dropped = true;
                 }
             }
         }
-        //
-        // Rebuild the Lucene index
-        //
-        if (reindex) {
-            reindex(conn);
-        }
+        return dropped;
     }
 
     /**
@@ -433,7 +636,13 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         // The _MODIFIED field contains the row modification time (YYYYMMDDhhmmss) in GMT
         //
         indexLock.readLock().lock();
+        IndexSearcher indexSearcher = null;
         try {
+            if (refreshSearcher) {
+                refreshSearcher = false;
+                searcherManager.maybeRefresh();
+            }
+            indexSearcher = searcherManager.acquire();
             QueryParser parser = new QueryParser("_DATA", analyzer);
             parser.setDateResolution("_MODIFIED", DateTools.Resolution.SECOND);
             parser.setDefaultOperator(QueryParser.Operator.AND);
@@ -459,7 +668,15 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
             Logger.logErrorMessage("Unable to search Lucene index", exc);
             throw new SQLException("Unable to search Lucene index", exc);
         } finally {
-            indexLock.readLock().unlock();
+            try {
+                if (indexSearcher != null) {
+                    searcherManager.release(indexSearcher);
+                }
+            } catch (IOException exc) {
+                Logger.logErrorMessage("Unable to release Lucene index searcher", exc);
+            } finally {
+                indexLock.readLock().unlock();
+            }
         }
         return result;
     }
@@ -604,7 +821,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         if (!Db.db.isInTransaction()) {
             try {
                 commitRow(oldRow, newRow);
-                commitIndex();
+                updateIndex();
             } catch (SQLException exc) {
                 Logger.logErrorMessage("Unable to update the Lucene index", exc);
             }
@@ -614,9 +831,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         // Save the table update until the update is committed or rolled back.  Note
         // that the current thread is the application thread performing the update operation.
         //
-        synchronized(tableUpdates) {
-            tableUpdates.add(new TableUpdate(Thread.currentThread(), oldRow, newRow));
-        }
+        tableUpdates.get().add(new TableUpdate(oldRow, newRow));
         //
         // Register our transaction callback
         //
@@ -628,33 +843,24 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
      */
     @Override
     public void commit() {
-        Thread thread = Thread.currentThread();
+        //
+        // Update the Lucene index.  Note that a database transaction is associated
+        // with a single thread, so the updates for the current thread are the updates
+        // for the transaction being committed.
+        //
+        List<TableUpdate> updates = tableUpdates.get();
+        if (updates.isEmpty()) {
+            return;
+        }
         try {
-            //
-            // Update the Lucene index.  Note that a database transaction is associated
-            // with a single thread.  So we will commit just those updates generated
-            // by the current thread.
-            //
-            boolean commit = false;
-            synchronized(tableUpdates) {
-                Iterator<TableUpdate> updateIt = tableUpdates.iterator();
-                while (updateIt.hasNext()) {
-                    TableUpdate update = updateIt.next();
-                    if (update.getThread() == thread) {
-                        commitRow(update.getOldRow(), update.getNewRow());
-                        updateIt.remove();
-                        commit = true;
-                    }
-                }
-            }
-            //
-            // Commit the index updates
-            //
-            if (commit) {
-                commitIndex();
+            for (TableUpdate update : updates) {
+                commitRow(update.getOldRow(), update.getNewRow());
             }
+            updateIndex();
         } catch (SQLException exc) {
             Logger.logErrorMessage("Unable to update the Lucene index", exc);
+        } finally {
+            updates.clear();
         }
     }
 
@@ -663,16 +869,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
      */
     @Override
     public void rollback() {
-        Thread thread = Thread.currentThread();
-        synchronized(tableUpdates) {
-            Iterator<TableUpdate> it = tableUpdates.iterator();
-            while (it.hasNext()) {
-                TableUpdate update = it.next();
-                if (update.getThread() == thread) {
-                    it.remove();
-                }
-            }
-        }
+        tableUpdates.get().clear();
     }
 
     /**
@@ -695,15 +892,18 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     }
 
     /**
-     * Reindex the table
+     * Reindex the table.  The index updates are not committed.
      *
      * @param   conn                SQL connection
+     * @param   progress            Reindex progress
      * @throws  SQLException        Unable to reindex table
      */
-    private void reindexTable(Connection conn) throws SQLException {
+    private void reindexTable(Connection conn, ReindexProgress progress) throws SQLException {
         if (indexColumns.isEmpty()) {
+            progress.finish();
             return;
         }
+        progress.start();
         //
         // Build the SELECT statement for just the indexed columns
         //
@@ -715,23 +915,24 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         sb.append(" FROM ").append(tableName);
         Object[] row = new Object[columnNames.size()];
         //
-        // Index each row in the table
+        // Index each row in the table.  The rows are fetched as they are read, so
+        // the table is not loaded into memory.
         //
-        try (Statement qstmt = conn.createStatement();
-                ResultSet rs = qstmt.executeQuery(sb.toString())) {
-            while (rs.next()) {
-                row[dbColumn] = rs.getObject(1);
-                int i = 2;
-                for (int index : indexColumns) {
-                    row[index] = rs.getObject(i++);
+        try (Statement qstmt = conn.createStatement()) {
+            qstmt.setFetchSize(1000);
+            try (ResultSet rs = qstmt.executeQuery(sb.toString())) {
+                while (rs.next()) {
+                    row[dbColumn] = rs.getObject(1);
+                    int i = 2;
+                    for (int index : indexColumns) {
+                        row[index] = rs.getObject(i++);
+                    }
+                    indexRow(row);
+                    progress.rowCount++;
                 }
-                indexRow(row);
             }
         }
-        //
-        // Commit the index updates
-        //
-        commitIndex();
+        progress.finish();
     }
 
     /**
@@ -784,26 +985,80 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         }
     }
 
+    /**
+     * Make committed table changes visible to searches.  The index updates are committed
+     * immediately unless the index is being committed by the background thread.
+     *
+     * @throws  SQLException        Unable to commit index updates
+     */
+    private static void updateIndex() throws SQLException {
+        if (commitInterval == 0) {
+            commitIndex();
+            return;
+        }
+        refreshSearcher = true;
+        synchronized(pendingLock) {
+            if (!commitPending) {
+                commitPending = true;
+                try {
+                    Path pendingPath = indexPath.resolve(PENDING_FILE);
+                    if (!Files.exists(pendingPath)) {
+                        Files.createFile(pendingPath);
+                    }
+                } catch (IOException exc) {
+                    Logger.logErrorMessage("Unable to create the Lucene index marker file", exc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Commit pending index updates (called by the index commit thread)
+     */
+    private static void commitPendingUpdates() {
+        try {
+            synchronized(pendingLock) {
+                if (!commitPending) {
+                    return;
+                }
+            }
+            commitIndex();
+        } catch (Exception exc) {
+            Logger.logErrorMessage("Unable to commit Lucene index updates", exc);
+        }
+    }
+
     /**
      * Commit the index updates
      *
      * @throws  SQLException        Unable to commit index updates
      */
     private static void commitIndex() throws SQLException {
-        indexLock.writeLock().lock();
+        indexLock.readLock().lock();
         try {
+            if (indexWriter == null) {
+                return;
+            }
+            //
+            // Index updates made after the pending flag is cleared will set it again, so
+            // the marker file is kept until those updates have been committed as well
+            //
+            synchronized(pendingLock) {
+                commitPending = false;
+            }
             indexWriter.commit();
-            DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-            if (newReader != null) {
-                indexReader.close();
-                indexReader = newReader;
-                indexSearcher = new IndexSearcher(indexReader);
+            refreshSearcher = false;
+            searcherManager.maybeRefresh();
+            synchronized(pendingLock) {
+                if (!commitPending) {
+                    Files.deleteIfExists(indexPath.resolve(PENDING_FILE));
+                }
             }
         } catch (IOException exc) {
             Logger.logErrorMessage("Unable to commit Lucene index updates", exc);
             throw new SQLException("Unable to commit Lucene index updates", exc);
         } finally {
-            indexLock.writeLock().unlock();
+            indexLock.readLock().unlock();
         }
     }
 
@@ -860,6 +1115,9 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
                         directory = FSDirectory.open(indexPath);
                     }
                     if (indexWriter == null) {
+                        if (Files.exists(indexPath.resolve(PENDING_FILE))) {
+                            rebuildIndex = true;
+                        }
                         IndexWriterConfig config = new IndexWriterConfig(analyzer);
                         config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
                         indexWriter = new IndexWriter(directory, config);
@@ -867,8 +1125,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
                         document.add(new StringField("_QUERY", "_CONTROL_DOCUMENT_", Field.Store.YES));
                         indexWriter.updateDocument(new Term("_QUERY", "_CONTROL_DOCUMENT_"), document);
                         indexWriter.commit();
-                        indexReader = DirectoryReader.open(directory);
-                        indexSearcher = new IndexSearcher(indexReader);
+                        searcherManager = new SearcherManager(indexWriter, true, null);
                     }
                 } finally {
                     indexLock.writeLock().unlock();
@@ -890,16 +1147,22 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     private static void removeIndexAccess() {
         indexLock.writeLock().lock();
         try {
-            if (indexSearcher != null) {
-                indexSearcher = null;
-            }
-            if (indexReader != null) {
-                indexReader.close();
-                indexReader = null;
+            if (searcherManager != null) {
+                searcherManager.close();
+                searcherManager = null;
             }
             if (indexWriter != null) {
+                //
+                // Closing the index writer commits any pending index updates
+                //
                 indexWriter.close();
                 indexWriter = null;
+                synchronized(pendingLock) {
+                    if (!rebuildIndex) {
+                        Files.deleteIfExists(indexPath.resolve(PENDING_FILE));
+                    }
+                    commitPending = false;
+                }
             }
         } catch (IOException exc) {
             Logger.logErrorMessage("Unable to remove Lucene index access", exc);
@@ -931,6 +1194,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
                     Files.delete(path);
                 }
             }
+            rebuildIndex = false;
             Logger.logInfoMessage("Lucene search index deleted");
             //
             // Get Lucene index access once more
@@ -944,14 +1208,57 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         }
     }
 
+    /**
+     * Index rebuild progress for a table
+     */
+    public static final class ReindexProgress {
+
+        /** Table name */
+        private final String table;
+
+        /** Number of rows indexed */
+        private volatile long rowCount;
+
+        /** Start time or 0 if the table has not been started */
+        private volatile long startTime;
+
+        /** Duration of the table rebuild (milliseconds) or -1 if the table is not done */
+        private volatile long reindexTime = -1;
+
+        private ReindexProgress(String table) {
+            this.table = table;
+        }
+
+        private void start() {
+            startTime = System.currentTimeMillis();
+        }
+
+        private void finish() {
+            reindexTime = (startTime != 0 ? System.currentTimeMillis() - startTime : 0);
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        public boolean isDone() {
+            return reindexTime >= 0;
+        }
+
+        public long getReindexTime() {
+            return isDone() ? reindexTime : (startTime != 0 ? System.currentTimeMillis() - startTime : 0);
+        }
+    }
+
     /**
      * Table update
      */
     private static class TableUpdate {
 
-        /** Transaction thread */
-        private final Thread thread;
-
         /** Old table row */
         private final Object[] oldRow;
 
@@ -961,25 +1268,14 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
         /**
          * Create the table update
          *
-         * @param   thread          Transaction thread
          * @param   oldRow          Old table row or null
          * @param   newRow          New table row or null
          */
-        public TableUpdate(Thread thread, Object[] oldRow, Object[] newRow) {
-            this.thread = thread;
+        public TableUpdate(Object[] oldRow, Object[] newRow) {
             this.oldRow = oldRow;
             this.newRow = newRow;
         }
 
-        /**
-         * Return the transaction thread
-         *
-         * @return                  Transaction thread
-         */
-        public Thread getThread() {
-            return thread;
-        }
-
         /**
          * Return the old table row
          *
@@ -52,6 +52,7 @@ public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
                  PreparedStatement pstmt = con.prepareStatement("DELETE FROM " + table + " WHERE transaction_timestamp < ?")) {
                 pstmt.setInt(1, Nxt.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME);
                 int deleted = pstmt.executeUpdate();
+                TableTrimmer.rowsDeleted(deleted);
                 if (deleted > 0) {
                     Logger.logDebugMessage("Deleted " + deleted + " expired prunable data from " + table);
                 }
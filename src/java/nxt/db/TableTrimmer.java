@@ -0,0 +1,366 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nxt.Db;
+import nxt.Nxt;
+import nxt.util.Logger;
+
+/**
+ * TableTrimmer removes obsolete rows from the derived tables.
+ *
+ * Rows are deleted in chunks of nxt.trimChunkSize rows.  When trimming in the
+ * background, the database transaction is committed and the blockchain lock is
+ * released after each chunk so a new block can be pushed before trimming resumes.
+ * Trimming is cancelled if the blockchain is scanned while the lock is released.
+ *
+ * The progress of each table is tracked so the trim backlog can be monitored and
+ * the chunk size and delay can be tuned for the available I/O capacity.
+ */
+public final class TableTrimmer {
+
+    /** Maximum number of rows deleted before yielding */
+    private static final int chunkSize = Math.max(Nxt.getIntProperty("nxt.trimChunkSize", 1000), 10);
+
+    /** Delay between chunks (milliseconds) */
+    private static final int chunkDelay = Nxt.getIntProperty("nxt.trimChunkDelay", 0);
+
+    /** Table progress */
+    private static final Map<String, TableProgress> progressMap = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /** Active trim for the current thread */
+    private static final ThreadLocal<Trim> activeTrim = new ThreadLocal<>();
+
+    /** Scan generation */
+    private static volatile int generation;
+
+    /** Current trim height */
+    private static volatile int trimHeight;
+
+    private TableTrimmer() {}
+
+    /**
+     * Trim the derived tables
+     *
+     * The caller must be in a database transaction and must not hold the blockchain lock
+     * when trimming in the background.
+     *
+     * @param   tables              Derived tables
+     * @param   height              Trim height
+     * @param   background          TRUE to yield to block processing between chunks
+     */
+    public static void trim(List<DerivedDbTable> tables, int height, boolean background) {
+        if (!Db.db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        trimHeight = height;
+        Trim trim = new Trim(background);
+        activeTrim.set(trim);
+        long start = System.currentTimeMillis();
+        try {
+            for (DerivedDbTable table : tables) {
+                TableProgress progress = getTableProgress(table.toString());
+                trim.progress = progress;
+                progress.start(height);
+                Nxt.getBlockchain().readLock();
+                try {
+                    table.trim(height);
+                    Db.db.commitTransaction();
+                } finally {
+                    Nxt.getBlockchain().readUnlock();
+                }
+                progress.finish();
+            }
+        } catch (TrimCancelledException exc) {
+            Db.db.rollbackTransaction();
+            if (trim.progress != null) {
+                trim.progress.cancel();
+            }
+            Logger.logDebugMessage("Trimming of derived tables at height " + height + " cancelled by blockchain scan");
+            return;
+        } finally {
+            activeTrim.remove();
+        }
+        if (background) {
+            Logger.logDebugMessage("Trimmed derived tables at height " + height + " in "
+                    + (System.currentTimeMillis() - start) + " ms, " + trim.chunkCount + " chunks");
+        }
+    }
+
+    /**
+     * Cancel background trimming.  This is called with the blockchain write lock held
+     * when the derived tables are about to be rebuilt.
+     */
+    public static void cancel() {
+        generation++;
+    }
+
+    /**
+     * Delete rows in chunks.  The statement must have a LIMIT parameter and is executed
+     * until fewer than the chunk size rows are deleted.
+     *
+     * @param   pstmt               Prepared DELETE statement
+     * @param   limitIndex          Index of the LIMIT parameter
+     * @return                      Number of rows deleted
+     * @throws  SQLException        SQL error occurred
+     */
+    public static int deleteRows(PreparedStatement pstmt, int limitIndex) throws SQLException {
+        int total = 0;
+        int deleted;
+        do {
+            pstmt.setInt(limitIndex, chunkSize);
+            deleted = pstmt.executeUpdate();
+            total += deleted;
+            rowsDeleted(deleted);
+        } while (deleted >= chunkSize);
+        return total;
+    }
+
+    /**
+     * Record deleted rows for the table being trimmed.  The current chunk is completed
+     * if the chunk size has been reached.
+     *
+     * @param   count               Number of rows deleted
+     */
+    public static void rowsDeleted(int count) {
+        Trim trim = activeTrim.get();
+        if (trim == null || count == 0) {
+            return;
+        }
+        trim.progress.rowsDeleted += count;
+        trim.chunkRows += count;
+        if (trim.chunkRows >= chunkSize) {
+            trim.chunkRows = 0;
+            trim.chunkCount++;
+            trim.progress.chunkCount++;
+            if (trim.background) {
+                yieldChunk(trim);
+            }
+        }
+    }
+
+    /**
+     * Commit the current chunk and allow blocks to be pushed before trimming continues
+     *
+     * @param   trim                Active trim
+     */
+    private static void yieldChunk(Trim trim) {
+        Db.db.commitTransaction();
+        Nxt.getBlockchain().readUnlock();
+        try {
+            if (chunkDelay > 0) {
+                Thread.sleep(chunkDelay);
+            } else {
+                Thread.yield();
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } finally {
+            Nxt.getBlockchain().readLock();
+        }
+        if (trim.generation != generation) {
+            throw new TrimCancelledException();
+        }
+    }
+
+    /**
+     * Return the table progress
+     *
+     * @param   table               Table name
+     * @return                      Table progress
+     */
+    private static TableProgress getTableProgress(String table) {
+        synchronized (progressMap) {
+            return progressMap.computeIfAbsent(table, TableProgress::new);
+        }
+    }
+
+    /**
+     * Return the progress for each trimmed table
+     *
+     * @return                      Table progress list
+     */
+    public static List<TableProgress> getProgress() {
+        synchronized (progressMap) {
+            return new ArrayList<>(progressMap.values());
+        }
+    }
+
+    /**
+     * Return the trim backlog.  This is the number of tables that have not been trimmed
+     * to the current trim height.
+     *
+     * @return                      Number of tables waiting to be trimmed
+     */
+    public static int getBacklog() {
+        int height = trimHeight;
+        int backlog = 0;
+        for (TableProgress progress : getProgress()) {
+            if (progress.getTrimHeight() < height) {
+                backlog++;
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * Return the current trim height
+     *
+     * @return                      Trim height
+     */
+    public static int getTrimHeight() {
+        return trimHeight;
+    }
+
+    /**
+     * Return the chunk size
+     *
+     * @return                      Maximum number of rows deleted before yielding
+     */
+    public static int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Return the chunk delay
+     *
+     * @return                      Delay between chunks (milliseconds)
+     */
+    public static int getChunkDelay() {
+        return chunkDelay;
+    }
+
+    /**
+     * Active trim
+     */
+    private static final class Trim {
+
+        /** Yield between chunks */
+        private final boolean background;
+
+        /** Scan generation when the trim started */
+        private final int generation = TableTrimmer.generation;
+
+        /** Progress of the table being trimmed */
+        private TableProgress progress;
+
+        /** Rows deleted in the current chunk */
+        private int chunkRows;
+
+        /** Number of chunks completed */
+        private int chunkCount;
+
+        private Trim(boolean background) {
+            this.background = background;
+        }
+    }
+
+    /**
+     * Trim progress for a table
+     */
+    public static final class TableProgress {
+
+        /** Table name */
+        private final String table;
+
+        /** Height the table has been trimmed to */
+        private volatile int trimHeight;
+
+        /** Height the table is being trimmed to or 0 if the table is not being trimmed */
+        private volatile int pendingHeight;
+
+        /** Number of rows deleted by the current or last trim */
+        private volatile long rowsDeleted;
+
+        /** Number of chunks completed by the current or last trim */
+        private volatile int chunkCount;
+
+        /** Start time of the current or last trim */
+        private volatile long startTime;
+
+        /** Duration of the last trim (milliseconds) */
+        private volatile long trimTime;
+
+        private TableProgress(String table) {
+            this.table = table;
+        }
+
+        private void start(int height) {
+            pendingHeight = height;
+            rowsDeleted = 0;
+            chunkCount = 0;
+            startTime = System.currentTimeMillis();
+        }
+
+        private void finish() {
+            trimHeight = pendingHeight;
+            pendingHeight = 0;
+            trimTime = System.currentTimeMillis() - startTime;
+        }
+
+        private void cancel() {
+            pendingHeight = 0;
+            trimTime = System.currentTimeMillis() - startTime;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public int getTrimHeight() {
+            return trimHeight;
+        }
+
+        public boolean isTrimming() {
+            return pendingHeight != 0;
+        }
+
+        public long getRowsDeleted() {
+            return rowsDeleted;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        public long getTrimTime() {
+            return isTrimming() ? System.currentTimeMillis() - startTime : trimTime;
+        }
+    }
+
+    /**
+     * Trimming was cancelled by a blockchain scan
+     */
+    private static final class TrimCancelledException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private TrimCancelledException() {
+            super("Trimming cancelled");
+        }
+    }
+}
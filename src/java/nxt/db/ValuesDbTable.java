@@ -48,6 +48,10 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         db.clearCache(table);
     }
 
+    public final DbKey.Factory<T> getDbKeyFactory() {
+        return dbKeyFactory;
+    }
+
     public final List<V> get(DbKey dbKey) {
         List<V> values;
         if (db.isInTransaction()) {
@@ -50,6 +50,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
+        removeFromCache(dbKey);
         try (Connection con = db.getConnection();
              PreparedStatement pstmtCount = con.prepareStatement("SELECT 1 FROM " + table
                      + dbKeyFactory.getPKClause() + " AND height < ? LIMIT 1")) {
@@ -135,7 +136,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
                      + " AND height < ? AND height >= 0");
             PreparedStatement pstmtDeleteDeleted = con.prepareStatement("DELETE FROM " + table + " WHERE height < ? AND height >= 0 AND latest = FALSE "
                     + " AND (" + dbKeyFactory.getPKColumns() + ") NOT IN (SELECT (" + dbKeyFactory.getPKColumns() + ") FROM "
-                    + table + " WHERE height >= ?)")) {
+                    + table + " WHERE height >= ?) LIMIT ?")) {
             pstmtSelect.setInt(1, height);
             try (ResultSet rs = pstmtSelect.executeQuery()) {
                 while (rs.next()) {
@@ -144,11 +145,11 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
                     int i = 1;
                     i = dbKey.setPK(pstmtDelete, i);
                     pstmtDelete.setInt(i, maxHeight);
-                    pstmtDelete.executeUpdate();
+                    TableTrimmer.rowsDeleted(pstmtDelete.executeUpdate());
                 }
                 pstmtDeleteDeleted.setInt(1, height);
                 pstmtDeleteDeleted.setInt(2, height);
-                pstmtDeleteDeleted.executeUpdate();
+                TableTrimmer.deleteRows(pstmtDeleteDeleted, 3);
             }
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -269,6 +269,9 @@ public enum APIEnum {
     SET_LOGGING("setLogging", SetLogging.instance),
     SHUTDOWN("shutdown", Shutdown.instance),
     TRIM_DERIVED_TABLES("trimDerivedTables", TrimDerivedTables.instance),
+    GET_TRIM_STATUS("getTrimStatus", GetTrimStatus.instance),
+    GET_ENTITY_CACHE_STATUS("getEntityCacheStatus", GetEntityCacheStatus.instance),
+    EXPORT_SNAPSHOT("exportSnapshot", ExportSnapshot.instance),
     HASH("hash", Hash.instance),
     FULL_HASH_TO_ID("fullHashToId", FullHashToId.instance),
     SET_PHASING_ONLY_CONTROL("setPhasingOnlyControl", SetPhasingOnlyControl.instance),
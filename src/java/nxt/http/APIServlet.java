@@ -119,6 +119,17 @@ public final class APIServlet extends HttpServlet {
             return true;
         }
 
+        /**
+         * Check if the request can be processed without holding the blockchain read lock.  The
+         * request may be processed more than once and must not modify any state or write to
+         * the servlet response.
+         *
+         * @return                  TRUE if an optimistic read is allowed
+         */
+        protected boolean allowOptimisticRead() {
+            return !requirePost() && !startDbTransaction() && !requirePassword();
+        }
+
         protected boolean requireBlockchain() {
             return true;
         }
@@ -130,6 +141,7 @@ public final class APIServlet extends HttpServlet {
     }
 
     private static final boolean enforcePost = Nxt.getBooleanProperty("nxt.apiServerEnforcePOST");
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 2;
     static final Map<String,APIRequestHandler> apiRequestHandlers;
     static final Map<String,APIRequestHandler> disabledRequestHandlers;
 
@@ -241,34 +253,41 @@ public final class APIServlet extends HttpServlet {
             final long requireLastBlockId = apiRequestHandler.allowRequiredBlockParameters() ?
                     ParameterParser.getUnsignedLong(req, "requireLastBlock", false) : 0;
             if (requireBlockId != 0 || requireLastBlockId != 0) {
+                //
+                // Process a read-only request without obtaining the blockchain read lock.  The
+                // response is discarded if a block was pushed or popped off while the request
+                // was being processed, and the request is then processed again.  This keeps
+                // long-running requests from delaying block processing and keeps the other
+                // API requests from queuing behind a waiting block push.
+                //
+                if (apiRequestHandler.allowOptimisticRead()) {
+                    for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+                        long stamp = Nxt.getBlockchain().tryOptimisticRead();
+                        if (stamp == 0) {
+                            break;
+                        }
+                        try {
+                            JSONStreamAware optimisticResponse = processRequest(apiRequestHandler, req, resp,
+                                    requireBlockId, requireLastBlockId);
+                            if (Nxt.getBlockchain().validateOptimisticRead(stamp)) {
+                                response = optimisticResponse;
+                                return;
+                            }
+                        } catch (NxtException | RuntimeException e) {
+                            if (Nxt.getBlockchain().validateOptimisticRead(stamp)) {
+                                throw e;
+                            }
+                        }
+                    }
+                }
                 Nxt.getBlockchain().readLock();
-            }
-            try {
                 try {
-                    if (apiRequestHandler.startDbTransaction()) {
-                        Db.db.beginTransaction();
-                    }
-                    if (requireBlockId != 0 && !Nxt.getBlockchain().hasBlock(requireBlockId)) {
-                        response = REQUIRED_BLOCK_NOT_FOUND;
-                        return;
-                    }
-                    if (requireLastBlockId != 0 && requireLastBlockId != Nxt.getBlockchain().getLastBlock().getId()) {
-                        response = REQUIRED_LAST_BLOCK_NOT_FOUND;
-                        return;
-                    }
-                    response = apiRequestHandler.processRequest(req, resp);
-                    if (requireLastBlockId == 0 && requireBlockId != 0 && response instanceof JSONObject) {
-                        ((JSONObject) response).put("lastBlock", Nxt.getBlockchain().getLastBlock().getStringId());
-                    }
+                    response = processRequest(apiRequestHandler, req, resp, requireBlockId, requireLastBlockId);
                 } finally {
-                    if (apiRequestHandler.startDbTransaction()) {
-                        Db.db.endTransaction();
-                    }
-                }
-            } finally {
-                if (requireBlockId != 0 || requireLastBlockId != 0) {
                     Nxt.getBlockchain().readUnlock();
                 }
+            } else {
+                response = processRequest(apiRequestHandler, req, resp, 0, 0);
             }
         } catch (ParameterException e) {
             response = e.getErrorResponse();
@@ -297,4 +316,29 @@ public final class APIServlet extends HttpServlet {
 
     }
 
+    private static JSONStreamAware processRequest(APIRequestHandler apiRequestHandler, HttpServletRequest req,
+                                                  HttpServletResponse resp, long requireBlockId, long requireLastBlockId)
+            throws NxtException {
+        if (apiRequestHandler.startDbTransaction()) {
+            Db.db.beginTransaction();
+        }
+        try {
+            if (requireBlockId != 0 && !Nxt.getBlockchain().hasBlock(requireBlockId)) {
+                return REQUIRED_BLOCK_NOT_FOUND;
+            }
+            if (requireLastBlockId != 0 && requireLastBlockId != Nxt.getBlockchain().getLastBlock().getId()) {
+                return REQUIRED_LAST_BLOCK_NOT_FOUND;
+            }
+            JSONStreamAware response = apiRequestHandler.processRequest(req, resp);
+            if (requireLastBlockId == 0 && requireBlockId != 0 && response instanceof JSONObject) {
+                ((JSONObject) response).put("lastBlock", Nxt.getBlockchain().getLastBlock().getStringId());
+            }
+            return response;
+        } finally {
+            if (apiRequestHandler.startDbTransaction()) {
+                Db.db.endTransaction();
+            }
+        }
+    }
+
 }
@@ -95,4 +95,9 @@ public final class DownloadPrunableMessage extends APIServlet.APIRequestHandler
     protected JSONStreamAware processRequest(HttpServletRequest request) throws NxtException {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    protected boolean allowOptimisticRead() {
+        return false;
+    }
 }
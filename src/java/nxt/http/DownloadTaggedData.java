@@ -89,4 +89,9 @@ public final class DownloadTaggedData extends APIServlet.APIRequestHandler {
     protected JSONStreamAware processRequest(HttpServletRequest request) throws NxtException {
         throw new UnsupportedOperationException();
     }
+
+    @Override
+    protected boolean allowOptimisticRead() {
+        return false;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.http;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.Snapshot;
+import nxt.util.Convert;
+
+/**
+ * Write a snapshot of the current blockchain state to the snapshot directory
+ * specified by nxt.snapshotDirectory.  A new node can be started using the
+ * snapshot by setting nxt.importSnapshot to the snapshot file and setting
+ * nxt.importSnapshotBlockId and nxt.importSnapshotStateDigest to the returned
+ * block identifier and state digest.
+ */
+public final class ExportSnapshot extends APIServlet.APIRequestHandler {
+
+    static final ExportSnapshot instance = new ExportSnapshot();
+
+    private ExportSnapshot() {
+        super(new APITag[] {APITag.DEBUG}, "file");
+    }
+
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) {
+        String fileName = Convert.emptyToNull(req.getParameter("file"));
+        if (fileName == null) {
+            return JSONResponses.missing("file");
+        }
+        JSONObject response = new JSONObject();
+        try {
+            Snapshot.Info snapshot = Snapshot.exportSnapshot(fileName);
+            response.put("height", snapshot.getBlock().getHeight());
+            response.put("block", snapshot.getBlock().getStringId());
+            response.put("stateDigest", Convert.toHexString(snapshot.getStateDigest()));
+            response.put("done", true);
+        } catch (IllegalArgumentException e) {
+            return JSONResponses.incorrect("file", e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            JSONData.putException(response, e);
+        }
+        return response;
+    }
+
+    @Override
+    protected final boolean requirePost() {
+        return true;
+    }
+
+    @Override
+    protected boolean requirePassword() {
+        return true;
+    }
+
+    @Override
+    protected boolean allowRequiredBlockParameters() {
+        return false;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.http;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.db.EntityCache;
+
+/**
+ * <p>The GetEntityCacheStatus API returns the statistics for the shared entity caches.</p>
+ *
+ * <p>Response parameters:</p>
+ * <ul>
+ * <li>caches - An array of cache entries containing the table name, the number of
+ * cached entities, the maximum number of cached entities and the number of hits,
+ * misses, evictions and invalidations</li>
+ * </ul>
+ */
+public final class GetEntityCacheStatus extends APIServlet.APIRequestHandler {
+
+    /** GetEntityCacheStatus instance */
+    static final GetEntityCacheStatus instance = new GetEntityCacheStatus();
+
+    /**
+     * Create the GetEntityCacheStatus instance
+     */
+    private GetEntityCacheStatus() {
+        super(new APITag[] {APITag.DEBUG});
+    }
+
+    /**
+     * Process the GetEntityCacheStatus API request
+     *
+     * @param   req                 API request
+     * @return                      API response
+     */
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONArray cachesJSON = new JSONArray();
+        for (EntityCache<?> cache : EntityCache.getCaches()) {
+            JSONObject cacheJSON = new JSONObject();
+            cacheJSON.put("table", cache.getTable());
+            cacheJSON.put("size", cache.getSize());
+            cacheJSON.put("maxSize", cache.getMaxSize());
+            cacheJSON.put("hits", cache.getHits());
+            cacheJSON.put("misses", cache.getMisses());
+            cacheJSON.put("evictions", cache.getEvictions());
+            cacheJSON.put("invalidations", cache.getInvalidations());
+            cachesJSON.add(cacheJSON);
+        }
+        JSONObject response = new JSONObject();
+        response.put("caches", cachesJSON);
+        return response;
+    }
+
+    @Override
+    protected boolean allowRequiredBlockParameters() {
+        return false;
+    }
+
+    @Override
+    protected boolean requireBlockchain() {
+        return false;
+    }
+
+}
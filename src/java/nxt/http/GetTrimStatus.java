@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.http;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.db.TableTrimmer;
+
+/**
+ * <p>The GetTrimStatus API returns the progress of derived table trimming.</p>
+ *
+ * <p>Response parameters:</p>
+ * <ul>
+ * <li>trimHeight - The current trim height</li>
+ * <li>backlog - The number of tables not yet trimmed to the current trim height</li>
+ * <li>chunkSize - The maximum number of rows deleted before yielding to block processing</li>
+ * <li>chunkDelay - The delay between chunks in milliseconds</li>
+ * <li>tables - An array of table progress entries</li>
+ * </ul>
+ */
+public final class GetTrimStatus extends APIServlet.APIRequestHandler {
+
+    /** GetTrimStatus instance */
+    static final GetTrimStatus instance = new GetTrimStatus();
+
+    /**
+     * Create the GetTrimStatus instance
+     */
+    private GetTrimStatus() {
+        super(new APITag[] {APITag.DEBUG});
+    }
+
+    /**
+     * Process the GetTrimStatus API request
+     *
+     * @param   req                 API request
+     * @return                      API response
+     */
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONArray tablesJSON = new JSONArray();
+        for (TableTrimmer.TableProgress progress : TableTrimmer.getProgress()) {
+            JSONObject tableJSON = new JSONObject();
+            tableJSON.put("table", progress.getTable());
+            tableJSON.put("trimHeight", progress.getTrimHeight());
+            tableJSON.put("isTrimming", progress.isTrimming());
+            tableJSON.put("rowsDeleted", progress.getRowsDeleted());
+            tableJSON.put("chunks", progress.getChunkCount());
+            tableJSON.put("time", progress.getTrimTime());
+            tablesJSON.add(tableJSON);
+        }
+        JSONObject response = new JSONObject();
+        response.put("trimHeight", TableTrimmer.getTrimHeight());
+        response.put("backlog", TableTrimmer.getBacklog());
+        response.put("chunkSize", TableTrimmer.getChunkSize());
+        response.put("chunkDelay", TableTrimmer.getChunkDelay());
+        response.put("tables", tablesJSON);
+        return response;
+    }
+
+    @Override
+    protected boolean allowRequiredBlockParameters() {
+        return false;
+    }
+
+    @Override
+    protected boolean requireBlockchain() {
+        return false;
+    }
+
+}
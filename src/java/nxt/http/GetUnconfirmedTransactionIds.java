@@ -28,7 +28,6 @@ import org.json.simple.JSONStreamAware;
 
 import nxt.Nxt;
 import nxt.Transaction;
-import nxt.db.DbIterator;
 import nxt.db.FilteringIterator;
 import nxt.util.Convert;
 
@@ -49,15 +48,12 @@ public final class GetUnconfirmedTransactionIds extends APIServlet.APIRequestHan
 
         JSONArray transactionIds = new JSONArray();
         if (accountIds.isEmpty()) {
-            try (DbIterator<? extends Transaction> transactionsIterator = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions(firstIndex, lastIndex)) {
-                while (transactionsIterator.hasNext()) {
-                    Transaction transaction = transactionsIterator.next();
-                    transactionIds.add(transaction.getStringId());
-                }
+            for (Transaction transaction : Nxt.getTransactionProcessor().getAllUnconfirmedTransactions(firstIndex, lastIndex)) {
+                transactionIds.add(transaction.getStringId());
             }
         } else {
             try (FilteringIterator<? extends Transaction> transactionsIterator = new FilteringIterator<> (
-                    Nxt.getTransactionProcessor().getAllUnconfirmedTransactions(0, -1),
+                    Nxt.getTransactionProcessor().getAllUnconfirmedTransactions().iterator(),
                     transaction -> accountIds.contains(transaction.getSenderId()) || accountIds.contains(transaction.getRecipientId()),
                     firstIndex, lastIndex)) {
                 while (transactionsIterator.hasNext()) {
@@ -28,7 +28,6 @@ import org.json.simple.JSONStreamAware;
 
 import nxt.Nxt;
 import nxt.Transaction;
-import nxt.db.DbIterator;
 import nxt.db.FilteringIterator;
 import nxt.util.Convert;
 
@@ -53,27 +52,24 @@ public final class GetUnconfirmedTransactions extends APIServlet.APIRequestHandl
 
         JSONArray transactions = new JSONArray();
         if (accountIds.isEmpty()) {
-            try (DbIterator<? extends Transaction> transactionsIterator = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions(firstIndex, lastIndex)) {
-                while (transactionsIterator.hasNext()) {
-                    Transaction transaction = transactionsIterator.next();
-                    
-                    if (withMessage) {
-    	            	if (transaction.getMessage() == null) continue;
-    	
-    	            	if (messageToFilter != null && !messageToFilter.isEmpty()) {
-    	                	String messageString = Convert.toString(transaction.getMessage().getMessage(), transaction.getMessage().isText());
-    	                	if (!messageString.contains(messageToFilter)) {
-    	                		continue;
-    	                	}
-    	                }
-                    }
-                    
-                    transactions.add(JSONData.unconfirmedTransaction(transaction));
+            for (Transaction transaction : Nxt.getTransactionProcessor().getAllUnconfirmedTransactions(firstIndex, lastIndex)) {
+                
+                if (withMessage) {
+	            	if (transaction.getMessage() == null) continue;
+	
+	            	if (messageToFilter != null && !messageToFilter.isEmpty()) {
+	                	String messageString = Convert.toString(transaction.getMessage().getMessage(), transaction.getMessage().isText());
+	                	if (!messageString.contains(messageToFilter)) {
+	                		continue;
+	                	}
+	                }
                 }
+                
+                transactions.add(JSONData.unconfirmedTransaction(transaction));
             }
         } else {
             try (FilteringIterator<? extends Transaction> transactionsIterator = new FilteringIterator<> (
-                    Nxt.getTransactionProcessor().getAllUnconfirmedTransactions(0, -1),
+                    Nxt.getTransactionProcessor().getAllUnconfirmedTransactions().iterator(),
                     transaction -> accountIds.contains(transaction.getSenderId()) || accountIds.contains(transaction.getRecipientId()),
                     firstIndex, lastIndex)) {
                 while (transactionsIterator.hasNext()) {
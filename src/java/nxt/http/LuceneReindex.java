@@ -23,29 +23,62 @@ import java.sql.SQLException;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import nxt.Db;
 import nxt.db.FullTextTrigger;
 
+/**
+ * <p>The LuceneReindex API rebuilds the Lucene search index.  The indexed tables are
+ * read in parallel.</p>
+ *
+ * <p>Request parameters:</p>
+ * <ul>
+ * <li>status - Specify true to return the progress of the current or last index
+ * rebuild without starting a new one</li>
+ * </ul>
+ *
+ * <p>Response parameters:</p>
+ * <ul>
+ * <li>done - TRUE if the index was rebuilt by this request</li>
+ * <li>isReindexing - TRUE if an index rebuild is in progress</li>
+ * <li>tables - An array of table progress entries</li>
+ * </ul>
+ */
 public final class LuceneReindex extends APIServlet.APIRequestHandler {
 
     static final LuceneReindex instance = new LuceneReindex();
 
     private LuceneReindex() {
-        super(new APITag[] {APITag.DEBUG});
+        super(new APITag[] {APITag.DEBUG}, "status");
     }
 
     @Override
     protected JSONStreamAware processRequest(HttpServletRequest req) {
         JSONObject response = new JSONObject();
-        try (Connection con = Db.db.getConnection()) {
-            FullTextTrigger.reindex(con);
-            response.put("done", true);
-        } catch (SQLException e) {
-            JSONData.putException(response, e);
+        if (!"true".equalsIgnoreCase(req.getParameter("status")) && !FullTextTrigger.isReindexing()) {
+            try (Connection con = Db.db.getConnection()) {
+                FullTextTrigger.reindex(con);
+                response.put("done", true);
+            } catch (SQLException e) {
+                JSONData.putException(response, e);
+            }
+        } else {
+            response.put("done", false);
+        }
+        JSONArray tablesJSON = new JSONArray();
+        for (FullTextTrigger.ReindexProgress progress : FullTextTrigger.getReindexProgress()) {
+            JSONObject tableJSON = new JSONObject();
+            tableJSON.put("table", progress.getTable());
+            tableJSON.put("rows", progress.getRowCount());
+            tableJSON.put("isDone", progress.isDone());
+            tableJSON.put("time", progress.getReindexTime());
+            tablesJSON.add(tableJSON);
         }
+        response.put("isReindexing", FullTextTrigger.isReindexing());
+        response.put("tables", tablesJSON);
         return response;
     }
 
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.util.JSON;
+
+/**
+ * Process a transaction inventory announced by a peer.  The transactions
+ * that are not already known are requested from the peer.
+ */
+final class AnnounceTransactions extends PeerServlet.PeerRequestHandler {
+
+    static final AnnounceTransactions instance = new AnnounceTransactions();
+
+    private AnnounceTransactions() {}
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+        List<String> fullHashes = (List<String>)request.get("transactionFullHashes");
+        if (fullHashes == null || fullHashes.isEmpty()) {
+            return JSON.emptyJSON;
+        }
+        try {
+            if (fullHashes.size() > Peers.MAX_INVENTORY_SIZE) {
+                throw new IllegalArgumentException("Too many transactions in inventory: " + fullHashes.size());
+            }
+            Peers.processInventory((PeerImpl)peer, fullHashes);
+            return JSON.emptyJSON;
+        } catch (RuntimeException e) {
+            peer.blacklist(e);
+            return PeerServlet.error(e);
+        }
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+}
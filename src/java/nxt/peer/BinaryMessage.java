@@ -0,0 +1,433 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import nxt.Block;
+import nxt.Nxt;
+import nxt.NxtException;
+import nxt.Transaction;
+import nxt.util.Convert;
+import nxt.util.JSON;
+
+/**
+ * BinaryMessage is a peer message containing blocks or transactions.  The message
+ * is sent as a binary message when the peer supports binary messages and as a JSON
+ * message otherwise.
+ *
+ * A binary message contains the block and transaction bytes instead of the block
+ * and transaction JSON.  The message type is followed by the message content:
+ *   - processBlock: Block
+ *   - processTransactions: Transaction count followed by the transactions
+ *   - nextBlocks: Block count followed by the blocks
+ *   - unconfirmedTransactions: Transaction count followed by the transactions
+ *   - transactions: Transaction count followed by the transactions
+ *   - processCompactBlock: Block header followed by the transaction count and the transaction identifiers
+ *
+ * A block consists of the block header bytes followed by the transaction count and the
+ * transactions.  A transaction consists of the transaction bytes followed by the prunable
+ * attachment JSON, which is empty if the transaction does not have prunable attachments.
+ * Byte arrays and strings are preceded by their length.
+ *
+ * A received binary message is converted to the equivalent JSON message with the
+ * blocks and transactions replaced by the parsed Block and Transaction objects.
+ */
+final class BinaryMessage implements JSONStreamAware {
+
+    /** processBlock request */
+    private static final byte PROCESS_BLOCK = 1;
+
+    /** processTransactions request */
+    private static final byte PROCESS_TRANSACTIONS = 2;
+
+    /** getNextBlocks response */
+    private static final byte NEXT_BLOCKS = 3;
+
+    /** getUnconfirmedTransactions response */
+    private static final byte UNCONFIRMED_TRANSACTIONS = 4;
+
+    /** getAnnouncedTransactions response */
+    private static final byte TRANSACTIONS = 5;
+
+    /** processCompactBlock request */
+    private static final byte COMPACT_BLOCK = 6;
+
+    /** Message type */
+    private final byte messageType;
+
+    /** Message blocks */
+    private final List<? extends Block> blocks;
+
+    /** Message transactions */
+    private final List<? extends Transaction> transactions;
+
+    /** JSON message */
+    private volatile char[] jsonChars;
+
+    /** Binary message */
+    private volatile byte[] messageBytes;
+
+    /**
+     * Create a processBlock request
+     *
+     * @param   block               Block
+     * @return                      Binary message
+     */
+    static BinaryMessage processBlock(Block block) {
+        List<Block> blocks = new ArrayList<>(1);
+        blocks.add(block);
+        return new BinaryMessage(PROCESS_BLOCK, blocks, null);
+    }
+
+    /**
+     * Create a processTransactions request
+     *
+     * @param   transactions        Transactions
+     * @return                      Binary message
+     */
+    static BinaryMessage processTransactions(List<? extends Transaction> transactions) {
+        return new BinaryMessage(PROCESS_TRANSACTIONS, null, transactions);
+    }
+
+    /**
+     * Create a getNextBlocks response
+     *
+     * @param   blocks              Blocks
+     * @return                      Binary message
+     */
+    static BinaryMessage nextBlocks(List<? extends Block> blocks) {
+        return new BinaryMessage(NEXT_BLOCKS, blocks, null);
+    }
+
+    /**
+     * Create a getUnconfirmedTransactions response
+     *
+     * @param   transactions        Transactions
+     * @return                      Binary message
+     */
+    static BinaryMessage unconfirmedTransactions(List<? extends Transaction> transactions) {
+        return new BinaryMessage(UNCONFIRMED_TRANSACTIONS, null, transactions);
+    }
+
+    /**
+     * Create a getAnnouncedTransactions response
+     *
+     * @param   transactions        Transactions
+     * @return                      Binary message
+     */
+    static BinaryMessage transactions(List<? extends Transaction> transactions) {
+        return new BinaryMessage(TRANSACTIONS, null, transactions);
+    }
+
+    /**
+     * Create a processCompactBlock request.  The block transactions are identified by
+     * the transaction identifiers and the receiver obtains the transactions from its
+     * unconfirmed transaction pool.
+     *
+     * @param   block               Block
+     * @return                      Binary message
+     */
+    static BinaryMessage compactBlock(Block block) {
+        List<Block> blocks = new ArrayList<>(1);
+        blocks.add(block);
+        return new BinaryMessage(COMPACT_BLOCK, blocks, null);
+    }
+
+    /**
+     * Create a binary message
+     *
+     * @param   messageType         Message type
+     * @param   blocks              Message blocks or null
+     * @param   transactions        Message transactions or null
+     */
+    private BinaryMessage(byte messageType, List<? extends Block> blocks, List<? extends Transaction> transactions) {
+        this.messageType = messageType;
+        this.blocks = blocks;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Write the JSON message
+     *
+     * @param   out                 Writer
+     * @throws  IOException         I/O error occurred
+     */
+    @Override
+    public void writeJSONString(Writer out) throws IOException {
+        char[] chars = jsonChars;
+        if (chars == null) {
+            chars = JSON.toJSONString(getJSONObject()).toCharArray();
+            jsonChars = chars;
+        }
+        out.write(chars);
+    }
+
+    /**
+     * Return the binary message
+     *
+     * @return                      Message bytes
+     */
+    byte[] getBytes() {
+        byte[] bytes = messageBytes;
+        if (bytes == null) {
+            try {
+                ByteArrayOutputStream outStream = new ByteArrayOutputStream(1024);
+                DataOutputStream out = new DataOutputStream(outStream);
+                out.writeByte(messageType);
+                switch (messageType) {
+                    case PROCESS_BLOCK:
+                        writeBlock(out, blocks.get(0));
+                        break;
+                    case COMPACT_BLOCK:
+                        writeBytes(out, blocks.get(0).getBytes());
+                        out.writeInt(blocks.get(0).getTransactions().size());
+                        for (Transaction transaction : blocks.get(0).getTransactions()) {
+                            out.writeLong(transaction.getId());
+                        }
+                        break;
+                    case NEXT_BLOCKS:
+                        out.writeInt(blocks.size());
+                        for (Block block : blocks) {
+                            writeBlock(out, block);
+                        }
+                        break;
+                    default:
+                        writeTransactions(out, transactions);
+                }
+                out.flush();
+                bytes = outStream.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+            messageBytes = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Return a description of the message for logging
+     *
+     * @return                      Message description
+     */
+    @Override
+    public String toString() {
+        return String.format("[binary message type %d, length %d]", messageType, getBytes().length);
+    }
+
+    /**
+     * Create the equivalent JSON message
+     *
+     * @return                      JSON message
+     */
+    private JSONObject getJSONObject() {
+        JSONObject json;
+        JSONArray array;
+        switch (messageType) {
+            case PROCESS_BLOCK:
+                json = blocks.get(0).getJSONObject();
+                json.put("requestType", "processBlock");
+                json.put("protocol", 1);
+                break;
+            case PROCESS_TRANSACTIONS:
+                json = new JSONObject();
+                array = new JSONArray();
+                transactions.forEach(transaction -> array.add(transaction.getJSONObject()));
+                json.put("requestType", "processTransactions");
+                json.put("transactions", array);
+                json.put("protocol", 1);
+                break;
+            case NEXT_BLOCKS:
+                json = new JSONObject();
+                array = new JSONArray();
+                blocks.forEach(block -> array.add(block.getJSONObject()));
+                json.put("nextBlocks", array);
+                break;
+            case COMPACT_BLOCK:
+                json = new JSONObject();
+                array = new JSONArray();
+                blocks.get(0).getTransactions().forEach(transaction -> array.add(transaction.getStringId()));
+                json.put("requestType", "processCompactBlock");
+                json.put("protocol", 1);
+                json.put("previousBlock", Long.toUnsignedString(blocks.get(0).getPreviousBlockId()));
+                json.put("timestamp", blocks.get(0).getTimestamp());
+                json.put("blockBytes", Convert.toHexString(blocks.get(0).getBytes()));
+                json.put("transactionIds", array);
+                break;
+            case TRANSACTIONS:
+                json = new JSONObject();
+                array = new JSONArray();
+                transactions.forEach(transaction -> array.add(transaction.getJSONObject()));
+                json.put("transactions", array);
+                break;
+            default:
+                json = new JSONObject();
+                array = new JSONArray();
+                transactions.forEach(transaction -> array.add(transaction.getJSONObject()));
+                json.put("unconfirmedTransactions", array);
+        }
+        return json;
+    }
+
+    /**
+     * Parse a binary message
+     *
+     * @param   bytes               Message bytes
+     * @return                      Equivalent JSON message
+     * @throws  NxtException.NotValidException  Message is not valid
+     */
+    static JSONObject parse(byte[] bytes) throws NxtException.NotValidException {
+        JSONObject json = new JSONObject();
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            byte messageType = buf.get();
+            switch (messageType) {
+                case PROCESS_BLOCK:
+                    Block block = readBlock(buf);
+                    json.put("requestType", "processBlock");
+                    json.put("protocol", 1L);
+                    json.put("previousBlock", Long.toUnsignedString(block.getPreviousBlockId()));
+                    json.put("timestamp", (long)block.getTimestamp());
+                    json.put("block", block);
+                    break;
+                case PROCESS_TRANSACTIONS:
+                    json.put("requestType", "processTransactions");
+                    json.put("protocol", 1L);
+                    json.put("transactions", readTransactions(buf));
+                    break;
+                case NEXT_BLOCKS:
+                    int count = readCount(buf);
+                    JSONArray blockList = new JSONArray();
+                    for (int i = 0; i < count; i++) {
+                        blockList.add(readBlock(buf));
+                    }
+                    json.put("nextBlocks", blockList);
+                    break;
+                case UNCONFIRMED_TRANSACTIONS:
+                    json.put("unconfirmedTransactions", readTransactions(buf));
+                    break;
+                case TRANSACTIONS:
+                    json.put("transactions", readTransactions(buf));
+                    break;
+                case COMPACT_BLOCK:
+                    byte[] blockBytes = readBytes(buf);
+                    if (blockBytes.length < 16) {
+                        throw new NxtException.NotValidException("Invalid compact block header");
+                    }
+                    ByteBuffer header = ByteBuffer.wrap(blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+                    int timestamp = header.getInt(4);
+                    long previousBlockId = header.getLong(8);
+                    int transactionCount = readCount(buf);
+                    JSONArray transactionIds = new JSONArray();
+                    for (int i = 0; i < transactionCount; i++) {
+                        transactionIds.add(Long.toUnsignedString(buf.getLong()));
+                    }
+                    json.put("requestType", "processCompactBlock");
+                    json.put("protocol", 1L);
+                    json.put("previousBlock", Long.toUnsignedString(previousBlockId));
+                    json.put("timestamp", (long)timestamp);
+                    json.put("blockBytes", Convert.toHexString(blockBytes));
+                    json.put("transactionIds", transactionIds);
+                    break;
+                default:
+                    throw new NxtException.NotValidException("Unsupported binary message type " + messageType);
+            }
+            if (buf.hasRemaining()) {
+                throw new NxtException.NotValidException("Binary message contains extra data");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new NxtException.NotValidException("Binary message is truncated");
+        }
+        return json;
+    }
+
+    private static void writeBlock(DataOutputStream out, Block block) throws IOException {
+        writeBytes(out, block.getBytes());
+        writeTransactions(out, block.getTransactions());
+    }
+
+    private static void writeTransactions(DataOutputStream out, List<? extends Transaction> transactions) throws IOException {
+        out.writeInt(transactions.size());
+        for (Transaction transaction : transactions) {
+            writeBytes(out, transaction.getBytes());
+            JSONObject prunableAttachments = transaction.getPrunableAttachmentJSON();
+            writeBytes(out, prunableAttachments != null ?
+                    JSON.toJSONString(prunableAttachments).getBytes(StandardCharsets.UTF_8) : new byte[0]);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Block readBlock(ByteBuffer buf) throws NxtException.NotValidException {
+        byte[] blockBytes = readBytes(buf);
+        return Nxt.parseBlock(blockBytes, readTransactions(buf));
+    }
+
+    private static JSONArray readTransactions(ByteBuffer buf) throws NxtException.NotValidException {
+        int count = readCount(buf);
+        JSONArray transactionList = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            byte[] transactionBytes = readBytes(buf);
+            byte[] prunableBytes = readBytes(buf);
+            JSONObject prunableAttachments = null;
+            if (prunableBytes.length > 0) {
+                try {
+                    prunableAttachments = (JSONObject)JSONValue.parseWithException(new String(prunableBytes, StandardCharsets.UTF_8));
+                } catch (ParseException | ClassCastException e) {
+                    throw new NxtException.NotValidException("Invalid prunable attachment JSON");
+                }
+            }
+            transactionList.add(Nxt.parseTransaction(transactionBytes, prunableAttachments));
+        }
+        return transactionList;
+    }
+
+    private static int readCount(ByteBuffer buf) throws NxtException.NotValidException {
+        int count = buf.getInt();
+        if (count < 0 || count > buf.remaining()) {
+            throw new NxtException.NotValidException("Invalid binary message count " + count);
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) throws NxtException.NotValidException {
+        int length = readCount(buf);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return bytes;
+    }
+}
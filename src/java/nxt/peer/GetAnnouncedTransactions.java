@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.Nxt;
+import nxt.Transaction;
+import nxt.util.Convert;
+
+/**
+ * Get the unconfirmed transactions previously announced to the peer
+ */
+final class GetAnnouncedTransactions extends PeerServlet.PeerRequestHandler {
+
+    static final GetAnnouncedTransactions instance = new GetAnnouncedTransactions();
+
+    private GetAnnouncedTransactions() {}
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+        List<String> fullHashes = (List<String>)request.get("transactionFullHashes");
+        List<Transaction> transactions = new ArrayList<>();
+        if (fullHashes != null) {
+            for (String fullHash : fullHashes) {
+                if (transactions.size() >= Peers.MAX_INVENTORY_SIZE) {
+                    break;
+                }
+                byte[] hash = Convert.parseHexString(fullHash);
+                if (hash == null || hash.length != 32) {
+                    continue;
+                }
+                Transaction transaction = Nxt.getTransactionProcessor().getUnconfirmedTransaction(Convert.fullHashToId(hash));
+                if (transaction != null && transaction.getFullHash().equals(fullHash)) {
+                    transactions.add(transaction);
+                }
+            }
+        }
+        return BinaryMessage.transactions(transactions);
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.Block;
+import nxt.Constants;
+import nxt.Nxt;
+import nxt.Transaction;
+import nxt.util.Convert;
+
+/**
+ * Get the requested transactions from a block.  This is used to obtain the
+ * transactions that are missing when rebuilding a compact block.
+ */
+final class GetBlockTransactions extends PeerServlet.PeerRequestHandler {
+
+    static final GetBlockTransactions instance = new GetBlockTransactions();
+
+    private GetBlockTransactions() {}
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+        long blockId = Convert.parseUnsignedLong((String)request.get("blockId"));
+        List<String> transactionIds = (List<String>)request.get("transactionIds");
+        List<Transaction> transactions = new ArrayList<>();
+        Block block = Nxt.getBlockchain().getBlock(blockId);
+        if (block != null && transactionIds != null && transactionIds.size() <= Constants.MAX_NUMBER_OF_TRANSACTIONS) {
+            Set<Long> ids = new HashSet<>();
+            transactionIds.forEach(transactionId -> ids.add(Convert.parseUnsignedLong(transactionId)));
+            for (Transaction transaction : block.getTransactions()) {
+                if (ids.contains(transaction.getId())) {
+                    transactions.add(transaction);
+                }
+            }
+        }
+        return BinaryMessage.transactions(transactions);
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+}
@@ -21,7 +21,6 @@ package nxt.peer;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -47,8 +46,6 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
     @Override
     JSONStreamAware processRequest(JSONObject request, Peer peer) {
 
-        JSONObject response = new JSONObject();
-        JSONArray nextBlocksArray = new JSONArray();
         List<? extends Block> blocks;
         long blockId = Convert.parseUnsignedLong((String) request.get("blockId"));
         List<String> stringList = (List<String>)request.get("blockIds");
@@ -66,10 +63,7 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
             }
             blocks = Nxt.getBlockchain().getBlocksAfter(blockId, limit > 0 ? (int)limit : 36);
         }
-        blocks.forEach(block -> nextBlocksArray.add(block.getJSONObject()));
-        response.put("nextBlocks", nextBlocksArray);
-
-        return response;
+        return BinaryMessage.nextBlocks(blocks);
     }
 
     @Override
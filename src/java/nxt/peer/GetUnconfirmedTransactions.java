@@ -18,10 +18,10 @@
 
 package nxt.peer;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedSet;
 
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -45,17 +45,15 @@ final class GetUnconfirmedTransactions extends PeerServlet.PeerRequestHandler {
         }
 
         SortedSet<? extends Transaction> transactionSet = Nxt.getTransactionProcessor().getCachedUnconfirmedTransactions(exclude);
-        JSONArray transactionsData = new JSONArray();
+        List<Transaction> transactions = new ArrayList<>();
         for (Transaction transaction : transactionSet) {
-            if (transactionsData.size() >= 100) {
+            if (transactions.size() >= 100) {
                 break;
             }
-            transactionsData.add(transaction.getJSONObject());
+            transactions.add(transaction);
         }
-        JSONObject response = new JSONObject();
-        response.put("unconfirmedTransactions", transactionsData);
 
-        return response;
+        return BinaryMessage.unconfirmedTransactions(transactions);
     }
 
     @Override
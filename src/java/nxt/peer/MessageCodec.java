@@ -0,0 +1,312 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * MessageCodec compresses and decompresses WebSocket messages.  The codec used for a
+ * message is identified by the message flags.
+ *
+ * The Deflater and Inflater used by a codec are reused by each thread, so compressing
+ * or decompressing a message does not allocate native compression buffers.
+ */
+abstract class MessageCodec {
+
+    /** GZIP compression flag (supported by all peers) */
+    static final int FLAG_GZIP = 1;
+
+    /** Deflate compression flag */
+    static final int FLAG_DEFLATE = 4;
+
+    /** Compression flags */
+    static final int FLAG_MASK = FLAG_GZIP | FLAG_DEFLATE;
+
+    /** GZIP codec */
+    static final MessageCodec GZIP = new GzipCodec();
+
+    /** Deflate codec */
+    static final MessageCodec DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    /** Fast deflate codec */
+    static final MessageCodec FAST = new DeflateCodec(Deflater.BEST_SPEED);
+
+    /**
+     * Return the codec with the specified name
+     *
+     * @param   name                Codec name (gzip, deflate or fast)
+     * @return                      Codec or null if the name is not recognized
+     */
+    static MessageCodec forName(String name) {
+        switch (name.toLowerCase()) {
+            case "gzip":
+                return GZIP;
+            case "deflate":
+                return DEFLATE;
+            case "fast":
+                return FAST;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Return the codec for a received message
+     *
+     * @param   flags               Message flags
+     * @return                      Codec or null if the message is not compressed
+     * @throws  IOException         Unsupported compression
+     */
+    static MessageCodec forFlags(int flags) throws IOException {
+        switch (flags & FLAG_MASK) {
+            case 0:
+                return null;
+            case FLAG_GZIP:
+                return GZIP;
+            case FLAG_DEFLATE:
+                return DEFLATE;
+            default:
+                throw new IOException("Unsupported message compression flags " + flags);
+        }
+    }
+
+    /**
+     * Return the message flag for this codec
+     *
+     * @return                      Message flag
+     */
+    abstract int getFlag();
+
+    /**
+     * Compress a message
+     *
+     * @param   input               Message bytes
+     * @param   output              Output buffer
+     * @param   offset              Output offset
+     * @param   length              Space available in the output buffer
+     * @return                      Compressed length or -1 if the compressed message does not fit
+     */
+    abstract int compress(byte[] input, byte[] output, int offset, int length);
+
+    /**
+     * Decompress a message
+     *
+     * @param   input               Input buffer
+     * @param   offset              Input offset
+     * @param   length              Input length
+     * @param   messageLength       Decompressed message length
+     * @return                      Message bytes
+     * @throws  IOException         Message is not valid
+     */
+    abstract byte[] decompress(byte[] input, int offset, int length, int messageLength) throws IOException;
+
+    /**
+     * Deflate a message using the thread deflater
+     *
+     * @param   deflater            Deflater
+     * @param   input               Message bytes
+     * @param   output              Output buffer
+     * @param   offset              Output offset
+     * @param   length              Space available in the output buffer
+     * @return                      Compressed length or -1 if the compressed message does not fit
+     */
+    static int deflate(Deflater deflater, byte[] input, byte[] output, int offset, int length) {
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            int count = 0;
+            while (!deflater.finished()) {
+                if (count == length) {
+                    return -1;
+                }
+                count += deflater.deflate(output, offset + count, length - count);
+            }
+            return count;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    /**
+     * Inflate a message using the thread inflater
+     *
+     * @param   inflater            Inflater
+     * @param   input               Input buffer
+     * @param   offset              Input offset
+     * @param   length              Input length
+     * @param   messageLength       Decompressed message length
+     * @return                      Message bytes
+     * @throws  IOException         Message is not valid
+     */
+    static byte[] inflate(Inflater inflater, byte[] input, int offset, int length, int messageLength) throws IOException {
+        try {
+            byte[] message = new byte[messageLength];
+            inflater.setInput(input, offset, length);
+            int count = 0;
+            while (count < messageLength) {
+                int n = inflater.inflate(message, count, messageLength - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("End-of-data reading compressed data");
+                }
+                count += n;
+            }
+            return message;
+        } catch (DataFormatException exc) {
+            throw new IOException("Invalid compressed data: " + exc.getMessage());
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Deflate codec
+     */
+    private static final class DeflateCodec extends MessageCodec {
+
+        /** Thread deflater */
+        private final ThreadLocal<Deflater> deflater;
+
+        /** Thread inflater */
+        private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        /**
+         * Create a deflate codec
+         *
+         * @param   level           Compression level
+         */
+        private DeflateCodec(int level) {
+            deflater = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        }
+
+        @Override
+        int getFlag() {
+            return FLAG_DEFLATE;
+        }
+
+        @Override
+        int compress(byte[] input, byte[] output, int offset, int length) {
+            return deflate(deflater.get(), input, output, offset, length);
+        }
+
+        @Override
+        byte[] decompress(byte[] input, int offset, int length, int messageLength) throws IOException {
+            return inflate(inflater.get(), input, offset, length, messageLength);
+        }
+    }
+
+    /**
+     * GZIP codec
+     *
+     * The message consists of the GZIP header, the deflated message and the GZIP trailer.
+     * Received messages with optional header fields are decompressed using GZIPInputStream.
+     */
+    private static final class GzipCodec extends MessageCodec {
+
+        /** GZIP header: magic number, compression method, flags, time, extra flags, OS */
+        private static final byte[] HEADER = {(byte)0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, 0};
+
+        /** GZIP trailer length */
+        private static final int TRAILER_LENGTH = 8;
+
+        /** Thread deflater */
+        private static final ThreadLocal<Deflater> deflater =
+                ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+        /** Thread inflater */
+        private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        @Override
+        int getFlag() {
+            return FLAG_GZIP;
+        }
+
+        @Override
+        int compress(byte[] input, byte[] output, int offset, int length) {
+            if (length < HEADER.length + TRAILER_LENGTH) {
+                return -1;
+            }
+            System.arraycopy(HEADER, 0, output, offset, HEADER.length);
+            int count = deflate(deflater.get(), input, output, offset + HEADER.length,
+                    length - HEADER.length - TRAILER_LENGTH);
+            if (count < 0) {
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(input);
+            int pos = offset + HEADER.length + count;
+            putIntLE(output, pos, (int)crc.getValue());
+            putIntLE(output, pos + 4, input.length);
+            return HEADER.length + count + TRAILER_LENGTH;
+        }
+
+        @Override
+        byte[] decompress(byte[] input, int offset, int length, int messageLength) throws IOException {
+            if (length < HEADER.length + TRAILER_LENGTH || input[offset] != HEADER[0] || input[offset + 1] != HEADER[1] ||
+                    input[offset + 2] != HEADER[2]) {
+                throw new IOException("Invalid GZIP header");
+            }
+            if (input[offset + 3] != 0) {
+                return decompressStream(input, offset, length, messageLength);
+            }
+            byte[] message = inflate(inflater.get(), input, offset + HEADER.length,
+                    length - HEADER.length - TRAILER_LENGTH, messageLength);
+            CRC32 crc = new CRC32();
+            crc.update(message);
+            int pos = offset + length - TRAILER_LENGTH;
+            if (getIntLE(input, pos) != (int)crc.getValue() || getIntLE(input, pos + 4) != messageLength) {
+                throw new IOException("GZIP trailer does not match the message");
+            }
+            return message;
+        }
+
+        private static byte[] decompressStream(byte[] input, int offset, int length, int messageLength) throws IOException {
+            byte[] message = new byte[messageLength];
+            try (GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(input, offset, length), 1024)) {
+                int count = 0;
+                while (count < messageLength) {
+                    int n = gzipStream.read(message, count, messageLength - count);
+                    if (n < 0) {
+                        throw new EOFException("End-of-data reading compressed data");
+                    }
+                    count += n;
+                }
+            }
+            return message;
+        }
+
+        private static void putIntLE(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte)value;
+            bytes[offset + 1] = (byte)(value >>> 8);
+            bytes[offset + 2] = (byte)(value >>> 16);
+            bytes[offset + 3] = (byte)(value >>> 24);
+        }
+
+        private static int getIntLE(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 |
+                    (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package nxt.peer;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -36,7 +37,9 @@ public interface Peer extends Comparable<Peer> {
         PRUNABLE(2),                    // Stores expired prunable messages
         API(4),                         // Provides open API access over http
         API_SSL(8),                     // Provides open API access over https
-        CORS(16);                       // API CORS enabled
+        CORS(16),                       // API CORS enabled
+        INVENTORY(32),                  // Supports transaction inventory announcements
+        COMPACT_BLOCK(64);              // Supports compact block relay
 
         private final long code;        // Service code - must be a power of 2
 
@@ -130,4 +133,8 @@ public interface Peer extends Comparable<Peer> {
 
     JSONObject send(JSONStreamAware request, int maxResponseSize);
 
+    CompletableFuture<JSONObject> sendAsync(JSONStreamAware request);
+
+    CompletableFuture<JSONObject> sendAsync(JSONStreamAware request, int maxResponseSize);
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpProxy;
+import org.eclipse.jetty.client.Socks4Proxy;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+
+import nxt.Nxt;
+import nxt.util.Logger;
+
+/**
+ * PeerHttpClient sends peer requests using HTTP when a WebSocket connection is not
+ * available.  Connections are kept alive and reused for subsequent requests to the
+ * same peer, limited by nxt.peerHttpMaxConnectionsPerHost connections for each peer.
+ * Compressed responses are decompressed by the HTTP client and the response content
+ * is returned as a stream as it is received.
+ */
+final class PeerHttpClient {
+
+    /** Maximum number of bytes read when draining a response before returning the connection to the pool */
+    private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+    /** HTTP client */
+    private static HttpClient httpClient;
+    static {
+        try {
+            httpClient = new HttpClient();
+            httpClient.setMaxConnectionsPerDestination(Nxt.getIntProperty("nxt.peerHttpMaxConnectionsPerHost", 4));
+            httpClient.setIdleTimeout(Nxt.getIntProperty("nxt.peerHttpIdleTimeout", 20000));
+            httpClient.setConnectTimeout(Peers.connectTimeout);
+            httpClient.setFollowRedirects(false);
+            String proxyHost = System.getProperty("http.proxyHost");
+            String socksProxyHost = System.getProperty("socksProxyHost");
+            if (proxyHost != null) {
+                httpClient.getProxyConfiguration().getProxies().add(
+                        new HttpProxy(proxyHost, Integer.parseInt(System.getProperty("http.proxyPort", "80"))));
+            } else if (socksProxyHost != null) {
+                httpClient.getProxyConfiguration().getProxies().add(
+                        new Socks4Proxy(socksProxyHost, Integer.parseInt(System.getProperty("socksProxyPort", "1080"))));
+            }
+            httpClient.start();
+        } catch (Exception exc) {
+            Logger.logErrorMessage("Unable to start peer HTTP client", exc);
+            httpClient = null;
+        }
+    }
+
+    private PeerHttpClient() {}
+
+    /**
+     * Stop the HTTP client
+     */
+    static void shutdown() {
+        if (httpClient != null) {
+            try {
+                httpClient.stop();
+            } catch (Exception exc) {
+                Logger.logShutdownMessage("Failed to stop peer HTTP client", exc);
+            }
+        }
+    }
+
+    /**
+     * Send a POST request and wait for the response headers
+     *
+     * @param   url                 Request URL
+     * @param   content             Request content
+     * @return                      HTTP response
+     * @throws  IOException         I/O error occurred
+     */
+    static HttpResponse post(String url, byte[] content) throws IOException {
+        if (httpClient == null) {
+            throw new IOException("Peer HTTP client is not available");
+        }
+        InputStreamResponseListener listener = new InputStreamResponseListener();
+        httpClient.POST(url)
+                .content(new BytesContentProvider(content), "text/plain; charset=UTF-8")
+                .idleTimeout(Peers.readTimeout, TimeUnit.MILLISECONDS)
+                .send(listener);
+        try {
+            Response response = listener.get(Peers.connectTimeout + Peers.readTimeout, TimeUnit.MILLISECONDS);
+            return new HttpResponse(response, listener.getInputStream());
+        } catch (TimeoutException exc) {
+            throw new SocketTimeoutException("HTTP request to " + url + " timed out");
+        } catch (InterruptedException exc) {
+            throw new SocketTimeoutException("HTTP request interrupted");
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause.toString(), cause);
+        }
+    }
+
+    /**
+     * HTTP response
+     */
+    static final class HttpResponse implements AutoCloseable {
+
+        /** Response */
+        private final Response response;
+
+        /** Response content stream */
+        private final InputStream inputStream;
+
+        /**
+         * Create the HTTP response
+         *
+         * @param   response            Response
+         * @param   inputStream         Response content stream
+         */
+        private HttpResponse(Response response, InputStream inputStream) {
+            this.response = response;
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * Return the HTTP status
+         *
+         * @return                      HTTP status
+         */
+        int getStatus() {
+            return response.getStatus();
+        }
+
+        /**
+         * Return the response content stream
+         *
+         * @return                      Content stream
+         */
+        InputStream getInputStream() {
+            return inputStream;
+        }
+
+        /**
+         * Abort the response.  The connection is closed and is not returned to the pool.
+         */
+        void abort() {
+            response.abort(new IOException("HTTP response aborted"));
+        }
+
+        /**
+         * Close the response.  Unread content is discarded so the connection can be returned
+         * to the pool.  The response is aborted if there is too much unread content.
+         */
+        @Override
+        public void close() {
+            try {
+                byte[] buffer = new byte[4096];
+                int count = 0;
+                int n;
+                while ((n = inputStream.read(buffer)) >= 0) {
+                    count += n;
+                    if (count > MAX_DRAIN_SIZE) {
+                        abort();
+                        break;
+                    }
+                }
+                inputStream.close();
+            } catch (IOException exc) {
+                abort();
+            }
+        }
+    }
+}
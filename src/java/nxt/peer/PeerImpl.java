@@ -27,36 +27,30 @@ import nxt.http.API;
 import nxt.http.APIEnum;
 import nxt.util.Convert;
 import nxt.util.CountingInputReader;
-import nxt.util.CountingInputStream;
-import nxt.util.CountingOutputWriter;
 import nxt.util.JSON;
 import nxt.util.Logger;
+import org.eclipse.jetty.http.HttpStatus;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 import org.json.simple.parser.ParseException;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
-import java.io.Writer;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 final class PeerImpl implements Peer {
 
@@ -89,6 +83,12 @@ final class PeerImpl implements Peer {
     private volatile int hallmarkBalanceHeight;
     private volatile long services;
     private volatile BlockchainState blockchainState;
+    private final Map<Long, Boolean> knownTransactions = new LinkedHashMap<Long, Boolean>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > Peers.MAX_KNOWN_TRANSACTIONS;
+        }
+    };
 
     PeerImpl(String host, String announcedAddress) {
         this.host = host;
@@ -116,8 +116,12 @@ final class PeerImpl implements Peer {
     }
 
     void setState(State state) {
-        if (state != State.CONNECTED)
+        if (state != State.CONNECTED) {
             webSocket.close();
+            synchronized (knownTransactions) {
+                knownTransactions.clear();
+            }
+        }
         if (this.state == state) {
             return;
         }
@@ -463,7 +467,7 @@ final class PeerImpl implements Peer {
         JSONObject response = null;
         String log = null;
         boolean showLog = false;
-        HttpURLConnection connection = null;
+        PeerHttpClient.HttpResponse httpResponse = null;
         int communicationLoggingMask = Peers.communicationLoggingMask;
 
         try {
@@ -473,126 +477,79 @@ final class PeerImpl implements Peer {
             if (useWebSocket && !webSocket.isOpen())
                 useWebSocket = webSocket.startClient(URI.create("ws://" + host + ":" + getPort() + "/nxt"));
             //
-            // Send the request and process the response
+            // Send the request using the WebSocket session and wait for the response
             //
             if (useWebSocket) {
-                //
-                // Send the request using the WebSocket session
-                //
-                StringWriter wsWriter = new StringWriter(1000);
-                request.writeJSONString(wsWriter);
-                String wsRequest = wsWriter.toString();
-                if (communicationLoggingMask != 0)
-                    log = "WebSocket " + host + ": " + wsRequest;
-                String wsResponse = webSocket.doPost(wsRequest);
-                updateUploadedVolume(wsRequest.length());
+                WebSocketRequest wsRequest = new WebSocketRequest(request, maxResponseSize);
+                CompletableFuture<PeerWebSocket.Message> wsFuture = wsRequest.send();
+                PeerWebSocket.Message wsResponse = null;
+                Throwable wsException = null;
+                try {
+                    wsResponse = wsFuture.get();
+                } catch (ExecutionException e) {
+                    wsException = e.getCause();
+                } catch (InterruptedException e) {
+                    wsException = new SocketTimeoutException("WebSocket POST interrupted");
+                }
+                return wsRequest.processResponse(wsResponse, wsException);
+            }
+            //
+            // Send the request using HTTP.  The connection is returned to the connection pool
+            // when the response is closed.
+            //
+            String url = "http://" + host + ":" + getPort() + "/nxt";
+            StringWriter httpWriter = new StringWriter(1000);
+            request.writeJSONString(httpWriter);
+            String requestString = httpWriter.toString();
+            if (communicationLoggingMask != 0)
+                log = "\"" + url + "\": " + requestString;
+            byte[] httpRequest = requestString.getBytes("UTF-8");
+            httpResponse = PeerHttpClient.post(url, httpRequest);
+            updateUploadedVolume(httpRequest.length);
+            if (httpResponse.getStatus() == HttpStatus.OK_200) {
                 if (maxResponseSize > 0) {
+                    Reader reader = new BufferedReader(new InputStreamReader(httpResponse.getInputStream(), "UTF-8"));
+                    CountingInputReader cir = new CountingInputReader(reader, maxResponseSize);
                     if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
-                        log += " >>> " + wsResponse;
+                        StringWriter responseWriter = new StringWriter(1000);
+                        char[] buffer = new char[1024];
+                        int numberOfChars;
+                        while ((numberOfChars = cir.read(buffer, 0, buffer.length)) > 0)
+                            responseWriter.write(buffer, 0, numberOfChars);
+                        String responseValue = responseWriter.toString();
+                        log += " >>> " + responseValue;
                         showLog = true;
+                        response = (JSONObject) JSONValue.parseWithException(responseValue);
+                    } else {
+                        response = (JSONObject)JSONValue.parseWithException(cir);
                     }
-                    if (wsResponse.length() > maxResponseSize)
-                        throw new NxtException.NxtIOException("Maximum size + ("+maxResponseSize+") exceeded: " + wsResponse.length());
-                    response = (JSONObject)JSONValue.parseWithException(wsResponse);
-                    updateDownloadedVolume(wsResponse.length());
+                    updateDownloadedVolume(cir.getCount());
                 }
             } else {
-                //
-                // Send the request using HTTP
-                //
-                URL url = new URL("http://" + host + ":" + getPort() + "/nxt");
-                if (communicationLoggingMask != 0)
-                    log = "\"" + url.toString() + "\": " + JSON.toString(request);
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setDoOutput(true);
-                connection.setConnectTimeout(Peers.connectTimeout);
-                connection.setReadTimeout(Peers.readTimeout);
-                connection.setRequestProperty("Accept-Encoding", "gzip");
-                connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
-                try (Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"))) {
-                    CountingOutputWriter cow = new CountingOutputWriter(writer);
-                    request.writeJSONString(cow);
-                    updateUploadedVolume(cow.getCount());
-                }
-                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    if (maxResponseSize > 0) {
-                        if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
-                            CountingInputStream cis = new CountingInputStream(connection.getInputStream(), maxResponseSize);
-                            InputStream responseStream = cis;
-                            if ("gzip".equals(connection.getHeaderField("Content-Encoding")))
-                                responseStream = new GZIPInputStream(cis);
-                            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                            byte[] buffer = new byte[1024];
-                            int numberOfBytes;
-                            try (InputStream inputStream = responseStream) {
-                                while ((numberOfBytes = inputStream.read(buffer, 0, buffer.length)) > 0)
-                                    byteArrayOutputStream.write(buffer, 0, numberOfBytes);
-                            }
-                            String responseValue = byteArrayOutputStream.toString("UTF-8");
-                            if (responseValue.length() > 0 && responseStream instanceof GZIPInputStream)
-                                log += String.format("[length: %d, compression ratio: %.2f]",
-                                              cis.getCount(), (double)cis.getCount()/(double) responseValue.length());
-                            log += " >>> " + responseValue;
-                            showLog = true;
-                            response = (JSONObject) JSONValue.parseWithException(responseValue);
-                            updateDownloadedVolume(responseValue.length());
-                        } else {
-                            InputStream responseStream = connection.getInputStream();
-                            if ("gzip".equals(connection.getHeaderField("Content-Encoding")))
-                                responseStream = new GZIPInputStream(responseStream);
-                            try (Reader reader = new BufferedReader(new InputStreamReader(responseStream, "UTF-8"))) {
-                                CountingInputReader cir = new CountingInputReader(reader, maxResponseSize);
-                                response = (JSONObject)JSONValue.parseWithException(cir);
-                                updateDownloadedVolume(cir.getCount());
-                            }
-                        }
-                    }
-                } else {
-                    if ((communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
-                        log += " >>> Peer responded with HTTP " + connection.getResponseCode() + " code!";
-                        showLog = true;
-                    }
-                    Logger.logDebugMessage("Peer " + host + " responded with HTTP " + connection.getResponseCode());
-                    deactivate();
-                    connection.disconnect();
+                if ((communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
+                    log += " >>> Peer responded with HTTP " + httpResponse.getStatus() + " code!";
+                    showLog = true;
                 }
+                Logger.logDebugMessage("Peer " + host + " responded with HTTP " + httpResponse.getStatus());
+                deactivate();
             }
+            httpResponse.close();
+            httpResponse = null;
             //
             // Check for an error response
             //
-            if (response != null && response.get("error") != null) {
-                deactivate();
-                if (Errors.SEQUENCE_ERROR.equals(response.get("error")) && request != Peers.getMyPeerInfoRequest()) {
-                    Logger.logDebugMessage("Sequence error, reconnecting to " + host);
-                    connect();
-                } else {
-                    Logger.logDebugMessage("Peer " + host + " version " + version + " returned error: " +
-                            response.toJSONString() + ", request was: " + JSON.toString(request) +
-                            ", disconnecting");
-                    if (connection != null) {
-                        connection.disconnect();
-                    }
-                }
-            }
+            checkErrorResponse(request, response);
         } catch (NxtException.NxtIOException e) {
             blacklist(e);
-            if (connection != null) {
-                connection.disconnect();
-            }
         } catch (RuntimeException|ParseException|IOException e) {
-            if (!(e instanceof UnknownHostException || e instanceof SocketTimeoutException ||
-                                        e instanceof SocketException || Errors.END_OF_FILE.equals(e.getMessage()))) {
-                Logger.logDebugMessage(String.format("Error sending request to peer %s: %s",
-                                       host, e.getMessage()!=null ? e.getMessage() : e.toString()));
-            }
+            sendFailed(e);
             if ((communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
                 log += " >>> " + e.toString();
                 showLog = true;
             }
-            deactivate();
-            if (connection != null) {
-                connection.disconnect();
+        } finally {
+            if (httpResponse != null) {
+                httpResponse.abort();
             }
         }
         if (showLog) {
@@ -602,6 +559,182 @@ final class PeerImpl implements Peer {
         return response;
     }
 
+    @Override
+    public CompletableFuture<JSONObject> sendAsync(final JSONStreamAware request) {
+        return sendAsync(request, Peers.MAX_RESPONSE_SIZE);
+    }
+
+    @Override
+    public CompletableFuture<JSONObject> sendAsync(final JSONStreamAware request, int maxResponseSize) {
+        //
+        // Use a thread from the peers service if we don't have an open WebSocket session
+        //
+        if (!useWebSocket || !webSocket.isOpen()) {
+            return CompletableFuture.supplyAsync(() -> send(request, maxResponseSize), Peers.peersService);
+        }
+        //
+        // Send the request using the WebSocket session.  The response is processed by a
+        // thread from the peers service since the response future is completed by the
+        // WebSocket read thread.
+        //
+        WebSocketRequest wsRequest = new WebSocketRequest(request, maxResponseSize);
+        return wsRequest.send().handleAsync(wsRequest::processResponse, Peers.peersService);
+    }
+
+    /**
+     * Check for an error response from the peer
+     *
+     * @param   request             Request message
+     * @param   response            Response message or null
+     */
+    private void checkErrorResponse(JSONStreamAware request, JSONObject response) {
+        if (response != null && response.get("error") != null) {
+            deactivate();
+            if (Errors.SEQUENCE_ERROR.equals(response.get("error")) && request != Peers.getMyPeerInfoRequest()) {
+                Logger.logDebugMessage("Sequence error, reconnecting to " + host);
+                connect();
+            } else {
+                Logger.logDebugMessage("Peer " + host + " version " + version + " returned error: " +
+                        response.toJSONString() + ", request was: " + JSON.toString(request) +
+                        ", disconnecting");
+            }
+        }
+    }
+
+    /**
+     * Process a failed request
+     *
+     * @param   e                   Exception
+     */
+    private void sendFailed(Exception e) {
+        if (!(e instanceof UnknownHostException || e instanceof SocketTimeoutException ||
+                                    e instanceof SocketException || Errors.END_OF_FILE.equals(e.getMessage()))) {
+            Logger.logDebugMessage(String.format("Error sending request to peer %s: %s",
+                                   host, e.getMessage()!=null ? e.getMessage() : e.toString()));
+        }
+        deactivate();
+    }
+
+    /**
+     * WebSocket request
+     */
+    private class WebSocketRequest {
+
+        /** Request message */
+        private final JSONStreamAware request;
+
+        /** Maximum response size */
+        private final int maxResponseSize;
+
+        /** Communication logging mask */
+        private final int communicationLoggingMask = Peers.communicationLoggingMask;
+
+        /** Communication log */
+        private String log;
+
+        /**
+         * Create a WebSocket request
+         *
+         * @param   request             Request message
+         * @param   maxResponseSize     Maximum response size or 0 if no response is needed
+         */
+        private WebSocketRequest(JSONStreamAware request, int maxResponseSize) {
+            this.request = request;
+            this.maxResponseSize = maxResponseSize;
+        }
+
+        /**
+         * Send the request
+         *
+         * @return                      Response future
+         */
+        private CompletableFuture<PeerWebSocket.Message> send() {
+            try {
+                byte[] wsRequest;
+                boolean binaryRequest = (request instanceof BinaryMessage && webSocket.isBinarySupported());
+                if (binaryRequest) {
+                    wsRequest = ((BinaryMessage)request).getBytes();
+                    if (communicationLoggingMask != 0)
+                        log = "WebSocket " + host + ": " + request.toString();
+                } else {
+                    StringWriter wsWriter = new StringWriter(1000);
+                    request.writeJSONString(wsWriter);
+                    String requestString = wsWriter.toString();
+                    wsRequest = requestString.getBytes("UTF-8");
+                    if (communicationLoggingMask != 0)
+                        log = "WebSocket " + host + ": " + requestString;
+                }
+                CompletableFuture<PeerWebSocket.Message> wsFuture = webSocket.doPostAsync(wsRequest, binaryRequest);
+                updateUploadedVolume(wsRequest.length);
+                return wsFuture;
+            } catch (IOException | RuntimeException e) {
+                CompletableFuture<PeerWebSocket.Message> wsFuture = new CompletableFuture<>();
+                wsFuture.completeExceptionally(e);
+                return wsFuture;
+            }
+        }
+
+        /**
+         * Process the response
+         *
+         * @param   wsResponse          Response message or null if the request failed
+         * @param   wsException         Request exception or null if the request completed
+         * @return                      Response or null if an error occurred
+         */
+        private JSONObject processResponse(PeerWebSocket.Message wsResponse, Throwable wsException) {
+            JSONObject response = null;
+            boolean showLog = false;
+            try {
+                if (wsException != null) {
+                    Throwable cause = (wsException instanceof CompletionException && wsException.getCause() != null ?
+                            wsException.getCause() : wsException);
+                    if (cause instanceof IOException) {
+                        throw (IOException)cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    }
+                    throw new IOException(cause.toString(), cause);
+                }
+                if (maxResponseSize > 0) {
+                    byte[] responseBytes = wsResponse.getBytes();
+                    if (responseBytes.length > maxResponseSize)
+                        throw new NxtException.NxtIOException("Maximum size + ("+maxResponseSize+") exceeded: " + responseBytes.length);
+                    if (wsResponse.isBinary()) {
+                        if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                            log += " >>> [binary message, length " + responseBytes.length + "]";
+                            showLog = true;
+                        }
+                        response = BinaryMessage.parse(responseBytes);
+                    } else {
+                        String responseString = new String(responseBytes, "UTF-8");
+                        if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                            log += " >>> " + responseString;
+                            showLog = true;
+                        }
+                        response = (JSONObject)JSONValue.parseWithException(responseString);
+                    }
+                    updateDownloadedVolume(responseBytes.length);
+                }
+                checkErrorResponse(request, response);
+            } catch (NxtException.NxtIOException | NxtException.NotValidException e) {
+                blacklist(e);
+                response = null;
+            } catch (RuntimeException|ParseException|IOException e) {
+                sendFailed(e);
+                if ((communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
+                    log += " >>> " + e.toString();
+                    showLog = true;
+                }
+                response = null;
+            }
+            if (showLog) {
+                Logger.logMessage(log + "\n");
+            }
+            return response;
+        }
+    }
+
     @Override
     public int compareTo(Peer o) {
         if (getWeight() > o.getWeight()) {
@@ -853,6 +986,18 @@ final class PeerImpl implements Peer {
         }
     }
 
+    /**
+     * Add a transaction to the transactions known by the peer
+     *
+     * @param   transactionId       Transaction identifier
+     * @return                      TRUE if the transaction was not already known by the peer
+     */
+    boolean addKnownTransaction(long transactionId) {
+        synchronized (knownTransactions) {
+            return knownTransactions.put(transactionId, Boolean.TRUE) == null;
+        }
+    }
+
     long getServices() {
         synchronized (this) {
             return services;
@@ -18,11 +18,13 @@
 
 package nxt.peer;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -44,6 +46,7 @@ import org.json.simple.parser.ParseException;
 import nxt.BlockchainProcessor;
 import nxt.Constants;
 import nxt.Nxt;
+import nxt.NxtException;
 import nxt.util.CountingInputReader;
 import nxt.util.CountingOutputWriter;
 import nxt.util.JSON;
@@ -61,6 +64,9 @@ public final class PeerServlet extends WebSocketServlet {
     static {
         Map<String,PeerRequestHandler> map = new HashMap<>();
         map.put("addPeers", AddPeers.instance);
+        map.put("announceTransactions", AnnounceTransactions.instance);
+        map.put("getAnnouncedTransactions", GetAnnouncedTransactions.instance);
+        map.put("getBlockTransactions", GetBlockTransactions.instance);
         map.put("getCumulativeDifficulty", GetCumulativeDifficulty.instance);
         map.put("getInfo", GetInfo.instance);
         map.put("getMilestoneBlockIds", GetMilestoneBlockIds.instance);
@@ -70,6 +76,7 @@ public final class PeerServlet extends WebSocketServlet {
         map.put("getTransactions", GetTransactions.instance);
         map.put("getUnconfirmedTransactions", GetUnconfirmedTransactions.instance);
         map.put("processBlock", ProcessBlock.instance);
+        map.put("processCompactBlock", ProcessCompactBlock.instance);
         map.put("processTransactions", ProcessTransactions.instance);
         peerRequestHandlers = Collections.unmodifiableMap(map);
     }
@@ -194,8 +201,9 @@ public final class PeerServlet extends WebSocketServlet {
      * @param   webSocket           WebSocket for the connection
      * @param   requestId           Request identifier
      * @param   request             Request message
+     * @param   acceptsBinary       TRUE if the peer accepts a binary response
      */
-    void doPost(PeerWebSocket webSocket, long requestId, String request) {
+    void doPost(PeerWebSocket webSocket, long requestId, PeerWebSocket.Message request, boolean acceptsBinary) {
         JSONStreamAware jsonResponse;
         //
         // Process the peer request
@@ -210,18 +218,30 @@ public final class PeerServlet extends WebSocketServlet {
             jsonResponse = UNKNOWN_PEER;
         } else {
             peer.setInboundWebSocket(webSocket);
-            jsonResponse = process(peer, new StringReader(request));
+            if (request.isBinary()) {
+                jsonResponse = process(peer, request.getBytes());
+            } else {
+                jsonResponse = process(peer, new InputStreamReader(new ByteArrayInputStream(request.getBytes()), StandardCharsets.UTF_8));
+            }
         }
         //
         // Return the response
         //
         try {
-            StringWriter writer = new StringWriter(1000);
-            JSON.writeJSONString(jsonResponse, writer);
-            String response = writer.toString();
-            webSocket.sendResponse(requestId, response);
+            int responseLength;
+            if (acceptsBinary && jsonResponse instanceof BinaryMessage) {
+                byte[] response = ((BinaryMessage)jsonResponse).getBytes();
+                webSocket.sendResponse(requestId, response, true);
+                responseLength = response.length;
+            } else {
+                StringWriter writer = new StringWriter(1000);
+                JSON.writeJSONString(jsonResponse, writer);
+                String response = writer.toString();
+                webSocket.sendResponse(requestId, response);
+                responseLength = response.length();
+            }
             if (peer != null) {
-                peer.updateUploadedVolume(response.length());
+                peer.updateUploadedVolume(responseLength);
             }
         } catch (RuntimeException | IOException e) {
             if (peer != null) {
@@ -246,6 +266,51 @@ public final class PeerServlet extends WebSocketServlet {
      * @return                      JSON response
      */
     private JSONStreamAware process(PeerImpl peer, Reader inputReader) {
+        JSONStreamAware errorResponse = checkPeer(peer);
+        if (errorResponse != null) {
+            return errorResponse;
+        }
+        try (CountingInputReader cr = new CountingInputReader(inputReader, Peers.MAX_REQUEST_SIZE)) {
+            JSONObject request = (JSONObject)JSONValue.parseWithException(cr);
+            peer.updateDownloadedVolume(cr.getCount());
+            return process(peer, request);
+        } catch (RuntimeException|ParseException|IOException e) {
+            Logger.logDebugMessage("Error processing POST request: " + e.toString());
+            peer.blacklist(e);
+            return error(e);
+        }
+    }
+
+    /**
+     * Process the binary peer request
+     *
+     * @param   peer                Peer
+     * @param   requestBytes        Binary request
+     * @return                      JSON response
+     */
+    private JSONStreamAware process(PeerImpl peer, byte[] requestBytes) {
+        JSONStreamAware errorResponse = checkPeer(peer);
+        if (errorResponse != null) {
+            return errorResponse;
+        }
+        try {
+            JSONObject request = BinaryMessage.parse(requestBytes);
+            peer.updateDownloadedVolume(requestBytes.length);
+            return process(peer, request);
+        } catch (RuntimeException|NxtException.NotValidException e) {
+            Logger.logDebugMessage("Error processing binary POST request: " + e.toString());
+            peer.blacklist(e);
+            return error(e);
+        }
+    }
+
+    /**
+     * Check the peer before processing a request
+     *
+     * @param   peer                Peer
+     * @return                      Error response or null if the request can be processed
+     */
+    private JSONStreamAware checkPeer(PeerImpl peer) {
         //
         // Check for blacklisted peer
         //
@@ -256,47 +321,47 @@ public final class PeerServlet extends WebSocketServlet {
             return jsonObject;
         }
         Peers.addPeer(peer);
-        //
-        // Process the request
-        //
-        try (CountingInputReader cr = new CountingInputReader(inputReader, Peers.MAX_REQUEST_SIZE)) {
-            JSONObject request = (JSONObject)JSONValue.parseWithException(cr);
-            peer.updateDownloadedVolume(cr.getCount());
-            if (request.get("protocol") == null || ((Number)request.get("protocol")).intValue() != 1) {
-                Logger.logDebugMessage("Unsupported protocol " + request.get("protocol"));
-                return UNSUPPORTED_PROTOCOL;
-            }
-            PeerRequestHandler peerRequestHandler = peerRequestHandlers.get((String)request.get("requestType"));
-            if (peerRequestHandler == null) {
-                return UNSUPPORTED_REQUEST_TYPE;
-            }
-            if (peer.getState() == Peer.State.DISCONNECTED) {
-                peer.setState(Peer.State.CONNECTED);
-            }
-            if (peer.getVersion() == null && !"getInfo".equals(request.get("requestType"))) {
-                return SEQUENCE_ERROR;
+        return null;
+    }
+
+    /**
+     * Process the parsed peer request
+     *
+     * @param   peer                Peer
+     * @param   request             Request message
+     * @return                      JSON response
+     */
+    private JSONStreamAware process(PeerImpl peer, JSONObject request) {
+        if (request.get("protocol") == null || ((Number)request.get("protocol")).intValue() != 1) {
+            Logger.logDebugMessage("Unsupported protocol " + request.get("protocol"));
+            return UNSUPPORTED_PROTOCOL;
+        }
+        PeerRequestHandler peerRequestHandler = peerRequestHandlers.get((String)request.get("requestType"));
+        if (peerRequestHandler == null) {
+            return UNSUPPORTED_REQUEST_TYPE;
+        }
+        if (peer.getState() == Peer.State.DISCONNECTED) {
+            peer.setState(Peer.State.CONNECTED);
+        }
+        if (peer.getVersion() == null && !"getInfo".equals(request.get("requestType"))) {
+            return SEQUENCE_ERROR;
+        }
+        if (!peer.isInbound()) {
+            if (Peers.hasTooManyInboundPeers()) {
+                return MAX_INBOUND_CONNECTIONS;
             }
-            if (!peer.isInbound()) {
-                if (Peers.hasTooManyInboundPeers()) {
-                    return MAX_INBOUND_CONNECTIONS;
-                }
-                Peers.notifyListeners(peer, Peers.Event.ADD_INBOUND);
+            Peers.notifyListeners(peer, Peers.Event.ADD_INBOUND);
+        }
+        peer.setLastInboundRequest(Nxt.getEpochTime());
+        if (peerRequestHandler.rejectWhileDownloading()) {
+            if (blockchainProcessor.isDownloading()) {
+                return DOWNLOADING;
             }
-            peer.setLastInboundRequest(Nxt.getEpochTime());
-            if (peerRequestHandler.rejectWhileDownloading()) {
-                if (blockchainProcessor.isDownloading()) {
-                    return DOWNLOADING;
-                }
-                if (Constants.isLightClient) {
-                    return LIGHT_CLIENT;
-                }
+            if (Constants.isLightClient) {
+                return LIGHT_CLIENT;
             }
-            return peerRequestHandler.processRequest(request, peer);
-        } catch (RuntimeException|ParseException|IOException e) {
-            Logger.logDebugMessage("Error processing POST request: " + e.toString());
-            peer.blacklist(e);
-            return error(e);
         }
+        return peerRequestHandler.processRequest(request, peer);
     }
 
     /**
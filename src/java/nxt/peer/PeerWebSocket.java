@@ -20,6 +20,8 @@ package nxt.peer;
 
 import nxt.util.Logger;
 import nxt.util.QueuedThreadPool;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.UpgradeException;
 import org.eclipse.jetty.websocket.api.WebSocketException;
@@ -30,9 +32,6 @@ import org.eclipse.jetty.websocket.api.annotations.WebSocket;
 import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
 import org.eclipse.jetty.websocket.client.WebSocketClient;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ProtocolException;
@@ -40,18 +39,16 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * PeerWebSocket represents an HTTP/HTTPS upgraded connection
@@ -59,11 +56,23 @@ import java.util.zip.GZIPOutputStream;
 @WebSocket
 public class PeerWebSocket {
 
-    /** Compressed message flag */
-    private static final int FLAG_COMPRESSED = 1;
+    /** Binary message flag */
+    private static final int FLAG_BINARY = 2;
 
     /** Our WebSocket message version */
-    private static final int VERSION = 1;
+    private static final int VERSION = 3;
+
+    /** First WebSocket message version supporting binary messages */
+    private static final int BINARY_VERSION = 2;
+
+    /** First WebSocket message version supporting the message codecs */
+    private static final int CODEC_VERSION = 3;
+
+    /** Frame header length */
+    private static final int HEADER_LENGTH = 20;
+
+    /** Pooled frame buffers */
+    private static final ByteBufferPool bufferPool = new ArrayByteBufferPool(4096, 4096, 1024 * 1024);
 
     /** Create the WebSocket client */
     private static WebSocketClient peerClient;
@@ -81,7 +90,20 @@ public class PeerWebSocket {
     }
 
     /** Negotiated WebSocket message version */
-    private int version = VERSION;
+    private volatile int version = VERSION;
+
+    /** WebSocket message version of the last message received from the peer */
+    private volatile int peerVersion = 0;
+
+    /** Timer for POST request timeouts */
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "PeerWebSocket timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
 
     /** Thread pool for server request processing */
     private static final ExecutorService threadPool = new QueuedThreadPool(
@@ -98,7 +120,7 @@ public class PeerWebSocket {
     private final ReentrantLock lock = new ReentrantLock();
 
     /** Pending POST request map */
-    private final ConcurrentHashMap<Long, PostRequest> requestMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, CompletableFuture<Message>> requestMap = new ConcurrentHashMap<>();
 
     /** Next POST request identifier */
     private long nextRequestId = 0;
@@ -217,19 +239,62 @@ public class PeerWebSocket {
         return ((s=session) != null && s.isOpen() ? s.getRemoteAddress() : null);
     }
 
+    /**
+     * Check if the peer supports binary messages
+     *
+     * @return                      TRUE if binary messages are supported
+     */
+    public boolean isBinarySupported() {
+        return peerVersion >= BINARY_VERSION;
+    }
+
     /**
      * Process a POST request by sending the request message and then
      * waiting for a response.  This method is used by the connection
      * originator.
      *
      * @param   request             Request message
+     * @param   binary              TRUE if this is a binary message
      * @return                      Response message
      * @throws  IOException         I/O error occurred
      */
-    public String doPost(String request) throws IOException {
+    public Message doPost(byte[] request, boolean binary) throws IOException {
+        try {
+            return doPostAsync(request, binary).get();
+        } catch (InterruptedException exc) {
+            throw new SocketTimeoutException("WebSocket POST interrupted");
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause.toString(), cause);
+        }
+    }
+
+    /**
+     * Process a POST request by sending the request message without waiting
+     * for the response.  The returned future is completed when the response is
+     * received, when the read timeout expires or when the connection is closed.
+     * This method is used by the connection originator.
+     *
+     * The future is completed by the WebSocket read thread, so dependent actions
+     * which do more than a small amount of work should be run asynchronously.
+     *
+     * @param   request             Request message
+     * @param   binary              TRUE if this is a binary message
+     * @return                      Response future
+     * @throws  IOException         I/O error occurred
+     */
+    public CompletableFuture<Message> doPostAsync(byte[] request, boolean binary) throws IOException {
         long requestId;
+        CompletableFuture<Message> postRequest = new CompletableFuture<>();
         //
-        // Send the POST request
+        // Send the POST request.  The request is registered before it is sent since
+        // the response is processed without holding the WebSocket lock.
         //
         lock.lock();
         try {
@@ -237,47 +302,28 @@ public class PeerWebSocket {
                 throw new IOException("WebSocket session is not open");
             }
             requestId = nextRequestId++;
-            byte[] requestBytes = request.getBytes("UTF-8");
-            int requestLength = requestBytes.length;
-            int flags = 0;
-            if (Peers.isGzipEnabled && requestLength >= Peers.MIN_COMPRESS_SIZE) {
-                flags |= FLAG_COMPRESSED;
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream(requestLength);
-                try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
-                    gzipStream.write(requestBytes);
-                }
-                requestBytes = outStream.toByteArray();
-            }
-            ByteBuffer buf = ByteBuffer.allocate(requestBytes.length + 20);
-            buf.putInt(version)
-               .putLong(requestId)
-               .putInt(flags)
-               .putInt(requestLength)
-               .put(requestBytes)
-               .flip();
-            if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
-                throw new ProtocolException("POST request length exceeds max message size");
+            requestMap.put(requestId, postRequest);
+            try {
+                sendMessage(requestId, request, binary ? FLAG_BINARY : 0);
+            } catch (IOException | RuntimeException exc) {
+                requestMap.remove(requestId);
+                throw exc;
             }
-            session.getRemote().sendBytes(buf);
-        } catch (WebSocketException exc) {
-            throw new SocketException(exc.getMessage());
         } finally {
             lock.unlock();
         }
         //
-        // Get the response
+        // Complete the request with an exception if the response is not received
+        // before the read timeout expires
         //
-        String response;
-        try {
-            PostRequest postRequest = new PostRequest();
-            requestMap.put(requestId, postRequest);
-            response = postRequest.get(Peers.readTimeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException exc) {
-            throw new SocketTimeoutException("WebSocket POST interrupted");
-        }
-        return response;
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (requestMap.remove(requestId) != null) {
+                postRequest.completeExceptionally(new SocketTimeoutException("WebSocket read timeout exceeded"));
+            }
+        }, Peers.readTimeout, TimeUnit.MILLISECONDS);
+        postRequest.whenComplete((response, exc) -> timeout.cancel(false));
+        return postRequest;
     }
-    
 
     /**
      * Send POST response
@@ -289,84 +335,123 @@ public class PeerWebSocket {
      * @throws  IOException         I/O error occurred
      */
     public void sendResponse(long requestId, String response) throws IOException {
+        sendResponse(requestId, response.getBytes("UTF-8"), false);
+    }
+
+    /**
+     * Send POST response
+     *
+     * This method is used by the connection acceptor to return the POST response
+     *
+     * @param   requestId           Request identifier
+     * @param   response            Response message
+     * @param   binary              TRUE if this is a binary message
+     * @throws  IOException         I/O error occurred
+     */
+    public void sendResponse(long requestId, byte[] response, boolean binary) throws IOException {
         lock.lock();
         try {
             if (session != null && session.isOpen()) {
-                byte[] responseBytes = response.getBytes("UTF-8");
-                int responseLength = responseBytes.length;
-                int flags = 0;
-                if (Peers.isGzipEnabled && responseLength >= Peers.MIN_COMPRESS_SIZE) {
-                    flags |= FLAG_COMPRESSED;
-                    ByteArrayOutputStream outStream = new ByteArrayOutputStream(responseLength);
-                    try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
-                        gzipStream.write(responseBytes);
-                    }
-                    responseBytes = outStream.toByteArray();
-                }
-                ByteBuffer buf = ByteBuffer.allocate(responseBytes.length + 20);
-                buf.putInt(version)
-                   .putLong(requestId)
-                   .putInt(flags)
-                   .putInt(responseLength)
-                   .put(responseBytes)
-                   .flip();
-                if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
-                    throw new ProtocolException("POST response length exceeds max message size");
-                }
-                session.getRemote().sendBytes(buf);
+                sendMessage(requestId, response, binary ? FLAG_BINARY : 0);
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send a message
+     *
+     * The message is compressed using the configured codec if the peer supports the
+     * message codecs and using GZIP otherwise.  The message is sent uncompressed if
+     * compression does not reduce the message length.  The frame buffer is obtained
+     * from the buffer pool and is returned to the pool after the message has been sent.
+     *
+     * The caller must hold the WebSocket lock
+     *
+     * @param   requestId           Request identifier
+     * @param   messageBytes        Message bytes
+     * @param   flags               Message flags
+     * @throws  IOException         I/O error occurred
+     */
+    private void sendMessage(long requestId, byte[] messageBytes, int flags) throws IOException {
+        int messageLength = messageBytes.length;
+        MessageCodec codec = null;
+        if (Peers.isGzipEnabled && messageLength >= Peers.MIN_COMPRESS_SIZE) {
+            codec = (peerVersion >= CODEC_VERSION ? Peers.messageCodec : MessageCodec.GZIP);
+        }
+        ByteBuffer buf = bufferPool.acquire(HEADER_LENGTH + messageLength, false);
+        try {
+            buf.clear();
+            int compressedLength = -1;
+            if (codec != null) {
+                compressedLength = codec.compress(messageBytes, buf.array(), buf.arrayOffset() + HEADER_LENGTH,
+                        Math.min(buf.capacity() - HEADER_LENGTH, messageLength - 1));
+            }
+            buf.putInt(version)
+               .putLong(requestId)
+               .putInt(compressedLength >= 0 ? flags | codec.getFlag() : flags)
+               .putInt(messageLength);
+            if (compressedLength >= 0) {
+                buf.position(HEADER_LENGTH + compressedLength);
+            } else {
+                buf.put(messageBytes);
+            }
+            buf.flip();
+            if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
+                throw new ProtocolException("WebSocket message length exceeds max message size");
+            }
+            session.getRemote().sendBytes(buf);
         } catch (WebSocketException exc) {
             throw new SocketException(exc.getMessage());
         } finally {
-            lock.unlock();
+            bufferPool.release(buf);
         }
     }
 
     /**
      * Process a socket message
      *
+     * The message is decompressed by the WebSocket read thread without holding the
+     * WebSocket lock.  Server requests are then processed by the request thread pool.
+     *
      * @param   inbuf               Message buffer
      * @param   off                 Starting offset
      * @param   len                 Message length
      */
     @OnWebSocketMessage
     public void onMessage(byte[] inbuf, int off, int len) {
-        lock.lock();
         try {
             ByteBuffer buf = ByteBuffer.wrap(inbuf, off, len);
-            version = Math.min(buf.getInt(), VERSION);
+            int messageVersion = buf.getInt();
+            version = Math.min(messageVersion, VERSION);
+            peerVersion = messageVersion;
             Long requestId = buf.getLong();
             int flags = buf.getInt();
             int length = buf.getInt();
-            byte[] msgBytes = new byte[buf.remaining()];
-            buf.get(msgBytes);
-            if ((flags&FLAG_COMPRESSED) != 0) {
-                ByteArrayInputStream inStream = new ByteArrayInputStream(msgBytes);
-                try (GZIPInputStream gzipStream = new GZIPInputStream(inStream, 1024)) {
-                    msgBytes = new byte[length];
-                    int offset = 0;
-                    while (offset < msgBytes.length) {
-                        int count = gzipStream.read(msgBytes, offset, msgBytes.length - offset);
-                        if (count < 0) {
-                            throw new EOFException("End-of-data reading compressed data");
-                        }
-                        offset += count;
-                    }
-                }
+            if (length < 0 || length > Peers.MAX_MESSAGE_SIZE) {
+                throw new ProtocolException("WebSocket message length " + length + " is not valid");
+            }
+            byte[] msgBytes;
+            MessageCodec codec = MessageCodec.forFlags(flags);
+            if (codec != null) {
+                msgBytes = codec.decompress(inbuf, buf.position(), buf.remaining(), length);
+            } else {
+                msgBytes = new byte[buf.remaining()];
+                buf.get(msgBytes);
             }
-            String message = new String(msgBytes, "UTF-8");
+            Message message = new Message(msgBytes, (flags&FLAG_BINARY) != 0);
             if (peerServlet != null) {
-                threadPool.execute(() -> peerServlet.doPost(this, requestId, message));
+                boolean acceptsBinary = messageVersion >= BINARY_VERSION;
+                threadPool.execute(() -> peerServlet.doPost(this, requestId, message, acceptsBinary));
             } else {
-                PostRequest postRequest = requestMap.remove(requestId);
+                CompletableFuture<Message> postRequest = requestMap.remove(requestId);
                 if (postRequest != null) {
                     postRequest.complete(message);
                 }
             }
         } catch (Exception exc) {
             Logger.logDebugMessage("Exception while processing WebSocket message", exc);
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -389,9 +474,12 @@ public class PeerWebSocket {
                 session = null;
             }
             SocketException exc = new SocketException("WebSocket connection closed");
-            Set<Map.Entry<Long, PostRequest>> requests = requestMap.entrySet();
-            requests.forEach((entry) -> entry.getValue().complete(exc));
-            requestMap.clear();
+            requestMap.keySet().forEach(requestId -> {
+                CompletableFuture<Message> postRequest = requestMap.remove(requestId);
+                if (postRequest != null) {
+                    postRequest.completeExceptionally(exc);
+                }
+            });
         } finally {
             lock.unlock();
         }
@@ -414,68 +502,43 @@ public class PeerWebSocket {
     }
 
     /**
-     * POST request
+     * WebSocket message
      */
-    private class PostRequest {
-
-        /** Request latch */
-        private final CountDownLatch latch = new CountDownLatch(1);
+    public static final class Message {
 
-        /** Response message */
-        private volatile String response;
+        /** Message bytes */
+        private final byte[] bytes;
 
-        /** Socket exception */
-        private volatile IOException exception;
-
-        /**
-         * Create a post request
-         */
-        public PostRequest() {
-        }
+        /** Binary message */
+        private final boolean binary;
 
         /**
-         * Wait for the response
-         *
-         * The caller must hold the lock for the request condition
+         * Create a message
          *
-         * @param   timeout                 Wait timeout
-         * @param   unit                    Time unit
-         * @return                          Response message
-         * @throws  InterruptedException    Wait interrupted
-         * @throws  IOException             I/O error occurred
+         * @param   bytes                   Message bytes
+         * @param   binary                  TRUE if this is a binary message
          */
-        public String get(long timeout, TimeUnit unit) throws InterruptedException, IOException {
-            if (!latch.await(timeout, unit)) {
-                throw new SocketTimeoutException("WebSocket read timeout exceeded");
-            }
-            if (exception != null) {
-                throw exception;
-            }
-            return response;
+        private Message(byte[] bytes, boolean binary) {
+            this.bytes = bytes;
+            this.binary = binary;
         }
 
         /**
-         * Complete the request with a response message
-         *
-         * The caller must hold the lock for the request condition
+         * Return the message bytes.  A JSON message is encoded using UTF-8.
          *
-         * @param   response                Response message
+         * @return                          Message bytes
          */
-        public void complete(String response) {
-            this.response = response;
-            latch.countDown();
+        public byte[] getBytes() {
+            return bytes;
         }
 
         /**
-         * Complete the request with an exception
-         *
-         * The caller must hold the lock for the request condition
+         * Check if this is a binary message
          *
-         * @param   exception             I/O exception
+         * @return                          TRUE if this is a binary message
          */
-        public void complete(IOException exception) {
-            this.exception = exception;
-            latch.countDown();
+        public boolean isBinary() {
+            return binary;
         }
     }
 }
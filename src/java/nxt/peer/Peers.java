@@ -25,9 +25,11 @@ import java.net.SocketException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -45,6 +47,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import javax.servlet.DispatcherType;
 
@@ -65,6 +68,7 @@ import nxt.Block;
 import nxt.Constants;
 import nxt.Db;
 import nxt.Nxt;
+import nxt.NxtException;
 import nxt.Transaction;
 import nxt.http.API;
 import nxt.http.APIEnum;
@@ -109,6 +113,7 @@ public final class Peers {
     static final int webSocketIdleTimeout;
     static final boolean useProxy = System.getProperty("socksProxyHost") != null || System.getProperty("http.proxyHost") != null;
     static final boolean isGzipEnabled;
+    static final MessageCodec messageCodec;
 
     private static final int DEFAULT_PEER_PORT = 7864;
     private static final int TESTNET_PEER_PORT = 6864;
@@ -127,6 +132,12 @@ public final class Peers {
     private static final int pushThreshold;
     private static final int pullThreshold;
     private static final int sendToPeersLimit;
+    static final boolean enableTransactionInventory =
+            Nxt.getBooleanProperty("nxt.enableTransactionInventory") && !Constants.isLightClient;
+    static final int MAX_INVENTORY_SIZE = 1000;
+    static final int MAX_KNOWN_TRANSACTIONS = 5000;
+    static final boolean enableCompactBlocks =
+            Nxt.getBooleanProperty("nxt.enableCompactBlocks") && !Constants.isLightClient;
     private static final boolean usePeersDb;
     private static final boolean savePeers;
     static final boolean ignorePeerAnnouncedAddress;
@@ -147,6 +158,7 @@ public final class Peers {
 
     private static final ConcurrentMap<String, PeerImpl> peers = new ConcurrentHashMap<>();
     private static final ConcurrentMap<String, String> selfAnnouncedAddresses = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Long, RequestedTransaction> requestedTransactions = new ConcurrentHashMap<>();
 
     static final Collection<PeerImpl> allPeers = Collections.unmodifiableCollection(peers.values());
 
@@ -269,6 +281,12 @@ public final class Peers {
         if (!Constants.ENABLE_PRUNING && Constants.INCLUDE_EXPIRED_PRUNABLE) {
             servicesList.add(Peer.Service.PRUNABLE);
         }
+        if (enableTransactionInventory) {
+            servicesList.add(Peer.Service.INVENTORY);
+        }
+        if (enableCompactBlocks) {
+            servicesList.add(Peer.Service.COMPACT_BLOCK);
+        }
         if (API.openAPIPort > 0) {
             json.put("apiPort", API.openAPIPort);
             servicesList.add(Peer.Service.API);
@@ -338,6 +356,13 @@ public final class Peers {
         useWebSockets = Nxt.getBooleanProperty("nxt.useWebSockets");
         webSocketIdleTimeout = Nxt.getIntProperty("nxt.webSocketIdleTimeout");
         isGzipEnabled = Nxt.getBooleanProperty("nxt.enablePeerServerGZIPFilter");
+        String codecName = Nxt.getStringProperty("nxt.peerMessageCodec", "deflate");
+        MessageCodec codec = MessageCodec.forName(codecName);
+        if (codec == null) {
+            Logger.logWarningMessage("Unsupported peer message codec " + codecName + ", using deflate");
+            codec = MessageCodec.DEFLATE;
+        }
+        messageCodec = codec;
         blacklistingPeriod = Nxt.getIntProperty("nxt.blacklistingPeriod") / 1000;
         communicationLoggingMask = Nxt.getIntProperty("nxt.communicationLoggingMask");
         sendToPeersLimit = Nxt.getIntProperty("nxt.sendToPeersLimit");
@@ -812,6 +837,7 @@ public final class Peers {
         }
         ThreadPool.shutdownExecutor("sendingService", sendingService, 2);
         ThreadPool.shutdownExecutor("peersService", peersService, 5);
+        PeerHttpClient.shutdown();
     }
 
     public static boolean addListener(Listener<Peer> listener, Event eventType) {
@@ -1009,45 +1035,54 @@ public final class Peers {
     }
 
     public static void sendToSomePeers(Block block) {
-        JSONObject request = block.getJSONObject();
-        request.put("requestType", "processBlock");
-        sendToSomePeers(request);
+        //
+        // Peers supporting compact blocks receive the block header and the transaction
+        // identifiers and rebuild the block from their unconfirmed transaction pool
+        //
+        BinaryMessage blockRequest = BinaryMessage.processBlock(block);
+        BinaryMessage compactBlockRequest = enableCompactBlocks ? BinaryMessage.compactBlock(block) : null;
+        sendToSomePeers(peer -> compactBlockRequest != null && peer.providesService(Peer.Service.COMPACT_BLOCK) ?
+                compactBlockRequest : blockRequest);
     }
 
     private static final int sendTransactionsBatchSize = 10;
 
     public static void sendToSomePeers(List<? extends Transaction> transactions) {
+        //
+        // Peers supporting the transaction inventory receive the transaction full hashes and
+        // request the transactions they don't have.  The transactions are sent to the
+        // remaining peers.
+        //
+        if (enableTransactionInventory) {
+            announceTransactions(transactions);
+        }
         int nextBatchStart = 0;
         while (nextBatchStart < transactions.size()) {
-            JSONObject request = new JSONObject();
-            JSONArray transactionsData = new JSONArray();
-            for (int i = nextBatchStart; i < nextBatchStart + sendTransactionsBatchSize && i < transactions.size(); i++) {
-                transactionsData.add(transactions.get(i).getJSONObject());
-            }
-            request.put("requestType", "processTransactions");
-            request.put("transactions", transactionsData);
-            sendToSomePeers(request);
+            int nextBatchEnd = Math.min(nextBatchStart + sendTransactionsBatchSize, transactions.size());
+            BinaryMessage transactionsRequest =
+                    BinaryMessage.processTransactions(new ArrayList<>(transactions.subList(nextBatchStart, nextBatchEnd)));
+            sendToSomePeers(peer -> enableTransactionInventory && peer.providesService(Peer.Service.INVENTORY) ?
+                    null : transactionsRequest);
             nextBatchStart += sendTransactionsBatchSize;
         }
     }
 
-    private static void sendToSomePeers(final JSONObject request) {
+    private static void sendToSomePeers(final Function<Peer, JSONStreamAware> requestSelector) {
         sendingService.submit(() -> {
-            final JSONStreamAware jsonRequest = JSON.prepareRequest(request);
-
             int successful = 0;
             List<Future<JSONObject>> expectedResponses = new ArrayList<>();
             for (final Peer peer : peers.values()) {
 
-                if (Peers.enableHallmarkProtection && peer.getWeight() < Peers.pushThreshold) {
+                if (!isPushPeer(peer)) {
                     continue;
                 }
-
-                if (!peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null
-                        && peer.getBlockchainState() != Peer.BlockchainState.LIGHT_CLIENT) {
-                    Future<JSONObject> futureResponse = peersService.submit(() -> peer.send(jsonRequest));
-                    expectedResponses.add(futureResponse);
+                JSONStreamAware jsonRequest = requestSelector.apply(peer);
+                if (jsonRequest == null) {
+                    continue;
                 }
+
+                Future<JSONObject> futureResponse = peer.sendAsync(jsonRequest);
+                expectedResponses.add(futureResponse);
                 if (expectedResponses.size() >= Peers.sendToPeersLimit - successful) {
                     for (Future<JSONObject> future : expectedResponses) {
                         try {
@@ -1071,6 +1106,198 @@ public final class Peers {
         });
     }
 
+    /**
+     * Announce transactions to the peers supporting the transaction inventory.  Each peer
+     * receives the full hashes of the transactions it doesn't already know about.
+     *
+     * @param   transactions        Transactions
+     */
+    private static void announceTransactions(List<? extends Transaction> transactions) {
+        sendingService.submit(() -> {
+            for (PeerImpl peer : peers.values()) {
+                if (!peer.providesService(Peer.Service.INVENTORY) || !isPushPeer(peer)) {
+                    continue;
+                }
+                JSONArray fullHashes = new JSONArray();
+                for (Transaction transaction : transactions) {
+                    if (peer.addKnownTransaction(transaction.getId())) {
+                        fullHashes.add(transaction.getFullHash());
+                        if (fullHashes.size() >= MAX_INVENTORY_SIZE) {
+                            sendInventory(peer, fullHashes);
+                            fullHashes = new JSONArray();
+                        }
+                    }
+                }
+                if (!fullHashes.isEmpty()) {
+                    sendInventory(peer, fullHashes);
+                }
+            }
+        });
+    }
+
+    private static void sendInventory(Peer peer, JSONArray fullHashes) {
+        JSONObject request = new JSONObject();
+        request.put("requestType", "announceTransactions");
+        request.put("transactionFullHashes", fullHashes);
+        peer.sendAsync(JSON.prepareRequest(request));
+    }
+
+    /**
+     * Process a transaction inventory announced by a peer.  The transactions that are not
+     * already in the unconfirmed pool or the blockchain and have not been requested from
+     * another peer are requested from the announcing peer.  The announcing peer is added
+     * to the alternate peers for transactions that have already been requested.
+     *
+     * @param   peer                Announcing peer
+     * @param   fullHashes          Transaction full hashes
+     */
+    static void processInventory(PeerImpl peer, List<String> fullHashes) {
+        List<Long> missingIds = new ArrayList<>();
+        for (String fullHash : fullHashes) {
+            byte[] hash = Convert.parseHexString(fullHash);
+            if (hash == null || hash.length != 32) {
+                throw new IllegalArgumentException("Invalid transaction full hash " + fullHash);
+            }
+            long transactionId = Convert.fullHashToId(hash);
+            peer.addKnownTransaction(transactionId);
+            if (Nxt.getTransactionProcessor().getUnconfirmedTransaction(transactionId) != null
+                    || Nxt.getBlockchain().hasTransactionByFullHash(fullHash)) {
+                continue;
+            }
+            RequestedTransaction requestedTransaction = new RequestedTransaction(fullHash);
+            while (true) {
+                RequestedTransaction pending = requestedTransactions.putIfAbsent(transactionId, requestedTransaction);
+                if (pending == null) {
+                    missingIds.add(transactionId);
+                    break;
+                }
+                if (pending.addPeer(peer)) {
+                    break;
+                }
+                requestedTransactions.remove(transactionId, pending);
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            requestTransactions(peer, missingIds);
+        }
+    }
+
+    /**
+     * Request announced transactions from a peer.  The response is processed by the peers
+     * service since processing the transactions requires the blockchain lock.  A transaction
+     * that is not received is requested from the next peer that announced it.
+     *
+     * @param   peer                Peer
+     * @param   transactionIds      Requested transaction identifiers
+     */
+    private static void requestTransactions(Peer peer, List<Long> transactionIds) {
+        JSONArray missingHashes = new JSONArray();
+        transactionIds.forEach(transactionId -> {
+            RequestedTransaction requestedTransaction = requestedTransactions.get(transactionId);
+            if (requestedTransaction != null) {
+                missingHashes.add(requestedTransaction.fullHash);
+            }
+        });
+        if (missingHashes.isEmpty()) {
+            return;
+        }
+        JSONObject request = new JSONObject();
+        request.put("requestType", "getAnnouncedTransactions");
+        request.put("transactionFullHashes", missingHashes);
+        peer.sendAsync(JSON.prepareRequest(request)).whenCompleteAsync((response, exc) -> {
+            try {
+                if (response != null && response.get("error") == null) {
+                    Nxt.getTransactionProcessor().processPeerTransactions(response);
+                }
+            } catch (NxtException.ValidationException | RuntimeException e) {
+                peer.blacklist(e);
+            }
+            Map<Peer, List<Long>> retryIds = new HashMap<>();
+            for (Long transactionId : transactionIds) {
+                RequestedTransaction requestedTransaction = requestedTransactions.get(transactionId);
+                if (requestedTransaction == null) {
+                    continue;
+                }
+                Peer nextPeer = null;
+                if (Nxt.getTransactionProcessor().getUnconfirmedTransaction(transactionId) == null
+                        && !Nxt.getBlockchain().hasTransactionByFullHash(requestedTransaction.fullHash)) {
+                    nextPeer = requestedTransaction.nextPeer();
+                } else {
+                    requestedTransaction.done();
+                }
+                if (nextPeer == null) {
+                    requestedTransactions.remove(transactionId, requestedTransaction);
+                } else {
+                    retryIds.computeIfAbsent(nextPeer, k -> new ArrayList<>()).add(transactionId);
+                }
+            }
+            retryIds.forEach(Peers::requestTransactions);
+        }, peersService);
+    }
+
+    /**
+     * Transaction requested from a peer
+     */
+    private static final class RequestedTransaction {
+
+        /** Transaction full hash */
+        private final String fullHash;
+
+        /** Other peers which announced the transaction */
+        private final Deque<Peer> peers = new ArrayDeque<>();
+
+        /** Request is complete */
+        private boolean done;
+
+        private RequestedTransaction(String fullHash) {
+            this.fullHash = fullHash;
+        }
+
+        /**
+         * Add a peer which announced the transaction
+         *
+         * @param   peer            Announcing peer
+         * @return                  TRUE if the peer was added or FALSE if the request is complete
+         */
+        private synchronized boolean addPeer(Peer peer) {
+            if (done) {
+                return false;
+            }
+            peers.add(peer);
+            return true;
+        }
+
+        /**
+         * Return the next connected peer which announced the transaction
+         *
+         * @return                  Peer or null if the request is complete
+         */
+        private synchronized Peer nextPeer() {
+            Peer peer;
+            do {
+                peer = peers.poll();
+            } while (peer != null && (peer.isBlacklisted() || peer.getState() != Peer.State.CONNECTED));
+            if (peer == null) {
+                done = true;
+            }
+            return peer;
+        }
+
+        /**
+         * Complete the request
+         */
+        private synchronized void done() {
+            done = true;
+            peers.clear();
+        }
+    }
+
+    private static boolean isPushPeer(Peer peer) {
+        return (!Peers.enableHallmarkProtection || peer.getWeight() >= Peers.pushThreshold)
+                && !peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null
+                && peer.getBlockchainState() != Peer.BlockchainState.LIGHT_CLIENT;
+    }
+
     public static Peer getAnyPeer(final Peer.State state, final boolean applyPullThreshold) {
         return getWeightedPeer(getPublicPeers(state, applyPullThreshold));
     }
@@ -0,0 +1,146 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.peer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import nxt.Block;
+import nxt.Constants;
+import nxt.Nxt;
+import nxt.NxtException;
+import nxt.Transaction;
+import nxt.crypto.Crypto;
+import nxt.util.Convert;
+import nxt.util.JSON;
+import nxt.util.Logger;
+
+/**
+ * Process a compact block.  The block is rebuilt using the transactions in the
+ * unconfirmed transaction pool.  Missing transactions are requested from the peer.
+ */
+final class ProcessCompactBlock extends PeerServlet.PeerRequestHandler {
+
+    static final ProcessCompactBlock instance = new ProcessCompactBlock();
+
+    private ProcessCompactBlock() {}
+
+    @Override
+    JSONStreamAware processRequest(final JSONObject request, final Peer peer) {
+        String previousBlockId = (String)request.get("previousBlock");
+        Block lastBlock = Nxt.getBlockchain().getLastBlock();
+        if (lastBlock.getStringId().equals(previousBlockId) ||
+                (Convert.parseUnsignedLong(previousBlockId) == lastBlock.getPreviousBlockId()
+                        && lastBlock.getTimestamp() > Convert.parseLong(request.get("timestamp")))) {
+            Peers.peersService.submit(() -> {
+                try {
+                    Block block = rebuildBlock(request, peer);
+                    if (block != null) {
+                        JSONObject blockRequest = new JSONObject();
+                        blockRequest.put("previousBlock", previousBlockId);
+                        blockRequest.put("timestamp", block.getTimestamp());
+                        blockRequest.put("block", block);
+                        Nxt.getBlockchainProcessor().processPeerBlock(blockRequest);
+                    }
+                } catch (NxtException | RuntimeException e) {
+                    if (peer != null) {
+                        peer.blacklist(e);
+                    }
+                }
+            });
+        }
+        return JSON.emptyJSON;
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+    /**
+     * Rebuild the block from the unconfirmed transaction pool and the missing
+     * transactions returned by the peer
+     *
+     * @param   request             Compact block request
+     * @param   peer                Peer
+     * @return                      Block or null if the block transactions are not available
+     * @throws  NxtException.NotValidException  Block is not valid
+     */
+    private static Block rebuildBlock(JSONObject request, Peer peer) throws NxtException.NotValidException {
+        byte[] blockBytes = Convert.parseHexString((String)request.get("blockBytes"));
+        List<String> transactionIds = (List<String>)request.get("transactionIds");
+        if (blockBytes == null || transactionIds == null) {
+            throw new NxtException.NotValidException("Compact block is incomplete");
+        }
+        if (transactionIds.size() > Constants.MAX_NUMBER_OF_TRANSACTIONS) {
+            throw new NxtException.NotValidException("Too many transactions in compact block: " + transactionIds.size());
+        }
+        List<Transaction> transactions = new ArrayList<>(transactionIds.size());
+        Map<Long, Integer> missingTransactions = new HashMap<>();
+        JSONArray missingIds = new JSONArray();
+        for (String transactionId : transactionIds) {
+            long id = Convert.parseUnsignedLong(transactionId);
+            Transaction transaction = Nxt.getTransactionProcessor().getUnconfirmedTransaction(id);
+            if (transaction == null) {
+                missingTransactions.put(id, transactions.size());
+                missingIds.add(transactionId);
+            }
+            transactions.add(transaction);
+        }
+        //
+        // Request the missing transactions from the peer
+        //
+        if (!missingIds.isEmpty()) {
+            long blockId = Convert.fullHashToId(Crypto.sha256().digest(blockBytes));
+            JSONObject transactionsRequest = new JSONObject();
+            transactionsRequest.put("requestType", "getBlockTransactions");
+            transactionsRequest.put("blockId", Long.toUnsignedString(blockId));
+            transactionsRequest.put("transactionIds", missingIds);
+            JSONObject response = peer.send(JSON.prepareRequest(transactionsRequest), Peers.MAX_RESPONSE_SIZE);
+            if (response == null || response.get("error") != null) {
+                return null;
+            }
+            List<?> transactionsData = (List<?>)response.get("transactions");
+            if (transactionsData == null) {
+                return null;
+            }
+            for (Object transactionData : transactionsData) {
+                Transaction transaction = transactionData instanceof Transaction ? (Transaction)transactionData :
+                        Nxt.parseTransaction((JSONObject)transactionData);
+                Integer index = missingTransactions.remove(transaction.getId());
+                if (index == null) {
+                    throw new NxtException.NotValidException("Transaction " + transaction.getStringId() + " was not requested");
+                }
+                transactions.set(index, transaction);
+            }
+            if (!missingTransactions.isEmpty()) {
+                Logger.logDebugMessage("Peer " + peer.getHost() + " did not return " + missingTransactions.size()
+                        + " compact block transactions");
+                return null;
+            }
+        }
+        return Nxt.parseBlock(blockBytes, transactions);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ * Copyright © 2017-2020 Sigwo Technologies
+ * Copyright © 2020-2021 Jupiter Project Developers
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package nxt.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BloomFilter is a probabilistic set of long values.  A negative answer from
+ * mightContain() is always correct, while a positive answer may be a false positive.
+ * Values cannot be removed, so a value that is no longer in the underlying set
+ * remains a false positive until the filter is cleared and reloaded.
+ *
+ * The filter grows as values are added.  A new segment with twice the capacity of the
+ * previous segment is created when the current segment is full, which keeps the false
+ * positive rate bounded without rebuilding the filter.  The filter is thread-safe and
+ * neither add() nor mightContain() obtain a lock.
+ */
+public final class BloomFilter {
+
+    /** Filter segments */
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    /** Capacity of the first segment */
+    private final int initialCapacity;
+
+    /** Target false positive rate for each segment */
+    private final double falsePositiveRate;
+
+    /**
+     * Create the Bloom filter
+     *
+     * @param   initialCapacity         Number of values in the first segment
+     * @param   falsePositiveRate       Target false positive rate for each segment
+     */
+    public BloomFilter(int initialCapacity, double falsePositiveRate) {
+        if (initialCapacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveRate = falsePositiveRate;
+        segments.add(new Segment(initialCapacity, falsePositiveRate));
+    }
+
+    /**
+     * Add a value to the filter
+     *
+     * @param   value                   Value
+     */
+    public void add(long value) {
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.isFull()) {
+            synchronized (segments) {
+                segment = segments.get(segments.size() - 1);
+                if (segment.isFull()) {
+                    segment = new Segment((int)Math.min((long)segment.capacity * 2, Integer.MAX_VALUE / 64), falsePositiveRate);
+                    segments.add(segment);
+                }
+            }
+        }
+        segment.add(value);
+    }
+
+    /**
+     * Check if the filter might contain a value
+     *
+     * @param   value                   Value
+     * @return                          FALSE if the value is definitely not in the filter
+     */
+    public boolean mightContain(long value) {
+        for (Segment segment : segments) {
+            if (segment.mightContain(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove all values from the filter
+     */
+    public void clear() {
+        synchronized (segments) {
+            segments.add(new Segment(initialCapacity, falsePositiveRate));
+            segments.subList(0, segments.size() - 1).clear();
+        }
+    }
+
+    /**
+     * Return the number of values added to the filter
+     *
+     * @return                          Number of values
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count.get();
+        }
+        return size;
+    }
+
+    /**
+     * Bloom filter segment
+     */
+    private static final class Segment {
+
+        /** Number of values before the segment is full */
+        private final int capacity;
+
+        /** Number of bits */
+        private final long numBits;
+
+        /** Number of hash functions */
+        private final int numHashes;
+
+        /** Filter bits */
+        private final AtomicLongArray bits;
+
+        /** Number of values added */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Create a segment
+         *
+         * @param   capacity            Number of values
+         * @param   falsePositiveRate   Target false positive rate
+         */
+        private Segment(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            long optimalBits = (long)Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new AtomicLongArray((int)((optimalBits + 63) / 64));
+            this.numBits = (long)bits.length() * 64;
+            this.numHashes = Math.max(1, (int)Math.round((double)numBits / capacity * Math.log(2)));
+        }
+
+        private boolean isFull() {
+            return count.get() >= capacity;
+        }
+
+        private void add(long value) {
+            long hash1 = mix(value);
+            long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Long.remainderUnsigned(hash1 + i * hash2, numBits);
+                int index = (int)(bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                do {
+                    word = bits.get(index);
+                    if ((word & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(index, word, word | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        private boolean mightContain(long value) {
+            long hash1 = mix(value);
+            long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Long.remainderUnsigned(hash1 + i * hash2, numBits);
+                if ((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long mix(long value) {
+            value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+            value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return value ^ (value >>> 33);
+        }
+    }
+}
@@ -40,6 +40,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * will cause the thread to be suspended until the blocking lock is released.
  * An attempt to obtain the write lock while holding the read lock will result in an exception.</li>
  * </ul>
+ * <p>
+ * An optimistic read does not obtain a lock.  The reader obtains a stamp before reading and
+ * validates the stamp after reading.  The stamp is valid if the write lock has not been held
+ * since the stamp was obtained.  The reader must discard the results and retry (or obtain the
+ * read lock) if the stamp is not valid.
+ * </p>
  */
 public class ReadWriteUpdateLock {
 
@@ -61,6 +67,9 @@ public class ReadWriteUpdateLock {
     /** Write lock */
     private final WriteLock writeLock = new WriteLock();
 
+    /** Write version (odd while the write lock is held, never 0) */
+    private volatile long writeVersion = 2;
+
     /**
      * Return the read lock
      *
@@ -88,6 +97,26 @@ public class ReadWriteUpdateLock {
         return writeLock;
     }
 
+    /**
+     * Start an optimistic read
+     *
+     * @return                      Read stamp or 0 if the write lock is held
+     */
+    public long tryOptimisticRead() {
+        long stamp = writeVersion;
+        return (stamp & 1) == 0 ? stamp : 0;
+    }
+
+    /**
+     * Validate an optimistic read
+     *
+     * @param   stamp               Read stamp returned by tryOptimisticRead()
+     * @return                      TRUE if the write lock has not been held since the stamp was obtained
+     */
+    public boolean validate(long stamp) {
+        return stamp != 0 && writeVersion == stamp;
+    }
+
     /**
      * Lock interface
      */
@@ -210,7 +239,9 @@ public class ReadWriteUpdateLock {
                 counts.updateCount++;
                 lockObtained = true;
                 sharedLock.writeLock().lock();
-                counts.writeCount++;
+                if (counts.writeCount++ == 0) {
+                    writeVersion++;
+                }
             } catch (Exception exc) {
                 if (lockObtained) {
                     mutexLock.unlock();
@@ -226,8 +257,10 @@ public class ReadWriteUpdateLock {
         @Override
         public void unlock() {
             LockCount counts = lockCount.get();
+            if (--counts.writeCount == 0) {
+                writeVersion++;
+            }
             sharedLock.writeLock().unlock();
-            counts.writeCount--;
             mutexLock.unlock();
             counts.updateCount--;
         }